@@ -1,5 +1,8 @@
 package com.ruoran.houyi;
 
+import com.ruoran.houyi.downloader.BigFileLane;
+import com.ruoran.houyi.downloader.DownloadPrioritizer;
+import com.ruoran.houyi.downloader.FairDownloadQueue;
 import com.ruoran.houyi.service.EventBus;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
@@ -32,6 +35,12 @@ public class DownloadThreadKeeper {
     @Resource
     EventBus eventBus;
 
+    @Resource
+    BigFileLane bigFileLane;
+
+    @Resource
+    DownloadPrioritizer downloadPrioritizer;
+
 
     DefaultAsyncThreadFactory factory = new DefaultAsyncThreadFactory();
 
@@ -41,9 +50,44 @@ public class DownloadThreadKeeper {
 
     public void init() {
         if (executorService == null) {
-            executorService = new ThreadPoolExecutor(8, getMaxRequests(), DEFAULT_THREAD_KEEP_ALIVE_TIME, TimeUnit.SECONDS,
-                    new LinkedBlockingQueue<>(10000),
-                    factory);
+            BlockingQueue<Runnable> queue = downloadPrioritizer.newQueue(10000);
+            if (queue instanceof FairDownloadQueue fairQueue) {
+                // 固定 maxRequests 个线程，所有任务都经过公平出队，企业排队满时只拒绝该企业
+                executorService = FairDownloadQueue.newExecutor(fairQueue, getMaxRequests(), factory);
+            } else {
+                executorService = new ThreadPoolExecutor(8, getMaxRequests(), DEFAULT_THREAD_KEEP_ALIVE_TIME,
+                        TimeUnit.SECONDS, queue, factory);
+            }
+        }
+    }
+
+    /**
+     * 等待执行的下载任务数
+     */
+    public int getQueueDepth() {
+        if (executorService instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executorService).getQueue().size();
+        }
+        return 0;
+    }
+
+    /**
+     * 占用企业一个下载中名额，供下载任务内部再开的并发下载使用；
+     * 公平调度时受企业 maxInFlight 限制，没有名额返回 false，不开启公平调度时不限制
+     */
+    public boolean tryAcquireInFlight(String corpId) {
+        if (getExecutorService() instanceof ThreadPoolExecutor pool && pool.getQueue() instanceof FairDownloadQueue fair) {
+            return fair.tryAcquireInFlight(corpId);
+        }
+        return true;
+    }
+
+    /**
+     * 归还 tryAcquireInFlight 占用的名额
+     */
+    public void releaseInFlight(String corpId) {
+        if (getExecutorService() instanceof ThreadPoolExecutor pool && pool.getQueue() instanceof FairDownloadQueue fair) {
+            fair.releaseInFlight(corpId);
         }
     }
 
@@ -61,29 +105,65 @@ public class DownloadThreadKeeper {
         }
     }
 
+    /**
+     * 提交下载，线程池或大文件通道已满时抛出 RejectedExecutionException
+     */
     public void execute(final String corpId, final String msgId, final String secret, long seq, JSONObject object) {
+        execute(corpId, msgId, secret, seq, object, () -> { });
+    }
+
+    /**
+     * 提交下载，下载任务结束（转入大文件通道的在通道内结束）时调用 release；
+     * 线程池或大文件通道已满时抛出 RejectedExecutionException，此时不调用 release
+     */
+    public void execute(final String corpId, final String msgId, final String secret, long seq, JSONObject object,
+                        Runnable release) {
         int activeCount = ((ThreadPoolExecutor) getExecutorService()).getActiveCount();
         eventBus.setActiveThreadCount(activeCount);
-        getExecutorService().execute(() -> {
-            StopWatch stopWatch = new StopWatch();
-            stopWatch.start();
-            try {
-                String msgType = object.getString("msgtype");
-                if ("mixed".equalsIgnoreCase(msgType)||"chatrecord".equalsIgnoreCase(msgType)) {
-                    MixedHandler handler = new MixedHandler(corpId, secret);
-                    springContextUtils.autowireBean(handler);
-                    handler.handleMsgObject(msgId, seq, object);
-                } else {
-                    MsgHandler handler = new MsgHandler(corpId, secret);
-                    springContextUtils.autowireBean(handler);
-                    handler.handleMsgObject(msgId, seq, object);
+        if (bigFileLane.accept(object)) {
+            object.put("big_file", true);
+            bigFileLane.execute(corpId, msgId, seq, () -> download(corpId, msgId, secret, seq, object, release));
+            return;
+        }
+        // 优先级队列只能 execute，submit 包装后无法排序
+        getExecutorService().execute(downloadPrioritizer.wrap(corpId, object,
+                () -> download(corpId, msgId, secret, seq, object, release)));
+    }
+
+    private void download(String corpId, String msgId, String secret, long seq, JSONObject object, Runnable release) {
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+        boolean handedOff = false;
+        try {
+            String msgType = object.getString("msgtype");
+            MsgHandler handler;
+            if ("mixed".equalsIgnoreCase(msgType)||"chatrecord".equalsIgnoreCase(msgType)) {
+                handler = new MixedHandler(corpId, secret);
+                springContextUtils.autowireBean(handler);
+                handler.handleMsgObject(msgId, seq, object);
+            } else {
+                handler = new MsgHandler(corpId, secret);
+                springContextUtils.autowireBean(handler);
+                handler.handleMsgObject(msgId, seq, object);
+                if (!handler.getBigFileHandOff().get() && !handler.getSharedDownloadPending().get()) {
                     handler.updateDownloadStatus(msgId, seq, object);
                 }
-            } catch (Exception e) {
-                log.error("子线程异常,childTheadError,msg:{}",object, e);
             }
-            stopWatch.stop();
-            eventBus.setThreadExecuteTime(stopWatch.getTotalTimeSeconds());
-        });
+            if (handler.getBigFileHandOff().get()) {
+                // 普通下载超时，整条消息转入大文件通道，额度在通道内下载结束后归还
+                log.warn("转入大文件通道, corpId:{}, msgId:{}, seq:{}", corpId, msgId, seq);
+                object.put("big_file", true);
+                handedOff = bigFileLane.handOff(corpId, msgId, seq,
+                        () -> download(corpId, msgId, secret, seq, object, release));
+            }
+        } catch (Exception e) {
+            log.error("子线程异常,childTheadError,msg:{}",object, e);
+        } finally {
+            if (!handedOff) {
+                release.run();
+            }
+        }
+        stopWatch.stop();
+        eventBus.setThreadExecuteTime(stopWatch.getTotalTimeSeconds());
     }
 }
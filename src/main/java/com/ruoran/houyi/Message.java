@@ -9,18 +9,35 @@
 
 package com.ruoran.houyi;
 
-import com.tencent.wework.Finance;
-import com.tencent.wework.RSAEncrypt;
+import com.ruoran.houyi.config.WeWorkCorpProperties;
+import com.ruoran.houyi.crypto.ChatKeyDecryptor;
+import com.ruoran.houyi.downloader.DownloadCreditGate;
+import com.ruoran.houyi.exception.DownloadException;
+import com.ruoran.houyi.finance.FinanceBackend;
+import com.ruoran.houyi.finance.FinanceSdkPool;
+import com.ruoran.houyi.finance.NativeHandles;
 import com.ruoran.houyi.model.OriginalMsg;
 import com.ruoran.houyi.mq.MessageProducerAdapter;
+import com.ruoran.houyi.mq.OutboundMessage;
+import com.ruoran.houyi.pull.AdaptivePullScheduler;
+import com.ruoran.houyi.pull.CatchUpModeController;
+import com.ruoran.houyi.pull.ChatDataPrefetcher;
+import com.ruoran.houyi.pull.ChatPage;
+import com.ruoran.houyi.pull.ChatRecord;
+import com.ruoran.houyi.pull.CorpPullState;
+import com.ruoran.houyi.pull.FairPullScheduler;
+import com.ruoran.houyi.pull.PageSizeController;
+import com.ruoran.houyi.pull.PullConfig;
+import com.ruoran.houyi.pull.SeqCheckpointManager;
 import com.ruoran.houyi.repo.Md5IndexRepo;
 import com.ruoran.houyi.repo.OriginalMsgRepo;
+import com.ruoran.houyi.service.CorpConfigService;
 import com.ruoran.houyi.service.EventBus;
 import com.ruoran.houyi.utils.DateUtil;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
 import lombok.Data;
-import lombok.EqualsAndHashCode;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.json.JSONArray;
@@ -28,30 +45,29 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Scope;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StopWatch;
-import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPool;
 
 import jakarta.annotation.Resource;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * @author renlu
  */
-@EqualsAndHashCode(callSuper = true)
 @Data
 @Slf4j
 @Component
 @Scope("prototype")
-public class Message extends Thread {
+public class Message {
     public String prikey = null;
     public String corpid = null;
     public long seqs = 0;
-    public long sdk;
     public String secret;
     public String tableName;
     @Resource
@@ -80,7 +96,21 @@ public class Message extends Thread {
         typeNeedntDownload.add("voiptext");
     }
 
-    int mode = 0;
+    /**
+     * 未单独处理的错误的退避上限
+     */
+    private static final long DEFAULT_ERROR_MAX_DELAY_MS = 5 * 60 * 1000L;
+
+    /**
+     * 追赶模式整页入库时媒体消息的 push_at：ReloadNotPushMsg 不补偿，分发下载后再清除，
+     * 未分发的（下载额度不足）留到从水位重新拉取时分发，避免补偿任务和重新拉取各下载一次
+     */
+    public static final long DISPATCHING_PUSH_AT = -600L;
+
+    /**
+     * 本企业的解密耗时 Timer：stage -> Timer
+     */
+    private final Map<String, Timer> decryptTimers = new ConcurrentHashMap<>(4);
 
     @Resource
     EventBus eventBus;
@@ -90,74 +120,74 @@ public class Message extends Thread {
 
     @Resource
     DownloadThreadKeeper downloadThreadKeeper;
+
     @Resource
-    JedisPool jedisPool;
+    DownloadCreditGate downloadCreditGate;
 
     @Resource
     Md5IndexRepo md5IndexRepo;
 
+    @Resource
+    FinanceSdkPool financeSdkPool;
+
+    @Resource
+    ChatKeyDecryptor chatKeyDecryptor;
+
+    @Resource
+    NativeHandles nativeHandles;
+
+    @Resource
+    FinanceBackend financeBackend;
 
     @Resource
     MessageProducerAdapter messageProducerAdapter;
 
+    @Resource
+    PullConfig pullConfig;
+
+    @Resource
+    SeqCheckpointManager seqCheckpointManager;
+
+    @Resource
+    AdaptivePullScheduler adaptivePullScheduler;
+
+    @Resource
+    CorpConfigService corpConfigService;
+
+    @Resource(name = "decryptExecutor")
+    ThreadPoolTaskExecutor decryptExecutor;
+
+    @Resource
+    FairPullScheduler fairPullScheduler;
+
+    @Resource
+    PageSizeController pageSizeController;
+
+    @Resource
+    CatchUpModeController catchUpModeController;
+
+    private volatile ChatDataPrefetcher prefetcher;
+
+    /**
+     * 预取器拿到新页时的回调，由 CorpPullState 设置
+     */
+    private Runnable pageReadyListener;
+
     @Value("${spring.profiles.active}")
     private String profile;
 
-    private ExecutorService pool = Executors.newFixedThreadPool(10);
-    private Map<Long,JSONObject> jsonObjectMap = new HashMap<>();
-
     public void init(String corpId, String secret, String privateKey) {
         if (StringUtils.isEmpty(privateKey)) {
             log.warn("未配置privateKey,无法获取会话存档;");
             return;
         }
-        this.sdk = Finance.NewSdk();
         this.corpid = corpId;
         this.secret = secret;
         this.prikey = privateKey;
-        int state = Finance.Init(sdk, corpId, secret);
-        if (state != 0) {
-            log.error("初始化（Finance.init）失败,corpId:{},secret:{}", corpId, secret);
-        }
-
-        this.setName("msg-thread-" + this.corpid);
-    }
-
-    public void setLastSeq(long seq) {
-        Jedis jedis = null;
-        try {
-            jedis = jedisPool.getResource();
-            jedis.set("last_seq_" + this.corpid, String.valueOf(seq));
-        } catch (Exception e) {
-            log.error("redisError,last_seq_" + this.corpid, e);
-        } finally {
-            if (jedis != null) {
-                //这里使用的close不代表关闭连接，指的是归还资源
-                jedisPool.returnResource(jedis);
-            }
-        }
     }
 
     public long getLastSeq() {
-        Jedis jedis = null;
-        long seq = 0;
-        try {
-
-
-            jedis = jedisPool.getResource();
-            String lastSeqStr = jedis.get("last_seq_" + this.corpid);
-            if (StringUtils.isNotEmpty(lastSeqStr)) {
-                seq = Long.parseLong(lastSeqStr);
-            }
-        } catch (Exception e) {
-            log.error("Redis操作失败", e);
-        } finally {
-            if (jedis != null) {
-                //这里使用的close不代表关闭连接，指的是归还资源
-                jedisPool.returnResource(jedis);
-            }
-        }
-        return seq;
+        return seqCheckpointManager.load(this.corpid);
     }
 
 
@@ -200,23 +230,24 @@ public class Message extends Thread {
         return true;
     }
 
-    public void saveMessage(String msgType, String msgId, long seq, long msgTime, JSONObject object,Boolean isFile) {
+    /**
+     * @return 是否新插入（已存在时返回 false）
+     */
+    public boolean saveMessage(String msgType, String msgId, long seq, long msgTime, JSONObject object,Boolean isFile) {
+        return saveMessage(msgType, msgId, seq, msgTime, object, isFile, null);
+    }
 
-        long dateNo = Long.parseLong(DateUtil.formatYyyyMMdd(msgTime));
-        OriginalMsg msg = new OriginalMsg();
-        msg.setMsgId(msgId);
-        msg.setContent(object.toString());
-        msg.setCorpId(corpid);
-        msg.setMsgType(msgType);
-        msg.setDateNo(dateNo);
-        msg.setSeq(seq);
-        msg.setCreateAt(System.currentTimeMillis());
-        //如果不是文件类型，就当场推送了
-        if(!isFile){
-            msg.setPushAt(System.currentTimeMillis());
+    /**
+     * @param pushAt 不为 null 时代替默认的 push_at（回放只入库时标记媒体消息，补偿任务不再下载推送）
+     * @return 是否新插入（已存在时返回 false）
+     */
+    public boolean saveMessage(String msgType, String msgId, long seq, long msgTime, JSONObject object,Boolean isFile,
+                               Long pushAt) {
+        OriginalMsg msg = buildOriginalMsg(msgType, msgId, seq, msgTime, object, isFile);
+        if (pushAt != null) {
+            msg.setPushAt(pushAt);
         }
 
-
         StopWatch stopWatch = new StopWatch();
         stopWatch.start();
         Optional<OriginalMsg> originalMsgOptional = originalMsgRepo.findFirstByCorpIdAndMsgIdAndSeq(this.corpid, msgId, seq);
@@ -224,296 +255,435 @@ public class Message extends Thread {
             stopWatch.stop();
             meterRegistry.summary("dayu_db_save_cost", Tags.of("type","query"))
                     .record(stopWatch.getTotalTimeMillis());
-            return;
+            return false;
         }
 
         originalMsgRepo.save(msg);
         stopWatch.stop();
         meterRegistry.summary("dayu_db_save_cost", Tags.of("type","update"))
                 .record(stopWatch.getTotalTimeMillis());
+        return true;
+    }
+
+    /**
+     * 追赶模式下整页入库：一次查询已存在的 seq，剩余记录 saveAll
+     * （hibernate.jdbc.batch_size + 连接串 rewriteBatchedStatements=true 合并为多行 insert）；
+     * 媒体消息标记为 DISPATCHING_PUSH_AT，分发下载后由 clearPushAt 清除
+     */
+    private void saveMessagesInBulk(List<ChatRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+        Set<Long> seqs = new HashSet<>(records.size() * 2);
+        for (ChatRecord record : records) {
+            seqs.add(record.getSeq());
+        }
+        Set<String> existing = new HashSet<>();
+        for (OriginalMsg msg : originalMsgRepo.findByCorpIdAndSeqIn(this.corpid, seqs)) {
+            existing.add(msg.getMsgId() + "_" + msg.getSeq());
+        }
+        List<OriginalMsg> toSave = new ArrayList<>(records.size());
+        for (ChatRecord record : records) {
+            if (!existing.contains(record.getMsgId() + "_" + record.getSeq())) {
+                OriginalMsg msg = buildOriginalMsg(record.getMsgType(), record.getMsgId(), record.getSeq(),
+                        record.getMsgTime(), record.getContent(), record.isNeedDownload());
+                if (record.isNeedDownload()) {
+                    msg.setPushAt(DISPATCHING_PUSH_AT);
+                }
+                toSave.add(msg);
+            }
+        }
+        originalMsgRepo.saveAll(toSave);
+        stopWatch.stop();
+        meterRegistry.summary("dayu_db_save_cost", Tags.of("type","bulk"))
+                .record(stopWatch.getTotalTimeMillis());
+    }
+
+    private OriginalMsg buildOriginalMsg(String msgType, String msgId, long seq, long msgTime, JSONObject object,Boolean isFile) {
+        long dateNo = Long.parseLong(DateUtil.formatYyyyMMdd(msgTime));
+        OriginalMsg msg = new OriginalMsg();
+        msg.setMsgId(msgId);
+        msg.setContent(object.toString());
+        msg.setCorpId(corpid);
+        msg.setMsgType(msgType);
+        msg.setDateNo(dateNo);
+        msg.setSeq(seq);
+        msg.setCreateAt(System.currentTimeMillis());
+        //如果不是文件类型，就当场推送了
+        if(!isFile){
+            msg.setPushAt(System.currentTimeMillis());
+        }
+        return msg;
     }
 
 
     //解密
-    public String decryptData(String encryptRandomKey, String encryptMsg,String original) {
-        long message = 0;
+    public String decryptData(int publicKeyVer, String encryptRandomKey, String encryptMsg,String original) {
         try {
-            String encryptKey = "";
-            if (this.mode == 1) {
-                encryptKey = RSAEncrypt.decrypt2(encryptRandomKey, this.prikey);
-                this.mode = 1;
-            }
-            if (this.mode == 2) {
-                encryptKey = RSAEncrypt.decryptByPriKey(encryptRandomKey, this.prikey);
-                this.mode = 2;
-            }
-            if (this.mode == 0) {
-                try {
-                    encryptKey = RSAEncrypt.decrypt2(encryptRandomKey, this.prikey);
-                    this.mode = 1;
-                } catch (Exception e) {
-                    log.error("解密失败：", e);
-                    encryptKey = RSAEncrypt.decryptByPriKey(encryptRandomKey, this.prikey);
-                    this.mode = 2;
-                }
-            }
+            String encryptKey = chatKeyDecryptor.decrypt(this.corpid, publicKeyVer, this.prikey, encryptRandomKey);
             if (StringUtils.isEmpty(encryptKey)) {
                 log.error("encryptRandomKey:{},encryptMsg:{},original:{}", encryptRandomKey, encryptMsg,original);
                 log.error("encryptKey解密失败,{}", encryptKey);
                 return "";
             }
-            message = Finance.NewSlice();
-            int ret = Finance.DecryptData(this.sdk, encryptKey, encryptMsg, message);
-            if (ret != 0) {
-                log.error("解密失败:" + ret);
-                return "";
+            long start = System.nanoTime();
+            try (NativeHandles.Handle message = nativeHandles.slice()) {
+                try (FinanceSdkPool.Lease lease = financeSdkPool.borrow(this.corpid, this.secret)) {
+                    int ret = financeBackend.decryptData(lease.getSdk(), encryptKey, encryptMsg, message.get());
+                    if (ret != 0) {
+                        lease.reportError(ret);
+                        log.error("解密失败:" + ret);
+                        return "";
+                    }
+                }
+                String content = financeBackend.getContentFromSlice(message.get());
+                decryptTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                return content;
             }
-            return Finance.GetContentFromSlice(message);
         } catch (Exception e) {
             log.error("解密数据失败", e);
             return "";
-        } finally {
-            if (message != 0) {
-                Finance.FreeSlice(message);
-            }
         }
+    }
 
+    /**
+     * 每条消息都要记录，按 stage 缓存，不在热路径上重复 builder/register
+     */
+    private Timer decryptTimer() {
+        return decryptTimers.computeIfAbsent("sdk", stage -> Timer.builder("houyi_decrypt_cost")
+                .tags(Tags.of("corp", this.corpid, "stage", stage))
+                .publishPercentileHistogram()
+                .register(meterRegistry));
     }
 
-    public void getList() {
+    /**
+     * 取一页并处理，由 CorpPullState 在共享调度线程上调用
+     *
+     * @return 下次拉取前应等待的毫秒数；页尚未拉回时返回 CorpPullState.WAIT_FOR_PAGE
+     */
+    public long getList() {
         if (StringUtils.isEmpty(this.prikey)) {
             log.error("未配置privateKey,无法获取会话存档;");
-            return;
+            return pullConfig.getMaxIdleDelayMs();
+        }
+        ChatDataPrefetcher prefetcher = getPrefetcher();
+        // 下载队列快满时放慢，满了先不处理下一页
+        long creditDelay = downloadCreditGate.pullDelay(this.corpid);
+        if (downloadCreditGate.utilisation(this.corpid) >= 1) {
+            return creditDelay;
         }
-        long slice = 0;
         try {
-            long seqs = this.getLastSeq();
-            slice = Finance.NewSlice();
-            int ret = Finance.GetChatData(this.sdk, seqs, 500, "", "", 100, slice);
-            
-            if (ret != 0) {
-                log.error("获取聊天数据失败, corpId:{}, ret:{}", this.corpid, ret);
-                return;
+            ChatPage page = prefetcher.poll();
+            if (page == null) {
+                return CorpPullState.WAIT_FOR_PAGE;
             }
-            
-            String json = Finance.GetContentFromSlice(slice);
-            processMessageData(json);
+            if (page.getRet() != 0) {
+                log.error("获取聊天数据失败, corpId:{}, ret:{}", this.corpid, page.getRet());
+                return adaptivePullScheduler.onError(this.corpid, DEFAULT_ERROR_MAX_DELAY_MS);
+            }
+            long start = System.currentTimeMillis();
+            long delay = processMessageData(page);
+            meterRegistry.summary("houyi_pull_cost", Tags.of("corp", this.corpid, "stage", "process"))
+                    .record(System.currentTimeMillis() - start);
+            return Math.max(delay, creditDelay);
+        } catch (DownloadException e) {
+            // 下载队列已满，未提交的消息从水位重新拉取，不按错误退避
+            log.warn("下载额度不足, 稍后从水位重新拉取, corpId:{}, msgId:{}", this.corpid, e.getMsgId());
+            prefetcher.reset(seqCheckpointManager.rewind(this.corpid));
+            return Math.max(downloadCreditGate.pullDelay(this.corpid), pullConfig.getBaseDelayMs());
         } catch (Exception e) {
             log.error("拉取消息异常, corpId:{}", this.corpid, e);
-        } finally {
-            if (slice != 0) {
-                Finance.FreeSlice(slice);
-            }
+            // 预取的页已越过处理失败的位置，从水位重新拉取
+            prefetcher.reset(seqCheckpointManager.rewind(this.corpid));
+            return adaptivePullScheduler.onError(this.corpid, DEFAULT_ERROR_MAX_DELAY_MS);
         }
     }
 
+    /**
+     * 企业移交时调用：停止预取，已预取的页丢弃
+     */
+    public void stopPrefetch() {
+        ChatDataPrefetcher current = this.prefetcher;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    private ChatDataPrefetcher getPrefetcher() {
+        if (this.prefetcher == null) {
+            this.prefetcher = new ChatDataPrefetcher(this.corpid, this.secret, financeBackend, financeSdkPool,
+                    nativeHandles, fairPullScheduler, pageSizeController, meterRegistry, pullConfig,
+                    () -> downloadCreditGate.hasCredit(this.corpid));
+            this.prefetcher.setOnPageReady(this.pageReadyListener);
+            this.prefetcher.reset(this.getLastSeq());
+        }
+        return this.prefetcher;
+    }
+
     /**
      * 处理消息数据
      */
-    private void processMessageData(String json) {
-        JSONObject jo = new JSONObject(json);
+    private long processMessageData(ChatPage page) {
+        JSONObject jo = page.getResponse();
         int errCode = jo.getInt("errcode");
         
         if (errCode == 0) {
             processSuccessResponse(jo);
+            return adaptivePullScheduler.onPage(this.corpid, page);
         } else {
-            handleErrorCode(errCode, jo.getString("errmsg"));
+            return handleErrorCode(errCode, jo.getString("errmsg"));
         }
     }
 
     /**
      * 处理成功响应
+     * 企业配置了 decrypt-parallelism > 1 时按批在共享线程池上并行解密/入库/推送，
+     * 提交顺序由 seq 水位保证，不会越过未完成的记录；
+     * 追赶模式下整页解密后批量入库、批量推送，再整页提交 seq
      */
     private void processSuccessResponse(JSONObject jo) {
         eventBus.getCorpsStatus().put(this.corpid, true);
         JSONArray chatData = jo.getJSONArray("chatdata");
-        
+        List<JSONObject> records = new ArrayList<>(chatData.length());
         for (int i = 0; i < chatData.length(); i++) {
-            eventBus.getTotalMsg().incrementAndGet();
-            String item = chatData.get(i).toString();
-            JSONObject data = new JSONObject(item);
-            
-            if ("ww0aad5bd009edd8e0".equals(this.corpid)) {
-                batchExec(data);
-            } else {
-                long seq = sendMsg(data);
-                setLastSeq(seq);
+            JSONObject data = chatData.getJSONObject(i);
+            // 先整页登记，保证水位不会越过本页中尚未处理的 seq
+            seqCheckpointManager.begin(this.corpid, data.getLong("seq"));
+            records.add(data);
+        }
+
+        WeWorkCorpProperties.CorpConfig corpConfig = corpConfigService.getCorpConfig(this.corpid).orElse(null);
+        int parallelism = corpConfig == null ? 1 : corpConfig.getDecryptParallelism();
+        if (catchUpModeController.evaluate(this.corpid)) {
+            processPageInBulk(records, parallelism);
+        } else if (parallelism <= 1) {
+            for (JSONObject data : records) {
+                processRecord(data);
+            }
+        } else {
+            int batchSize = Math.max(corpConfig.getDecryptBatchSize(), parallelism);
+            for (int from = 0; from < records.size(); from += batchSize) {
+                runParallel(records.subList(from, Math.min(from + batchSize, records.size())), parallelism,
+                        this::processRecord);
             }
         }
+        catchUpModeController.recordProcessed(this.corpid, records.size());
+    }
+
+    private void processRecord(JSONObject data) {
+        eventBus.getTotalMsg().incrementAndGet();
+        long seq = sendMsg(data);
+        seqCheckpointManager.complete(this.corpid, seq);
+    }
+
+    /**
+     * 追赶模式：整页解密，一次查询 + saveAll 入库，下载照常分发，其余消息一次批量推送后提交 seq
+     * 下载额度不足时只推送、提交失败位置之前的消息再抛出 DownloadException，
+     * 从水位重新拉取时从未分发的那条开始，已分发的下载不会重复分发；
+     * 未分发的媒体消息已入库但保持 DISPATCHING_PUSH_AT，补偿任务不会在重新拉取前下载它；其他失败放弃整页
+     */
+    private void processPageInBulk(List<JSONObject> records, int parallelism) {
+        ChatRecord[] prepared = new ChatRecord[records.size()];
+        List<Integer> indexes = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            indexes.add(i);
+        }
+        runParallel(indexes, parallelism, i -> prepared[i] = prepareRecord(records.get(i)));
+
+        List<ChatRecord> messages = new ArrayList<>(prepared.length);
+        for (ChatRecord record : prepared) {
+            if (!record.isSkip()) {
+                messages.add(record);
+            }
+        }
+        saveMessagesInBulk(messages);
+
+        List<OutboundMessage> pushes = new ArrayList<>(messages.size());
+        List<Long> dispatched = new ArrayList<>();
+        DownloadException rejected = null;
+        int handled = 0;
+        for (; handled < prepared.length; handled++) {
+            ChatRecord record = prepared[handled];
+            if (record.isSkip()) {
+                continue;
+            }
+            if (!record.isNeedDownload()) {
+                pushes.add(buildPushMessage(record));
+                continue;
+            }
+            try {
+                dispatchDownload(record);
+                dispatched.add(record.getSeq());
+            } catch (DownloadException e) {
+                rejected = e;
+                break;
+            }
+        }
+        if (!dispatched.isEmpty()) {
+            // 只有已分发的媒体消息交给补偿任务，失败位置之后的仍保持分发中标记
+            originalMsgRepo.clearPushAt(this.corpid, dispatched, DISPATCHING_PUSH_AT);
+        }
+        messageProducerAdapter.sendBatch(pushes);
+
+        eventBus.getTotalMsg().addAndGet(handled);
+        for (int i = 0; i < handled; i++) {
+            seqCheckpointManager.complete(this.corpid, prepared[i].getSeq());
+        }
+        if (rejected != null) {
+            throw rejected;
+        }
+    }
+
+    /**
+     * 用 parallelism 个任务并行处理一批元素，parallelism <= 1 时在当前线程顺序处理
+     * 任一个失败后不再领取新元素，抛出异常放弃整页，由 getList 从水位重新拉取
+     */
+    private <T> void runParallel(List<T> items, int parallelism, Consumer<T> action) {
+        if (parallelism <= 1) {
+            items.forEach(action);
+            return;
+        }
+        AtomicInteger next = new AtomicInteger(0);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        int workers = Math.min(parallelism, items.size());
+        CompletableFuture<?>[] futures = new CompletableFuture[workers];
+        for (int w = 0; w < workers; w++) {
+            futures[w] = CompletableFuture.runAsync(() -> {
+                int i;
+                while (failure.get() == null && (i = next.getAndIncrement()) < items.size()) {
+                    try {
+                        action.accept(items.get(i));
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }, decryptExecutor);
+        }
+        CompletableFuture.allOf(futures).join();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
     }
 
     /**
-     * 处理错误码
+     * 处理错误码，按错误类型确定退避上限
+     *
+     * @return 下次拉取前应等待的毫秒数
      */
-    private void handleErrorCode(int errCode, String errMsg) {
+    private long handleErrorCode(int errCode, String errMsg) {
         eventBus.getCorpsStatus().put(this.corpid, false);
         log.error("FinanceSdk获取会话存档失败, corpId:{}, code:{}, msg:{}", this.corpid, errCode, errMsg);
         
         switch (errCode) {
             case 301052:
-                log.error("会话存档服务已过期, corpId:{}, 等待30分钟", this.corpid);
-                sleepQuietly(30 * 60 * 1000);
-                break;
+                log.error("会话存档服务已过期, corpId:{}, 最长等待30分钟", this.corpid);
+                return adaptivePullScheduler.onError(this.corpid, 30 * 60 * 1000L);
             case 301042:
-                log.error("IP不在白名单, corpId:{}, 等待30分钟", this.corpid);
-                sleepQuietly(30 * 60 * 1000);
-                break;
+                log.error("IP不在白名单, corpId:{}, 最长等待30分钟", this.corpid);
+                return adaptivePullScheduler.onError(this.corpid, 30 * 60 * 1000L);
             case 41001:
-                log.error("accessToken缺失, corpId:{}, 等待10分钟", this.corpid);
-                sleepQuietly(10 * 60 * 1000);
-                break;
+                log.error("accessToken缺失, corpId:{}, 最长等待10分钟", this.corpid);
+                return adaptivePullScheduler.onError(this.corpid, 10 * 60 * 1000L);
             default:
-                sleepQuietly(5 * 60 * 1000);
-                break;
+                return adaptivePullScheduler.onError(this.corpid, DEFAULT_ERROR_MAX_DELAY_MS);
+        }
+    }
+
+    public long sendMsg(JSONObject data) {
+        ChatRecord record = prepareRecord(data);
+        if (record.isSkip()) {
+            return record.getSeq();
+        }
+        boolean inserted = saveMessage(record.getMsgType(), record.getMsgId(), record.getSeq(), record.getMsgTime(),
+                record.getContent(), record.isNeedDownload());
+        if (record.isNeedDownload()) {
+            dispatchDownload(record);
+            if (!inserted) {
+                // 追赶模式入库后未分发的消息，重新拉取时改由这里分发
+                originalMsgRepo.clearPushAt(this.corpid, List.of(record.getSeq()), DISPATCHING_PUSH_AT);
+            }
+        } else {
+            // 非文件类型的消息，直接推送
+            OutboundMessage push = buildPushMessage(record);
+            messageProducerAdapter.send(push.getBody(), push.getKey());
         }
+        return record.getSeq();
     }
 
     /**
-     * 静默休眠
+     * 解密并解析一条会话记录，同时更新企业的消息延迟
      */
-    private void sleepQuietly(long millis) {
-        try {
-            Thread.sleep(millis);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            log.warn("休眠被中断, corpId:{}", this.corpid);
+    private ChatRecord prepareRecord(JSONObject data) {
+        ChatRecord record = decodeRecord(data);
+        if (!record.isSkip() && record.getMsgTime() > 0) {
+            AtomicLong diff = eventBus.getDiffs().get(corpid);
+            if (diff != null) {
+                diff.set((System.currentTimeMillis() - record.getMsgTime()) / 1000);
+            }
         }
+        return record;
     }
 
-    public long sendMsg(JSONObject data) {
-
+    /**
+     * 解密并解析一条会话记录，不影响拉取状态（回放也使用）
+     */
+    public ChatRecord decodeRecord(JSONObject data) {
         String encryptRandomKey = data.getString("encrypt_random_key");
         String encryptChatMsg = data.getString("encrypt_chat_msg");
-        long seq = data.getLong("seq");
-        String message = this.decryptData(encryptRandomKey, encryptChatMsg,data.toString());
+        ChatRecord record = new ChatRecord();
+        record.setSeq(data.getLong("seq"));
+        String message = this.decryptData(data.optInt("publickey_ver", 0), encryptRandomKey, encryptChatMsg,data.toString());
         JSONObject obj = new JSONObject(message);
-        String msgid = obj.getString("msgid");
+        record.setMsgId(obj.getString("msgid"));
         String action = obj.getString("action");
         /*
          * switch 不是一条真正的消息，结构不一样，可以忽略;
          */
         if ("switch".equalsIgnoreCase(action)) {
             log.warn("switchMsg");
-            return seq;
+            record.setSkip(true);
+            return record;
         }
-        long msgTime = 0;
         try {
-            msgTime = obj.getLong("msgtime");
-            AtomicLong diff = eventBus.getDiffs().get(corpid);
-            if (diff != null) {
-                diff.set((System.currentTimeMillis() - msgTime) / 1000);
-            }
+            record.setMsgTime(obj.getLong("msgtime"));
         } catch (JSONException e2) {
             log.error("取不到msgTime,原始字符串:{}", message);
         }
 
-        String msgType = obj.getString("msgtype");
+        record.setMsgType(obj.getString("msgtype"));
         obj.put("corp_id", corpid);
-        obj.put("seq", seq);
-        if (needDownload(obj)) {
-            saveMessage(msgType, msgid, seq, msgTime, obj,true);
-//            if (msg == null) {
-//                return seq;
-//            }
-            eventBus.getTotalDownload().incrementAndGet();
-            try {
-                downloadThreadKeeper.execute(this.corpid, msgid, this.secret, seq, obj);
-            } catch (RejectedExecutionException e) {
-                log.error("RejectedExecutionException");
-                try {
-                    Thread.sleep(1000 * 5 * 60);
-                } catch (InterruptedException interruptedException) {
-                    log.error("sleepError", interruptedException);
-                }
-                setLastSeq(seq);
-            }
-        } else {
-            /**
-             * 非文件类型的消息，不需要保存入库,直接推送;
-             */
-            saveMessage(msgType, msgid, seq, msgTime, obj,false);
-            JSONObject jsonObject = new JSONObject(obj.toString());
-            jsonObject.put("seq", seq);
-            jsonObject.put("source", "java");
-            try {
-                if ("text".equalsIgnoreCase(msgType)) {
-                    JSONObject textNode = obj.getJSONObject("text");
-                    String content = textNode.getString("content");
-                    jsonObject.put("_sign", Md5Util.getMd5(content));
-                }
-            }catch (Exception e){
-                log.error("extract text node  error",e);
-            }
-
-            String key = "1";
-            if (msgid != null) {
-                key = msgid;
-            }
-            // 使用消息生产者适配器发送消息（自动选择 RocketMQ 或 Redis）
-            messageProducerAdapter.send(jsonObject.toString(), key);
-        }
-        return seq;
+        obj.put("seq", record.getSeq());
+        record.setContent(obj);
+        record.setNeedDownload(needDownload(obj));
+        return record;
     }
 
-    public void batchExec(JSONObject data) {
-        if(!data.has("seq")) {
-            return;
-        }
-        long msgSeq = data.getLong("seq");
-        jsonObjectMap.put(msgSeq,data);
-        if (jsonObjectMap.size() < 10) {
-            return;
-        }
-
-        List<JSONObject> jsonObjectList = new ArrayList<>(jsonObjectMap.values());
-        long tempSeq = jsonObjectList.get(9).getLong("seq");
-        CountDownLatch countDownLatch = new CountDownLatch(10);
-        AtomicInteger failCount = new AtomicInteger();
-        for (JSONObject item : jsonObjectList) {
-            if(item.has("seq")){
-                long seq = item.getLong("seq");
-                if(seq > tempSeq){
-                    tempSeq = seq;
-                }
-            }
-
-            pool.execute(() -> {
-                try {
-                    sendMsg(item);
-                } catch (Exception e) {
-                    log.error("batchSendMsgError,", e);
-                    failCount.getAndIncrement();
-                } finally {
-                    countDownLatch.countDown();
-                }
-            });
-        }
-        try {
-            countDownLatch.await(10, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            log.error("batchSendMsgError,awaitError, ", e);
-        }
-        if(failCount.get()  == 0 && tempSeq > 0){
-            setLastSeq(tempSeq);
-        }
-        jsonObjectMap.clear();
-
+    /**
+     * 有下载额度时提交下载；没有时抛出 DownloadException，本条消息不提交 seq，由 getList 稍后从水位重新拉取
+     */
+    public void dispatchDownload(ChatRecord record) {
+        eventBus.getTotalDownload().incrementAndGet();
+        downloadCreditGate.dispatch(this.corpid, record.getMsgId(), release -> downloadThreadKeeper.execute(
+                this.corpid, record.getMsgId(), this.secret, record.getSeq(), record.getContent(), release));
     }
 
-    @Override
-    public void run() {
-        do {
-            getList();
-            if (StringUtils.isEmpty(this.getPrikey())) {
-                log.error("私钥为空，不再空转");
-                break;
-            }
-            // 控制拉取频率，避免过快
-            try {
-                Thread.sleep(200);
-            } catch (InterruptedException e) {
-                log.error("线程休眠被中断", e);
+    public OutboundMessage buildPushMessage(ChatRecord record) {
+        JSONObject obj = record.getContent();
+        JSONObject jsonObject = new JSONObject(obj.toString());
+        jsonObject.put("seq", record.getSeq());
+        jsonObject.put("source", "java");
+        try {
+            if ("text".equalsIgnoreCase(record.getMsgType())) {
+                JSONObject textNode = obj.getJSONObject("text");
+                String content = textNode.getString("content");
+                jsonObject.put("_sign", Md5Util.getMd5(content));
             }
-        } while (true);
+        }catch (Exception e){
+            log.error("extract text node  error",e);
+        }
+        String key = record.getMsgId() != null ? record.getMsgId() : "1";
+        return new OutboundMessage(jsonObject.toString(), key);
     }
 }
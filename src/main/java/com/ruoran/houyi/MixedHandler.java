@@ -1,13 +1,23 @@
 package com.ruoran.houyi;
 
+import com.ruoran.houyi.downloader.MediaSingleFlight;
 import com.ruoran.houyi.model.OriginalMsg;
+import com.ruoran.houyi.utils.RetryUtil;
+import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author renlu
@@ -17,6 +27,15 @@ import java.util.*;
 @Slf4j
 public class MixedHandler extends MsgHandler {
 
+    @Resource(name = "mixedItemExecutor")
+    ThreadPoolTaskExecutor mixedItemExecutor;
+
+    /**
+     * 单条 mixed/chatrecord 消息内同时下载的附件数
+     */
+    @Value("${houyi.download.mixed-item-concurrency:4}")
+    int mixedItemConcurrency;
+
     public MixedHandler(String corpId, String secret) {
         super(corpId, secret);
     }
@@ -42,7 +61,15 @@ public class MixedHandler extends MsgHandler {
     public void handleMixed(String msgId,long seq,JSONObject object,String msgType) throws Exception {
         JSONObject mixed = object.getJSONObject(msgType);
         JSONArray item = mixed.getJSONArray("item");
+        object.put("seq",seq);
+        Boolean bigFile = false;
+        if(object.has("big_file")){
+            bigFile = object.getBoolean("big_file");
+        }
+        // results 保持原顺序，需要下载的条目先占位，并发下载后结果直接写回条目
         List<JSONObject> results = new ArrayList<>();
+        List<ItemDownload> downloads = new ArrayList<>();
+        Map<String, ItemDownload> downloadsByPath = new HashMap<>();
         for(Object single:item){
             JSONObject itemObject = (JSONObject)single;
             if(!itemObject.has("content")){
@@ -110,16 +137,77 @@ public class MixedHandler extends MsgHandler {
                 default:
                     break;
             }
-            object.put("seq",seq);
             obj.put("seq",seq);
-            Boolean bigFile = false;
-            if(object.has("big_file")){
-                bigFile = object.getBoolean("big_file");
+            results.add(obj);
+            // 同一个文件（如重复转发的图片）只下载一次，避免并发写同一个本地文件
+            ItemDownload download = downloadsByPath.get(mediaPath + itemExt);
+            if (download == null) {
+                download = new ItemDownload(sdkFileId, mediaPath, itemExt, md5sum, obj);
+                downloadsByPath.put(mediaPath + itemExt, download);
+                downloads.add(download);
+            } else {
+                download.duplicates.add(obj);
             }
-            if (!simpleDownMedia(sdkFileId, mediaPath,itemExt, md5sum, obj, object, msgId,seq,bigFile)) {
+        }
+        AtomicBoolean retry = new AtomicBoolean(false);
+        downloadItems(downloads, msgId, seq, object, bigFile, retry);
+        if (getBigFileHandOff().get()) {
+            // 整条消息转入大文件通道，已下载的附件走 md5 缓存
+            return;
+        }
+        if (retry.get()) {
+            // 整条消息只进一次重试队列，本次不推送
+            RetryUtil.sendRetryMessage(object, messageProducerAdapter,
+                    getEventBus(), this.getSecret(), getProfile(), TRY_COUNT);
+            return;
+        }
+        for (ItemDownload download : downloads) {
+            if (!download.success) {
                 return;
             }
-            results.add(obj);
+        }
+        List<CompletableFuture<String>> shared = new ArrayList<>();
+        for (ItemDownload download : downloads) {
+            if (download.shared != null) {
+                shared.add(download.shared);
+            }
+        }
+        if (shared.isEmpty()) {
+            pushMixed(msgId, seq, object, msgType, mixed, results, downloads);
+            return;
+        }
+        // 有附件正由其他消息下载：拿到全部结果后在合并下载的回调线程上组装推送，下载线程不等待
+        getSharedDownloadPending().set(true);
+        CompletableFuture.allOf(shared.toArray(new CompletableFuture[0])).whenComplete((v, e) -> {
+            try {
+                for (ItemDownload download : downloads) {
+                    if (download.shared == null) {
+                        continue;
+                    }
+                    String ossPath = download.shared.getNow(null);
+                    if (StringUtils.isEmpty(ossPath)) {
+                        // 领头失败或等待超时，重试时重新竞争下载，等待不计入 tryCount
+                        log.warn("mixed附件的合并下载未拿到结果, 进入重试队列, msgId:{}", msgId);
+                        RetryUtil.sendRetryMessage(object, messageProducerAdapter,
+                                getEventBus(), this.getSecret(), getProfile(), TRY_COUNT, false);
+                        return;
+                    }
+                    download.obj.put("ossPath", ossPath);
+                }
+                pushMixed(msgId, seq, object, msgType, mixed, results, downloads);
+            } catch (Exception ex) {
+                log.error("mixed消息推送失败, msgId:{}", msgId, ex);
+            }
+        });
+    }
+
+    /**
+     * 附件都已拿到 ossPath：按原顺序组装，更新库里的消息并推送
+     */
+    private void pushMixed(String msgId, long seq, JSONObject object, String msgType, JSONObject mixed,
+                           List<JSONObject> results, List<ItemDownload> downloads) {
+        for (ItemDownload download : downloads) {
+            download.copyToDuplicates();
         }
         eventBus.getMixedTypeRootCounter().incrementAndGet();
         JSONArray array = new JSONArray(results);
@@ -146,4 +234,100 @@ public class MixedHandler extends MsgHandler {
             originalMsgRepo.save(originalMsg);
         }
     }
+
+    /**
+     * 并发下载消息内的附件，单条消息最多 mixedItemConcurrency 个同时下载（当前线程占一个），
+     * 另开的下载计入企业的下载中上限，企业没有名额或附件线程池已满时以已开的并发数下载
+     * 有附件失败或需要重试后不再开始新的下载，已开始的下载完成后返回
+     */
+    private void downloadItems(List<ItemDownload> downloads, String msgId, long seq, JSONObject object,
+                               Boolean bigFile, AtomicBoolean retry) throws Exception {
+        AtomicInteger next = new AtomicInteger(0);
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Runnable worker = () -> {
+            int i;
+            while (!stop.get() && !retry.get() && (i = next.getAndIncrement()) < downloads.size()) {
+                ItemDownload download = downloads.get(i);
+                try {
+                    download.success = simpleDownMedia(download.sdkFileId, download.mediaPath, download.ext,
+                            download.md5sum, download.obj, object, msgId, seq, bigFile, retry, download::subscribe);
+                    if (!download.success) {
+                        stop.set(true);
+                    }
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                    stop.set(true);
+                }
+            }
+        };
+        // 当前线程占用的是本条消息的下载名额，其余每个并发下载各占企业一个下载中名额
+        int workers = Math.min(Math.max(1, mixedItemConcurrency), downloads.size());
+        List<CompletableFuture<Void>> futures = new ArrayList<>(workers - 1);
+        for (int w = 1; w < workers; w++) {
+            if (!downloadThreadKeeper.tryAcquireInFlight(this.corpid)) {
+                break;
+            }
+            try {
+                futures.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        worker.run();
+                    } finally {
+                        downloadThreadKeeper.releaseInFlight(this.corpid);
+                    }
+                }, mixedItemExecutor));
+            } catch (RejectedExecutionException e) {
+                downloadThreadKeeper.releaseInFlight(this.corpid);
+                meterRegistry.counter("houyi_mixed_item_rejected").increment();
+                log.warn("mixed附件下载线程池已满, 以 {} 个并发下载, msgId:{}", w, msgId);
+                break;
+            }
+        }
+        worker.run();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * 一个待下载的附件，duplicates 为同一文件的其他条目
+     */
+    private static class ItemDownload {
+        final String sdkFileId;
+        final String mediaPath;
+        final String ext;
+        final String md5sum;
+        final JSONObject obj;
+        final List<JSONObject> duplicates = new ArrayList<>();
+        volatile boolean success = false;
+        /**
+         * 同一文件正由其他消息下载时非空，完成时为 ossPath（领头失败或超时为 null）
+         */
+        volatile CompletableFuture<String> shared;
+
+        ItemDownload(String sdkFileId, String mediaPath, String ext, String md5sum, JSONObject obj) {
+            this.sdkFileId = sdkFileId;
+            this.mediaPath = mediaPath;
+            this.ext = ext;
+            this.md5sum = md5sum;
+            this.obj = obj;
+        }
+
+        void subscribe(MediaSingleFlight.Flight flight) {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            shared = future;
+            flight.subscribe(future::complete);
+        }
+
+        void copyToDuplicates() {
+            for (JSONObject duplicate : duplicates) {
+                for (String key : new String[]{"ossPath", "file_path"}) {
+                    if (obj.has(key)) {
+                        duplicate.put(key, obj.get(key));
+                    }
+                }
+            }
+        }
+    }
 }
@@ -2,7 +2,16 @@ package com.ruoran.houyi;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.tencent.wework.Finance;
+import com.ruoran.houyi.downloader.BigFileLane;
+import com.ruoran.houyi.downloader.DownloadResumeStore;
+import com.ruoran.houyi.downloader.MediaSingleFlight;
+import com.ruoran.houyi.downloader.Md5NearCache;
+import com.ruoran.houyi.downloader.MediaSink;
+import com.ruoran.houyi.downloader.MultipartUploadSink;
+import com.ruoran.houyi.downloader.StreamingUploader;
+import com.ruoran.houyi.finance.FinanceBackend;
+import com.ruoran.houyi.finance.FinanceSdkPool;
+import com.ruoran.houyi.finance.NativeHandles;
 import com.ruoran.houyi.model.Md5Index;
 import com.ruoran.houyi.model.OriginalMsg;
 import com.ruoran.houyi.mq.MessageProducerAdapter;
@@ -15,6 +24,7 @@ import com.ruoran.houyi.utils.DateUtil;
 import com.ruoran.houyi.utils.FileUtil;
 import com.ruoran.houyi.utils.JedisUtil;
 import com.ruoran.houyi.utils.RetryUtil;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.Data;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
@@ -27,11 +37,10 @@ import redis.clients.jedis.JedisPool;
 
 import jakarta.annotation.Resource;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.math.BigInteger;
-import java.security.MessageDigest;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 /**
  * @author renlu
@@ -43,7 +52,6 @@ import java.util.*;
 public class MsgHandler {
     static final Map<String, DownloadType> DOWNLOAD_TYPE = new HashMap<>(16);
     public String corpid;
-    public long sdk;
     private String prefix = "/tmp/";
     @Resource
     Md5IndexRepo md5IndexRepo;
@@ -75,7 +83,44 @@ public class MsgHandler {
     @Resource
     OssUtil ossUtil;
 
-    private final static Integer TRY_COUNT = AppConstants.Retry.MAX_TRY_COUNT;
+    @Resource
+    FinanceSdkPool financeSdkPool;
+
+    @Resource
+    NativeHandles nativeHandles;
+
+    @Resource
+    FinanceBackend financeBackend;
+
+    @Resource
+    MeterRegistry meterRegistry;
+
+    @Resource
+    StreamingUploader streamingUploader;
+
+    @Resource
+    DownloadResumeStore downloadResumeStore;
+
+    @Resource
+    BigFileLane bigFileLane;
+
+    @Resource
+    MediaSingleFlight mediaSingleFlight;
+
+    @Resource
+    Md5NearCache md5NearCache;
+
+    /**
+     * 普通下载超时后置为 true，由 DownloadThreadKeeper 把整条消息转入大文件通道
+     */
+    private final AtomicBoolean bigFileHandOff = new AtomicBoolean(false);
+
+    /**
+     * 同一文件正由其他消息下载时置为 true，由合并下载的回调完成整条消息，DownloadThreadKeeper 不再更新
+     */
+    private final AtomicBoolean sharedDownloadPending = new AtomicBoolean(false);
+
+    protected final static Integer TRY_COUNT = AppConstants.Retry.MAX_TRY_COUNT;
 
     private final static Long BIG_FILE_TIME = AppConstants.Retry.BIG_FILE_TIMEOUT_MS;
 
@@ -107,12 +152,7 @@ public class MsgHandler {
         objectMapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
 
         this.secret = secret;
-        this.sdk = Finance.NewSdk();
         this.corpid = corpId;
-        int state = Finance.Init(sdk, corpId, secret);
-        if (state != 0) {
-            log.error("初始化（Finance.init）失败,corpId:{},secret:{}", corpId, secret);
-        }
     }
 
     /**
@@ -223,95 +263,90 @@ public class MsgHandler {
                 String key = AppConstants.RedisKey.MD5_PREFIX + md5Index.getMd5();
                 String value = objectMapper.writeValueAsString(md5Index);
                 jedis.setex(key, AppConstants.RedisExpire.MD5_CACHE_EXPIRE, value);
+                eventBus.getMd5CacheWrites().incrementAndGet();
             } catch (Exception e) {
                 log.error("设置MD5缓存失败, md5:{}", md5Index.getMd5(), e);
             }
         });
+        // 本实例缓存的“不存在”作废，其他实例等 negative-ttl-ms 过期
+        md5NearCache.invalidate(md5Index.getMd5());
     }
 
-    public static String getFileMd5(File file) {
-        if (!file.isFile()) {
-            return null;
-        }
-        MessageDigest digest = null;
-        FileInputStream in = null;
-        byte[] buffer = new byte[1024];
-        int len;
-        try {
-            digest = MessageDigest.getInstance("MD5");
-            in = new FileInputStream(file);
-            while ((len = in.read(buffer, 0, 1024)) != -1) {
-                digest.update(buffer, 0, len);
-            }
-            in.close();
-        } catch (Exception e) {
-            log.error("计算文件MD5失败, file:{}", file.getAbsolutePath(), e);
-            return null;
-        }
-        BigInteger bigInt = new BigInteger(1, digest.digest());
-        String res = bigInt.toString(16);
-        while (res.length() < 32) {
-            res = "0" + res;
-        }
-        return res;
+    /**
+     * 消息中媒体文件的大小（字节），取不到时返回 -1
+     */
+    public static long mediaFileSize(JSONObject object) {
+        JSONObject body = object.optJSONObject(object.optString("msgtype"));
+        return body == null ? -1 : body.optLong("filesize", -1);
     }
 
 
     public boolean tryMd5Sum(String md5sum, JSONObject object) {
         if (!md5sum.isEmpty()) {
-
-            Optional<Md5Index> redisMd5Optional = getMd5Cache(md5sum);
-            if (redisMd5Optional.isPresent()) {
-                object.put("file_path", redisMd5Optional.get().getFilePath());
-                object.put("ossPath", redisMd5Optional.get().getOssPath());
-                return true;
+            Md5NearCache.Entry entry = md5NearCache.lookup(md5sum);
+            Md5Index md5Index;
+            if (entry != null) {
+                md5Index = entry.getValue();
+            } else {
+                long stamp = md5NearCache.stamp(md5sum);
+                md5Index = loadMd5Index(md5sum).orElse(null);
+                md5NearCache.put(md5sum, md5Index, stamp);
             }
-            Optional<Md5Index> md5IndexOptional = md5IndexRepo.findFirstByMd5(md5sum);
-            if (md5IndexOptional.isPresent()) {
-                object.put("file_path", md5IndexOptional.get().getFilePath());
-                object.put("ossPath", md5IndexOptional.get().getOssPath());
-                Md5Index md5Index = md5IndexOptional.get();
-                /**
-                 * 大于阈值算是一个高频的文件，就不更新了，节约服务器资源
-                 */
-                if (md5Index.getTimes() < AppConstants.MessageThreshold.HIGH_FREQUENCY_FILE_TIMES) {
-                    md5Index.setTimes(md5Index.getTimes() + 1);
-                    md5IndexRepo.save(md5Index);
-                }
-                setMd5Cache(md5Index);
+            if (md5Index != null) {
+                object.put("file_path", md5Index.getFilePath());
+                object.put("ossPath", md5Index.getOssPath());
                 return true;
             }
         }
         return false;
     }
 
-    public Boolean isDownIng(String md5sum) {
-        return JedisUtil.execute(jedisPool, jedis -> {
-            String flag = jedis.get(md5sum);
-            if (StringUtils.isEmpty(flag)) {
-                jedis.setex(md5sum, AppConstants.RedisExpire.DOWNLOADING_FLAG_EXPIRE, "exist");
-                return false;
-            } else {
-                return true;
+    /**
+     * 进程内缓存之后的两层：Redis、MySQL
+     */
+    private Optional<Md5Index> loadMd5Index(String md5sum) {
+        Optional<Md5Index> redisMd5Optional = getMd5Cache(md5sum);
+        if (redisMd5Optional.isPresent()) {
+            md5NearCache.record(Md5NearCache.Tier.REDIS);
+            return redisMd5Optional;
+        }
+        Optional<Md5Index> md5IndexOptional = md5IndexRepo.findFirstByMd5(md5sum);
+        if (md5IndexOptional.isPresent()) {
+            md5NearCache.record(Md5NearCache.Tier.MYSQL);
+            Md5Index md5Index = md5IndexOptional.get();
+            /**
+             * 大于阈值算是一个高频的文件，就不更新了，节约服务器资源
+             */
+            if (md5Index.getTimes() < AppConstants.MessageThreshold.HIGH_FREQUENCY_FILE_TIMES) {
+                md5Index.setTimes(md5Index.getTimes() + 1);
+                md5IndexRepo.save(md5Index);
             }
-        }).orElse(false);
+            setMd5Cache(md5Index);
+            return md5IndexOptional;
+        }
+        md5NearCache.record(Md5NearCache.Tier.MISS);
+        return Optional.empty();
     }
 
     /**
      * 在进行mixed类型的消息里的附件下载时，如果下载失败，则整条丢进rocketMQ重试队列 。
+     * 同一条消息的多个附件并发下载，重试由调用方在全部附件结束后统一发送一次
      *
      * @param sdkFileId
      * @param mediaPath
      * @param ext
      * @param md5sum
      * @param object
-     * @param wholeRootObject
+     * @param wholeRootObject 只读，并发下载期间不能修改
      * @param msgId
+     * @param retry 需要整条消息重试时置为 true
+     * @param onPending 同一文件正由其他消息下载时调用，由调用方订阅结果，本次返回 true 但 object 中还没有 ossPath
      * @return boolean 下载成功就返回true，否则返回false
      * @throws Exception
      */
     public boolean simpleDownMedia(String sdkFileId, String mediaPath, String ext,
-                                   @NonNull String md5sum, JSONObject object, JSONObject wholeRootObject, String msgId, long seq, Boolean bigFile) throws Exception {
+                                   @NonNull String md5sum, JSONObject object, JSONObject wholeRootObject, String msgId, long seq, Boolean bigFile,
+                                   AtomicBoolean retry, Consumer<MediaSingleFlight.Flight> onPending) throws Exception {
         if (StringUtils.isEmpty(md5sum)) {
             md5sum = Md5Util.getMd5(sdkFileId);
         }
@@ -320,10 +355,26 @@ public class MsgHandler {
                 return true;
             }
         }
+        MediaSingleFlight.Flight flight = mediaSingleFlight.join(md5sum);
+        if (flight.isShared()) {
+            object.put("ossPath", flight.getOssPath());
+            return true;
+        }
+        if (flight.isPending()) {
+            // 同一文件正由其他消息下载，不占着线程等待，由调用方订阅结果
+            onPending.accept(flight);
+            return true;
+        }
+        try {
+            return fetchSimpleMedia(sdkFileId, mediaPath, ext, md5sum, object, wholeRootObject, msgId, seq, bigFile, retry);
+        } finally {
+            flight.complete(object.optString("ossPath"));
+        }
+    }
 
-//        if(isDownIng(md5sum)){
-//            return false;
-//        }
+    private boolean fetchSimpleMedia(String sdkFileId, String mediaPath, String ext,
+                                     String md5sum, JSONObject object, JSONObject wholeRootObject, String msgId, long seq, Boolean bigFile,
+                                     AtomicBoolean retry) throws Exception {
         String indexBuff = "";
         String dateStr = DateUtil.nowYyyyMmDdHh();
         // 安全处理文件名，防止文件名过长或包含特殊字符
@@ -359,116 +410,152 @@ public class MsgHandler {
             }
         }
 
+        DownloadResumeStore.State resume = downloadResumeStore.load(sdkFileId);
+        if (resume != null) {
+            log.info("断点续传,msgId:{},sdkFileId:{},已下载:{}", msgId, sdkFileId, resume.getBytes());
+            localPath = resume.getLocalPath();
+            indexBuff = resume.getIndexBuf();
+        } else {
+            FileUtil.safeDelete(localPath);
+        }
+        final String partPath = localPath;
         long startDownTime = System.currentTimeMillis();
-        FileUtil.safeDelete(localPath);
-        while (true) {
-            long mediaData = Finance.NewMediaData();
-            int ret = Finance.GetMediaData(this.sdk, indexBuff, sdkFileId, "", "", 60, mediaData);
-
-            if (RetryUtil.isNetworkError(ret)) {
-                /**
-                 * 网络有波动，先发进 rocket,一分钟后重试
-                 */
-                RetryUtil.sendRetryMessage(wholeRootObject, messageProducerAdapter, 
-                    getEventBus(), this.getSecret(), getProfile(), TRY_COUNT);
-                return false;
-            }
-
-            if (ret != 0) {
-                log.error("获取失败下载句柄失败,corpID:{},msgId:{},sdkFileId:{},returnValue:{}", this.corpid, msgId, sdkFileId, ret);
-                object.put("down_fail_at", System.currentTimeMillis());
-                RetryUtil.sendRetryMessage(wholeRootObject, messageProducerAdapter, 
-                    getEventBus(), this.getSecret(), getProfile(), TRY_COUNT);
-                return false;
-            }
-            FileOutputStream outputStream = new FileOutputStream(localPath, true);
-            outputStream.write(Finance.GetData(mediaData));
-            outputStream.flush();
-            outputStream.close();
-            if (Finance.IsMediaDataFinish(mediaData) == 1) {
-                try {
-                    eventBus.getTotalRealDount().incrementAndGet();
-                    eventBus.getMixedTypeItemCounter().incrementAndGet();
-                    Finance.FreeMediaData(mediaData);
-                    if (md5sum.length() > 0 && !(".gif".equalsIgnoreCase(ext))) {
-                        object.put("file_path", this.getPrefix() + mediaPath + "" + ext);
-                        String md5 = getFileMd5(new File(localPath));
-                        if (!md5sum.equalsIgnoreCase(md5)) {
-                            log.error("下载文件失败，md5校验失败,文件:{},消息md5sum:{},计算md5:{}", this.getPrefix() + mediaPath + "" + ext, md5sum, md5);
-                        } else {
-                            log.info("md5sum 校验成功");
-                        }
+        try (MediaSink sink = resume != null
+                ? MediaSink.resume(localPath, resume.getBytes(), resume.getDigestState()) : MediaSink.open(localPath);
+             FinanceSdkPool.Lease lease = financeSdkPool.borrow(this.corpid, this.secret)) {
+            DownloadResumeStore.Progress progress = downloadResumeStore.progress(sdkFileId, partPath, sink, true);
+            while (true) {
+                try (NativeHandles.Handle media = nativeHandles.mediaData()) {
+                    long mediaData = media.get();
+                    int ret = financeBackend.getMediaData(lease.getSdk(), indexBuff, sdkFileId, "", "", 60, mediaData);
+                    lease.reportError(ret);
+
+                    if (RetryUtil.isNetworkError(ret)) {
+                        /**
+                         * 网络有波动，先发进 rocket,一分钟后重试
+                         */
+                        progress.flush();
+                        retry.set(true);
+                        return false;
                     }
-                    if (".amr".equals(ext)) {
-                        String localPathMp3 = this.getPrefix() + dateStr + "_" + safeMediaPath + ".mp3";
-                        Audio.toMp3(localPath, localPathMp3);
-                        // 删除.amr中间文件
-                        FileUtil.safeDelete(localPath);
-                        localPath = localPathMp3;
-                        ossTargetPath = "mochat2/" + dateStr.replace("_", "/") + "/" + safeMediaPath + ".mp3";
+
+                    if (ret != 0) {
+                        log.error("获取失败下载句柄失败,corpID:{},msgId:{},sdkFileId:{},returnValue:{}", this.corpid, msgId, sdkFileId, ret);
+                        // 非网络错误时 indexbuf 可能已失效，下次从头下载
+                        downloadResumeStore.clear(sdkFileId, partPath);
+                        object.put("down_fail_at", System.currentTimeMillis());
+                        retry.set(true);
+                        return false;
                     }
-                    Boolean result = ossUtil.upload(localPath, ossTargetPath);
-                    if (result) {
-                        object.put("ossPath", ossTargetPath);
-                    } else {
-                        log.error("uploadOSSError,msgId:{}", msgId);
+                    byte[] data = financeBackend.getData(mediaData);
+                    sink.write(data);
+                    if (bigFile) {
+                        bigFileLane.acquireBandwidth(data.length);
                     }
-
-                    if (result) {
-                        object.put("ossPath", ossTargetPath);
-                        if(StringUtils.isEmpty(md5sum)){
-                            String form = "";
-                            if(wholeRootObject.has("form")){
-                                form = wholeRootObject.getString(form);
+                    if (financeBackend.isMediaDataFinish(mediaData) == 1) {
+                        try {
+                            eventBus.getTotalRealDount().incrementAndGet();
+                            eventBus.getMixedTypeItemCounter().incrementAndGet();
+                            media.close();
+                            String md5 = sink.finish();
+                            sink.record(meterRegistry, this.corpid);
+                            downloadResumeStore.clear(sdkFileId, partPath);
+                            if (md5sum.length() > 0 && !(".gif".equalsIgnoreCase(ext))) {
+                                object.put("file_path", this.getPrefix() + mediaPath + "" + ext);
+                                if (!md5sum.equalsIgnoreCase(md5)) {
+                                    log.error("下载文件失败，md5校验失败,文件:{},消息md5sum:{},计算md5:{}", this.getPrefix() + mediaPath + "" + ext, md5sum, md5);
+                                    checkResumedMd5(resume, msgId, sdkFileId);
+                                } else {
+                                    log.info("md5sum 校验成功");
+                                }
                             }
-                            if(object.has("form")){
-                                form = object.getString(form);
+                            if (".amr".equals(ext)) {
+                                String localPathMp3 = this.getPrefix() + dateStr + "_" + safeMediaPath + ".mp3";
+                                Audio.toMp3(localPath, localPathMp3);
+                                // 删除.amr中间文件
+                                FileUtil.safeDelete(localPath);
+                                localPath = localPathMp3;
+                                ossTargetPath = "mochat2/" + dateStr.replace("_", "/") + "/" + safeMediaPath + ".mp3";
                             }
-                            Jedis jedis = null;
-                            try {
-                                jedis = jedisPool.getResource();
-                                jedis.setex("no_md5sum_file_" +form+"_"+localPath,7200,ossTargetPath);
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            } finally {
-                                if (jedis != null) {
-                                    jedisPool.returnResource(jedis);
+                            Boolean result = ossUtil.upload(localPath, ossTargetPath);
+                            if (result) {
+                                object.put("ossPath", ossTargetPath);
+                            } else {
+                                log.error("uploadOSSError,msgId:{}", msgId);
+                            }
+
+                            if (result) {
+                                object.put("ossPath", ossTargetPath);
+                                if(StringUtils.isEmpty(md5sum)){
+                                    String form = "";
+                                    if(wholeRootObject.has("form")){
+                                        form = wholeRootObject.getString(form);
+                                    }
+                                    if(object.has("form")){
+                                        form = object.getString(form);
+                                    }
+                                    Jedis jedis = null;
+                                    try {
+                                        jedis = jedisPool.getResource();
+                                        jedis.setex("no_md5sum_file_" +form+"_"+localPath,7200,ossTargetPath);
+                                    } catch (Exception e) {
+                                        e.printStackTrace();
+                                    } finally {
+                                        if (jedis != null) {
+                                            jedisPool.returnResource(jedis);
+                                        }
+                                    }
                                 }
+                            } else {
+                                log.error("uploadOSSError,msgId:{}", msgId);
+                            }
+                            return true;
+                        } catch (Exception e) {
+                            log.error("downFileError,msgId:{},", msgId, e);
+                        } finally {
+                            if (object.has("ossPath")) {
+                                eventBus.getRocketRetrySucc().incrementAndGet();
                             }
+                            if (!object.has("ossPath")) {
+                                retry.set(true);
+                            }
+                            FileUtil.safeDelete(localPath);
                         }
                     } else {
-                        log.error("uploadOSSError,msgId:{}", msgId);
-                    }
-                    return true;
-                } catch (Exception e) {
-                    log.error("downFileError,msgId:{},", msgId, e);
-                } finally {
-                    if (object.has("ossPath")) {
-                        eventBus.getRocketRetrySucc().incrementAndGet();
-                    }
-                    if (!object.has("ossPath")) {
-                        RetryUtil.sendRetryMessage(wholeRootObject, messageProducerAdapter, 
-                            getEventBus(), this.getSecret(), getProfile(), TRY_COUNT);
-                    }
-                    FileUtil.safeDelete(localPath);
-                }
-            } else {
-                indexBuff = Finance.GetOutIndexBuf(mediaData);
-                Finance.FreeMediaData(mediaData);
-                if (!bigFile) {
-                    long DownIngTime = System.currentTimeMillis();
-                    if (DownIngTime - startDownTime > BIG_FILE_TIME) {
-                        log.error("DownOutOfTimeError,{},{},{},{}", msgId, startDownTime, DownIngTime, seq);
-                        Optional<OriginalMsg> optionalOriginalMsg = originalMsgRepo.findFirstByCorpIdAndMsgIdAndSeq(corpid, msgId, seq);
-                        if (optionalOriginalMsg.isPresent()) {
-                            OriginalMsg originalMsg = optionalOriginalMsg.get();
-                            log.error("BigFile,{}", originalMsg.getId());
-                            originalMsg.setPushAt(-999L);
-                            originalMsgRepo.save(originalMsg);
-                            // 删除大文件
-                            File file = new File(localPath);
-                            if (file.exists()) {
-                                file.delete();
+                        indexBuff = financeBackend.getOutIndexBuf(mediaData);
+                        media.close();
+                        progress.onChunk(indexBuff);
+                        if (!bigFile) {
+                            long DownIngTime = System.currentTimeMillis();
+                            if (DownIngTime - startDownTime > BIG_FILE_TIME) {
+                                log.error("DownOutOfTimeError,{},{},{},{}", msgId, startDownTime, DownIngTime, seq);
+                                if (bigFileLane.isEnabled()) {
+                                    // 进度显示是大文件，转入大文件通道（开启续传时从断点继续）
+                                    progress.flush();
+                                    bigFileHandOff.set(true);
+                                    return false;
+                                }
+                                Optional<OriginalMsg> optionalOriginalMsg = originalMsgRepo.findFirstByCorpIdAndMsgIdAndSeq(corpid, msgId, seq);
+                                if (optionalOriginalMsg.isPresent()) {
+                                    OriginalMsg originalMsg = optionalOriginalMsg.get();
+                                    log.error("BigFile,{}", originalMsg.getId());
+                                    progress.flush();
+                                    originalMsg.setPushAt(-999L);
+                                    originalMsgRepo.save(originalMsg);
+                                    // 开启续传时保留部分文件，大文件重试时从断点继续
+                                    if (!downloadResumeStore.isEnabled()) {
+                                        FileUtil.safeDelete(localPath);
+                                    }
+                                    return false;
+                                }
+                            }
+                        } else if (bigFileLane.isEnabled()
+                                && System.currentTimeMillis() - startDownTime > bigFileLane.getTimeoutMs()) {
+                            log.error("BigFileOutOfTimeError,{},{},{}", msgId, startDownTime, seq);
+                            progress.flush();
+                            bigFileLane.markPending(corpid, msgId, seq);
+                            if (!downloadResumeStore.isEnabled()) {
+                                FileUtil.safeDelete(localPath);
                             }
                             return false;
                         }
@@ -490,26 +577,67 @@ public class MsgHandler {
         if(StringUtils.isEmpty(md5sum)){
             log.warn("md5sumNullError , msgId:{}",msgId);
         }
-        if(StringUtils.isNotEmpty(md5sum) && isDownIng(md5sum)){
-            if(object.has("push_at")){
-                if(object.getLong("push_at")< -5 && object.getLong("push_at")> -100){
-                    // 下载次数达5次后直接突破文件不能并行下载的限制 // 除了大文件
-                    log.error("MsgOverDown , msgId：{},{}",msgId,object);
-                }else{
-                    return;
-                }
-            }else{
-                return ;
-            }
+        if (object.has("push_at") && object.getLong("push_at") < -5 && object.getLong("push_at") > -100) {
+            // 下载次数达5次后直接突破文件不能并行下载的限制 // 除了大文件
+            log.error("MsgOverDown , msgId：{},{}",msgId,object);
+            fetchMedia(sdkFileId, mediaPath, ext, md5sum, object, msgId, seq, bigFile);
+            return;
+        }
+        MediaSingleFlight.Flight flight = mediaSingleFlight.join(md5sum);
+        if (flight.isShared()) {
+            // 同一文件刚由其他消息下载完成
+            object.put("file_path", this.getPrefix() + mediaPath + "" + ext);
+            object.put("ossPath", flight.getOssPath());
+            return;
+        }
+        if (flight.isPending()) {
+            // 同一文件正由其他消息下载，拿到结果后在回调里完成这条消息，下载线程不等待
+            sharedDownloadPending.set(true);
+            flight.subscribe(ossPath -> completeWithSharedDownload(mediaPath, ext, object, msgId, seq, ossPath));
+            return;
+        }
+        try {
+            fetchMedia(sdkFileId, mediaPath, ext, md5sum, object, msgId, seq, bigFile);
+        } finally {
+            flight.complete(object.optString("ossPath"));
+        }
+    }
+
+    /**
+     * 续传的文件 md5 不一致时不上传：续传状态已清除，抛出异常后按下载失败重试，重试时从头下载
+     */
+    private void checkResumedMd5(DownloadResumeStore.State resume, String msgId, String sdkFileId) throws IOException {
+        if (resume != null) {
+            meterRegistry.counter("houyi_download_resume_md5_mismatch").increment();
+            throw new IOException("续传文件md5校验失败, msgId:" + msgId + ", sdkFileId:" + sdkFileId);
         }
+    }
+
+    /**
+     * 合并下载的回调：拿到 ossPath 时入库并推送；领头失败或等待超时时整条消息进延迟重试，
+     * 等待不计入 tryCount，重试时重新竞争下载，自己下载失败才计次
+     */
+    private void completeWithSharedDownload(String mediaPath, String ext, JSONObject object, String msgId, long seq,
+                                            String ossPath) {
+        if (StringUtils.isNotEmpty(ossPath)) {
+            object.put("file_path", this.getPrefix() + mediaPath + "" + ext);
+            object.put("ossPath", ossPath);
+            updateDownloadStatus(msgId, seq, object);
+            return;
+        }
+        log.warn("同一文件的下载未拿到结果, 进入重试队列, msgId:{}", msgId);
+        RetryUtil.sendRetryMessage(object, messageProducerAdapter, getEventBus(), this.getSecret(), getProfile(),
+                TRY_COUNT, false);
+    }
+
+    private void fetchMedia(String sdkFileId, String mediaPath, String ext,
+                            String md5sum, JSONObject object, String msgId, long seq, Boolean bigFile) throws Exception {
         String indexbuf = "";
         String dateStr = DateUtil.nowYyyyMmDdHh();
         // 安全处理文件名，防止文件名过长或包含特殊字符
         String safeMediaPath = FileUtil.sanitizeFilename(mediaPath, md5sum);
         String localPath = this.getPrefix() + dateStr + "_" + safeMediaPath + ext;
         String ossTargetPath = "mochat2/" + dateStr.replace("_", "/") + "/" + safeMediaPath + ext;
-        long startDownTime = System.currentTimeMillis();
-        FileUtil.safeDelete(localPath);
         if(StringUtils.isEmpty(md5sum)){
             String form = "";
             if(object.has("form")){
@@ -533,189 +661,239 @@ public class MsgHandler {
                 }
             }
         }
-        while (true) {
-            long mediaData = Finance.NewMediaData();
-            int ret = Finance.GetMediaData(this.sdk, indexbuf, sdkFileId, "", "", 60, mediaData);
-
-            if (ret == 10001 || ret == 10002 || ret == 10003 || ret == 10009 || ret == 10011) {
-                /**
-                 * 网络有波动，先发进 rocket,一分钟后重试;
-                 */
-                log.error("下载失败，丢进 rocketMq 10秒后下载,downFileError,msgId:{},tryMsg:{}",msgId,object);
-                String tag = getProfile();
-                if (tag == null || tag.isEmpty()) {
-                    tag = "dev";
-                }
-                try {
-                    object.put("secret", this.getSecret());
-                    getEventBus().getRocketRetryCounter().incrementAndGet();
-                    object.put("rocketRetry", "1");
-                    if (object.has("tryCount")) {
-                        int tryCount = object.getInt("tryCount");
-                        if (tryCount < TRY_COUNT) {
-                            object.put("tryCount", tryCount + 1);
-                            messageProducerAdapter.sendDelayMessage(object.toString(), msgId);
+        boolean streaming = streamingUploader.accept(mediaFileSize(object), ext);
+        // 流式上传的分片不落本地，不支持续传
+        DownloadResumeStore.State resume = streaming ? null : downloadResumeStore.load(sdkFileId);
+        if (resume != null) {
+            log.info("断点续传,msgId:{},sdkFileId:{},已下载:{}", msgId, sdkFileId, resume.getBytes());
+            localPath = resume.getLocalPath();
+            indexbuf = resume.getIndexBuf();
+        } else {
+            FileUtil.safeDelete(localPath);
+        }
+        final String partPath = localPath;
+        long startDownTime = System.currentTimeMillis();
+        try (MediaSink sink = streaming ? streamingUploader.open(ossTargetPath)
+                : resume != null ? MediaSink.resume(localPath, resume.getBytes(), resume.getDigestState())
+                : MediaSink.open(localPath);
+             FinanceSdkPool.Lease lease = financeSdkPool.borrow(this.corpid, this.secret)) {
+            DownloadResumeStore.Progress progress = downloadResumeStore.progress(sdkFileId, partPath, sink, !streaming);
+            while (true) {
+                try (NativeHandles.Handle media = nativeHandles.mediaData()) {
+                    long mediaData = media.get();
+                    int ret = financeBackend.getMediaData(lease.getSdk(), indexbuf, sdkFileId, "", "", 60, mediaData);
+                    lease.reportError(ret);
+
+                    if (ret == 10001 || ret == 10002 || ret == 10003 || ret == 10009 || ret == 10011) {
+                        /**
+                         * 网络有波动，先发进 rocket,一分钟后重试;
+                         */
+                        progress.flush();
+                        log.error("下载失败，丢进 rocketMq 10秒后下载,downFileError,msgId:{},tryMsg:{}",msgId,object);
+                        String tag = getProfile();
+                        if (tag == null || tag.isEmpty()) {
+                            tag = "dev";
                         }
-                    } else {
-                        object.put("tryCount", 1);
-                        messageProducerAdapter.sendDelayMessage(object.toString(), msgId);
-                    }
-                } catch (Exception e) {
-                    log.error("尝试用 rocketMq记录下载错误的，失败了");
-                }
-                return;
-            }
-            if (ret != 0) {
-                Optional<OriginalMsg> originalMsgOptional = originalMsgRepo.findFirstByCorpIdAndMsgIdAndSeq(this.corpid, msgId, seq);
-                if(originalMsgOptional.isPresent()) {
-                    // 有可能修复线程发了消息消费成功了
-                    if(StringUtils.isEmpty(originalMsgOptional.get().getOssPath())) {
-                        log.error("获取失败下载句柄失败,corpId:{},msgId:{},sdkFileId:{},returnValue:{}", getCorpid(), msgId, sdkFileId, ret);
-                        object.put("down_fail_at", System.currentTimeMillis());
                         try {
-                            String tag = getProfile();
-                            if (tag == null || tag.isEmpty()) {
-                                tag = "dev";
-                            }
                             object.put("secret", this.getSecret());
-                            log.error("下载失败，丢进 rocketMq 10秒后下载,downFileError,msgId:{},tryMsg:{}", msgId, object);
                             getEventBus().getRocketRetryCounter().incrementAndGet();
                             object.put("rocketRetry", "1");
                             if (object.has("tryCount")) {
                                 int tryCount = object.getInt("tryCount");
                                 if (tryCount < TRY_COUNT) {
                                     object.put("tryCount", tryCount + 1);
-                                    messageProducerAdapter.sendDelayMessage(object.toString(), tag);
+                                    messageProducerAdapter.sendDelayMessage(object.toString(), msgId);
                                 }
                             } else {
                                 object.put("tryCount", 1);
-                                messageProducerAdapter.sendDelayMessage(object.toString(), tag);
+                                messageProducerAdapter.sendDelayMessage(object.toString(), msgId);
                             }
                         } catch (Exception e) {
                             log.error("尝试用 rocketMq记录下载错误的，失败了");
                         }
+                        return;
                     }
-                }
-                return;
-            }
-
-            FileOutputStream outputStream = new FileOutputStream(localPath, true);
-            outputStream.write(Finance.GetData(mediaData));
-            outputStream.flush();
-            outputStream.close();
-            if (Finance.IsMediaDataFinish(mediaData) == 1) {
-                try {
-                    eventBus.getTotalRealDount().incrementAndGet();
-                    Finance.FreeMediaData(mediaData);
-                    object.put("file_path", this.getPrefix() + mediaPath + "" + ext);
-                    if (md5sum.length() > 0 && !(".gif".equalsIgnoreCase(ext))) {
-                        String md5 = getFileMd5(new File(localPath));
-                        if (!md5sum.equalsIgnoreCase(md5)) {
-                            log.error("md5Error,msgId:{}", msgId);
-                            log.error("下载文件失败，md5校验失败,文件:{},消息md5sum:{},计算md5:{}", this.getPrefix() + mediaPath + "" + ext, md5sum, md5);
-                            //     throw new Exception("下载文件失败，md5校验失败");
-                        } else {
-                            log.info("md5sum 校验成功");
+                    if (ret != 0) {
+                        // 非网络错误时 indexbuf 可能已失效，下次从头下载
+                        downloadResumeStore.clear(sdkFileId, partPath);
+                        Optional<OriginalMsg> originalMsgOptional = originalMsgRepo.findFirstByCorpIdAndMsgIdAndSeq(this.corpid, msgId, seq);
+                        if(originalMsgOptional.isPresent()) {
+                            // 有可能修复线程发了消息消费成功了
+                            if(StringUtils.isEmpty(originalMsgOptional.get().getOssPath())) {
+                                log.error("获取失败下载句柄失败,corpId:{},msgId:{},sdkFileId:{},returnValue:{}", getCorpid(), msgId, sdkFileId, ret);
+                                object.put("down_fail_at", System.currentTimeMillis());
+                                try {
+                                    String tag = getProfile();
+                                    if (tag == null || tag.isEmpty()) {
+                                        tag = "dev";
+                                    }
+                                    object.put("secret", this.getSecret());
+                                    log.error("下载失败，丢进 rocketMq 10秒后下载,downFileError,msgId:{},tryMsg:{}", msgId, object);
+                                    getEventBus().getRocketRetryCounter().incrementAndGet();
+                                    object.put("rocketRetry", "1");
+                                    if (object.has("tryCount")) {
+                                        int tryCount = object.getInt("tryCount");
+                                        if (tryCount < TRY_COUNT) {
+                                            object.put("tryCount", tryCount + 1);
+                                            messageProducerAdapter.sendDelayMessage(object.toString(), tag);
+                                        }
+                                    } else {
+                                        object.put("tryCount", 1);
+                                        messageProducerAdapter.sendDelayMessage(object.toString(), tag);
+                                    }
+                                } catch (Exception e) {
+                                    log.error("尝试用 rocketMq记录下载错误的，失败了");
+                                }
+                            }
                         }
+                        return;
+                    }
 
+                    byte[] data = financeBackend.getData(mediaData);
+                    sink.write(data);
+                    if (bigFile) {
+                        bigFileLane.acquireBandwidth(data.length);
                     }
-                    if (".amr".equals(ext)) {
-                        String localPathMp3 = this.getPrefix() + dateStr + "_" + safeMediaPath + ".mp3";
-                        Audio.toMp3(localPath, localPathMp3);
+                    if (financeBackend.isMediaDataFinish(mediaData) == 1) {
                         try {
-                            File file = new File(localPath);
-                            if (file.exists()) {
-                                file.delete();
+                            eventBus.getTotalRealDount().incrementAndGet();
+                            media.close();
+                            String md5 = sink.finish();
+                            sink.record(meterRegistry, this.corpid);
+                            downloadResumeStore.clear(sdkFileId, partPath);
+                            object.put("file_path", this.getPrefix() + mediaPath + "" + ext);
+                            if (md5sum.length() > 0 && !(".gif".equalsIgnoreCase(ext))) {
+                                if (!md5sum.equalsIgnoreCase(md5)) {
+                                    log.error("md5Error,msgId:{}", msgId);
+                                    log.error("下载文件失败，md5校验失败,文件:{},消息md5sum:{},计算md5:{}", this.getPrefix() + mediaPath + "" + ext, md5sum, md5);
+                                    checkResumedMd5(resume, msgId, sdkFileId);
+                                } else {
+                                    log.info("md5sum 校验成功");
+                                }
+
                             }
-                        }catch (Exception e){
-                            log.error("ClearFileError:",e);
-                        }
-                        localPath = localPathMp3;
-                        ossTargetPath = "mochat2/" + dateStr.replace("_", "/") + "/" + safeMediaPath + ".mp3";
-                    }
-                    Boolean result = ossUtil.upload(localPath, ossTargetPath);
-                    if (result) {
-                        object.put("ossPath", ossTargetPath);
-                        if(StringUtils.isEmpty(md5sum)){
-                            String form = "";
-                            if(object.has("form")){
-                                form = object.getString(form);
+                            if (".amr".equals(ext)) {
+                                String localPathMp3 = this.getPrefix() + dateStr + "_" + safeMediaPath + ".mp3";
+                                Audio.toMp3(localPath, localPathMp3);
+                                try {
+                                    File file = new File(localPath);
+                                    if (file.exists()) {
+                                        file.delete();
+                                    }
+                                }catch (Exception e){
+                                    log.error("ClearFileError:",e);
+                                }
+                                localPath = localPathMp3;
+                                ossTargetPath = "mochat2/" + dateStr.replace("_", "/") + "/" + safeMediaPath + ".mp3";
+                            }
+                            Boolean result;
+                            if (sink instanceof MultipartUploadSink upload) {
+                                // 分片已在下载过程中上传，md5 一致才合并
+                                result = upload.complete(".gif".equalsIgnoreCase(ext) ? "" : md5sum);
+                            } else {
+                                result = ossUtil.upload(localPath, ossTargetPath);
                             }
-                            Jedis jedis = null;
-                            try {
-                                jedis = jedisPool.getResource();
-                                jedis.setex("no_md5sum_file_" +form+"_"+localPath,7200,ossTargetPath);
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            } finally {
-                                if (jedis != null) {
-                                    jedisPool.returnResource(jedis);
+                            if (result) {
+                                object.put("ossPath", ossTargetPath);
+                                if(StringUtils.isEmpty(md5sum)){
+                                    String form = "";
+                                    if(object.has("form")){
+                                        form = object.getString(form);
+                                    }
+                                    Jedis jedis = null;
+                                    try {
+                                        jedis = jedisPool.getResource();
+                                        jedis.setex("no_md5sum_file_" +form+"_"+localPath,7200,ossTargetPath);
+                                    } catch (Exception e) {
+                                        e.printStackTrace();
+                                    } finally {
+                                        if (jedis != null) {
+                                            jedisPool.returnResource(jedis);
+                                        }
+                                    }
                                 }
+                            } else {
+                                log.error("uploadOSSError,msgId:{}", msgId);
                             }
-                        }
-                    } else {
-                        log.error("uploadOSSError,msgId:{}", msgId);
-                    }
 
-                } catch (Exception e) {
-                    log.error("downFileError,msgId:{},", msgId, e);
+                        } catch (Exception e) {
+                            log.error("downFileError,msgId:{},", msgId, e);
 
-                } finally {
-                    if (object.has("ossPath")) {
-                        eventBus.getRocketRetrySucc().incrementAndGet();
-                    }
-                    if (!object.has("ossPath")) {
-                        String tag = getProfile();
-                        if (tag == null || tag.isEmpty()) {
-                            tag = "dev";
-                        }
-                        Optional<OriginalMsg> originalMsgOptional = originalMsgRepo.findFirstByCorpIdAndMsgIdAndSeq(this.corpid, msgId, seq);
-                        if(originalMsgOptional.isPresent()){
-                            // 有可能修复线程发了消息消费成功了
-                            if(StringUtils.isEmpty(originalMsgOptional.get().getOssPath())){
-                                object.put("secret", this.getSecret());
-                                log.error("下载失败，丢进 rocketMq 10秒后下载,downFileError,msgId:{},tryMsg:{}",msgId,object);
-                                getEventBus().getRocketRetryCounter().incrementAndGet();
-                                object.put("rocketRetry", "1");
-                                if (object.has("tryCount")) {
-                                    int tryCount = object.getInt("tryCount");
-                                    if (tryCount < TRY_COUNT) {
-                                        object.put("tryCount", tryCount + 1);
-                                        messageProducerAdapter.sendDelayMessage(object.toString(), tag);
+                        } finally {
+                            if (object.has("ossPath")) {
+                                eventBus.getRocketRetrySucc().incrementAndGet();
+                            }
+                            if (!object.has("ossPath")) {
+                                String tag = getProfile();
+                                if (tag == null || tag.isEmpty()) {
+                                    tag = "dev";
+                                }
+                                Optional<OriginalMsg> originalMsgOptional = originalMsgRepo.findFirstByCorpIdAndMsgIdAndSeq(this.corpid, msgId, seq);
+                                if(originalMsgOptional.isPresent()){
+                                    // 有可能修复线程发了消息消费成功了
+                                    if(StringUtils.isEmpty(originalMsgOptional.get().getOssPath())){
+                                        object.put("secret", this.getSecret());
+                                        log.error("下载失败，丢进 rocketMq 10秒后下载,downFileError,msgId:{},tryMsg:{}",msgId,object);
+                                        getEventBus().getRocketRetryCounter().incrementAndGet();
+                                        object.put("rocketRetry", "1");
+                                        if (object.has("tryCount")) {
+                                            int tryCount = object.getInt("tryCount");
+                                            if (tryCount < TRY_COUNT) {
+                                                object.put("tryCount", tryCount + 1);
+                                                messageProducerAdapter.sendDelayMessage(object.toString(), tag);
+                                            }
+                                        } else {
+                                            object.put("tryCount", 1);
+                                            messageProducerAdapter.sendDelayMessage(object.toString(), tag);
+                                        }
                                     }
-                                } else {
-                                    object.put("tryCount", 1);
-                                    messageProducerAdapter.sendDelayMessage(object.toString(), tag);
                                 }
                             }
+                            FileUtil.safeDelete(localPath);
+                            break;
                         }
-                    }
-                    FileUtil.safeDelete(localPath);
-                    break;
-                }
-            } else {
-                indexbuf = Finance.GetOutIndexBuf(mediaData);
-                Finance.FreeMediaData(mediaData);
-                if (!bigFile) {
-                    long DownIngTime = System.currentTimeMillis();
-                    if (DownIngTime - startDownTime > BIG_FILE_TIME) {
-                        log.error("DownOutOfTimeError,{},{},{},{}", msgId, startDownTime, DownIngTime, seq);
-                        Optional<OriginalMsg> optionalOriginalMsg = originalMsgRepo.findFirstByCorpIdAndMsgIdAndSeq(corpid, msgId, seq);
-                        if (optionalOriginalMsg.isPresent()) {
-                            OriginalMsg originalMsg = optionalOriginalMsg.get();
-                            log.error("BigFile,{}", originalMsg.getId());
-                            originalMsg.setPushAt(-999L);
-                            originalMsgRepo.save(originalMsg);
-                            File file = new File(localPath);
-                            if (file.exists()) {
-                                file.delete();
+                    } else {
+                        indexbuf = financeBackend.getOutIndexBuf(mediaData);
+                        media.close();
+                        progress.onChunk(indexbuf);
+                        if (!bigFile) {
+                            long DownIngTime = System.currentTimeMillis();
+                            if (DownIngTime - startDownTime > BIG_FILE_TIME) {
+                                log.error("DownOutOfTimeError,{},{},{},{}", msgId, startDownTime, DownIngTime, seq);
+                                if (bigFileLane.isEnabled()) {
+                                    // 进度显示是大文件，转入大文件通道（开启续传时从断点继续）
+                                    progress.flush();
+                                    bigFileHandOff.set(true);
+                                    return;
+                                }
+                                Optional<OriginalMsg> optionalOriginalMsg = originalMsgRepo.findFirstByCorpIdAndMsgIdAndSeq(corpid, msgId, seq);
+                                if (optionalOriginalMsg.isPresent()) {
+                                    OriginalMsg originalMsg = optionalOriginalMsg.get();
+                                    log.error("BigFile,{}", originalMsg.getId());
+                                    progress.flush();
+                                    originalMsg.setPushAt(-999L);
+                                    originalMsgRepo.save(originalMsg);
+                                    // 开启续传时保留部分文件，大文件重试时从断点继续
+                                    if (!downloadResumeStore.isEnabled()) {
+                                        FileUtil.safeDelete(localPath);
+                                    }
+                                    return;
+                                }
+                            }
+                        } else if (bigFileLane.isEnabled()
+                                && System.currentTimeMillis() - startDownTime > bigFileLane.getTimeoutMs()) {
+                            log.error("BigFileOutOfTimeError,{},{},{}", msgId, startDownTime, seq);
+                            progress.flush();
+                            bigFileLane.markPending(corpid, msgId, seq);
+                            if (!downloadResumeStore.isEnabled()) {
+                                FileUtil.safeDelete(localPath);
                             }
                             return;
                         }
                     }
+
                 }
             }
-
         }
     }
 
@@ -10,8 +10,10 @@
 
 package com.ruoran.houyi;
 
+import com.ruoran.houyi.cluster.CorpLeaseManager;
 import com.ruoran.houyi.model.CorpInfo;
 import com.ruoran.houyi.mq.HouyiTcpRetryConsumer;
+import com.ruoran.houyi.pull.CorpPullerRegistry;
 import com.ruoran.houyi.repo.CorplistRepo;
 import com.ruoran.houyi.service.CorpConfigService;
 import com.ruoran.houyi.service.EventBus;
@@ -21,12 +23,8 @@ import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
 
 import jakarta.annotation.Resource;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author renlu
@@ -55,25 +53,28 @@ public class Start implements CommandLineRunner {
     @Resource
     EventBus eventBus;
 
-    Set<String> copySet = new CopyOnWriteArraySet<>();
+    @Resource
+    CorpPullerRegistry corpPullerRegistry;
+
+    @Resource
+    CorpLeaseManager corpLeaseManager;
 
     public void triggerCorpId(String corpId) throws Exception {
         Optional<CorpInfo> corpInfoOptional = corplistRepo.findFirstByCorpid(corpId);
         if(!corpInfoOptional.isPresent()){
             throw new Exception("启动corp任务失败");
         }
-        if(copySet.contains(corpId)){
+        if(corpPullerRegistry.contains(corpId)){
+            return;
+        }
+        if (corpLeaseManager.isEnabled() && !corpLeaseManager.holds(corpId)) {
+            // 多实例模式下由 CorpRebalancer 按租约启动，避免与归属实例重复拉取
+            log.warn("多实例模式下未持有企业租约，不在本实例启动: {}", corpId);
             return;
         }
         CorpInfo corpInfo = corpInfoOptional.get();
         updateCorpInfo(corpInfo);
-        Message t =new Message();
-        t.init(corpInfo.getCorpid(), corpInfo.getSecret(),corpInfo.getPrikey());
-        springContextUtils.autowireBean(t);
-        copySet.add(corpId);
-        eventBus.getCorpsStatus().put(corpInfo.getCorpid(),true);
-        t.start();
-
+        corpPullerRegistry.register(corpInfo);
     }
 
     /**
@@ -97,29 +98,23 @@ public class Start implements CommandLineRunner {
         
         // RocketMQ 5.0 TCP 重试消费者会自动初始化和启动（@PostConstruct）
 
+        if (corpLeaseManager.isEnabled()) {
+            log.info("=== 多实例分片已开启，企业拉取任务由 CorpRebalancer 按租约启动, instanceId:{} ===",
+                    corpLeaseManager.getInstanceId());
+            return;
+        }
+
         // 从数据库获取所有启用的企业（配置已在 CorpConfigService 启动时同步）
         List<CorpInfo> corpInfos = corplistRepo.findAllByStatus(1L);
         log.info("发现 {} 个启用的企业配置", corpInfos.size());
 
-        // 为每个企业创建消息处理线程
-        List<Message> messageList  = new ArrayList<>();
+        // 为每个企业注册拉取任务（共享调度线程池）
         for (CorpInfo corpInfo : corpInfos) {
             log.info("准备启动企业: {} ({})", corpInfo.getCorpname(), corpInfo.getCorpid());
-            
-            Message t = new Message();
-            t.init(corpInfo.getCorpid(), corpInfo.getSecret(), corpInfo.getPrikey());
-            springContextUtils.autowireBean(t);
-            copySet.add(corpInfo.getCorpid());
-            eventBus.getCorpsStatus().put(corpInfo.getCorpid(), true);
-            messageList.add(t);
-        }
-        
-        // 启动所有消息处理线程
-        for(Message message : messageList){
-            message.start();
+            corpPullerRegistry.register(corpInfo);
         }
 
-        log.info("=== 所有企业消息处理线程已启动 ===");
+        log.info("=== 所有企业拉取任务已启动 ===");
     }
 
 
@@ -2,8 +2,9 @@ package com.ruoran.houyi.app;
 
 import com.ruoran.houyi.DownloadThreadKeeper;
 import com.ruoran.houyi.OssThreadPool;
-import com.ruoran.houyi.Start;
+import com.ruoran.houyi.finance.FinanceSdkPool;
 import com.ruoran.houyi.model.CorpInfo;
+import com.ruoran.houyi.pull.CorpPullerRegistry;
 import com.ruoran.houyi.repo.CorplistRepo;
 import com.ruoran.houyi.service.EventBus;
 import io.micrometer.core.instrument.Gauge;
@@ -32,7 +33,7 @@ public class ThreadInfo implements MeterBinder {
     OssThreadPool ossThreadPool;
 
     @Resource
-    Start start;
+    CorpPullerRegistry corpPullerRegistry;
 
     @Resource
     EventBus eventBus;
@@ -40,13 +41,16 @@ public class ThreadInfo implements MeterBinder {
     @Resource
     CorplistRepo corplistRepo;
 
+    @Resource
+    FinanceSdkPool financeSdkPool;
+
     @Override
     public void bindTo(MeterRegistry meterRegistry) {
         Gauge.builder("dayu.workers.downloadThread", this::getDownloadThreadCount).baseUnit("个")
                 .description("下载线程数").register(meterRegistry);
         Gauge.builder("dayu.workers.ossThread", this::getOssThreadCount).baseUnit("个")
                 .description("oss上传线程数").register(meterRegistry);
-        Gauge.builder("dayu.workers.messageThread",this::getMessageThread).baseUnit("个").description("消息进程数").register(meterRegistry);
+        Gauge.builder("dayu.workers.messageThread",this::getMessageThread).baseUnit("个").description("拉取中的企业数").register(meterRegistry);
         Gauge.builder("dayu.counter.totalMsg",this::getTotalMsg).baseUnit("条").description("收到的消息数").register(meterRegistry);
         Gauge.builder("dayu.counter.totalDownload",this::getTotalDownload).baseUnit("个").description("总下载文件数").register(meterRegistry);
         Gauge.builder("dayu.counter.rocketRetryCounter",this::getRocketRetryCounter).baseUnit("个")
@@ -56,6 +60,8 @@ public class ThreadInfo implements MeterBinder {
         Gauge.builder("dayu.counter.threadExecuteTime",this::getThreadExecuteTime).baseUnit("秒")
                 .description("下载任务执行时间").register(meterRegistry);
         Gauge.builder("dayu.counter.rocketRetrySuccCounter",this::getRocketSucc).baseUnit("个").description("从 rocket 拿出来重试并成功的次数").register(meterRegistry);
+        Gauge.builder("dayu.counter.md5CacheHits",()-> eventBus.getMd5CacheHits()).baseUnit("次").description("md5 索引在进程内缓存或 Redis 命中的次数").register(meterRegistry);
+        Gauge.builder("dayu.counter.md5CacheWrites",()-> eventBus.getMd5CacheWrites()).baseUnit("次").description("写入 md5 索引 Redis 缓存的次数").register(meterRegistry);
 
 
         List<CorpInfo> corpInfos = corplistRepo.findAll();
@@ -72,6 +78,12 @@ public class ThreadInfo implements MeterBinder {
         Gauge.builder("dayu.counter.totalDownloadSucc",()-> eventBus.getTotalRealDount()) .baseUnit("个").description("真实下载成功的文件数").register(meterRegistry);
         Gauge.builder("dayu.counter.mixedItemDownloadSucc",()-> eventBus.getMixedTypeItemCounter()).baseUnit("个").description("mixed单体下载成功数").register(meterRegistry);
         Gauge.builder("dayu.counter.mixedMsgDownloadSucc",()-> eventBus.getMixedTypeRootCounter()).baseUnit("个").description("mixed消息下载成功数").register(meterRegistry);
+        Gauge.builder("dayu.finance.sdk.total",financeSdkPool::getTotalCount).baseUnit("个").description("当前存活的SDK句柄数").register(meterRegistry);
+        Gauge.builder("dayu.finance.sdk.idle",financeSdkPool::getIdleCount).baseUnit("个").description("空闲的SDK句柄数").register(meterRegistry);
+        Gauge.builder("dayu.finance.sdk.borrowed",financeSdkPool::getBorrowedCount).baseUnit("个").description("借出中的SDK句柄数").register(meterRegistry);
+        Gauge.builder("dayu.finance.sdk.created",financeSdkPool::getCreatedCount).baseUnit("个").description("累计创建的SDK句柄数").register(meterRegistry);
+        Gauge.builder("dayu.finance.sdk.destroyed",financeSdkPool::getDestroyedCount).baseUnit("个").description("累计销毁的SDK句柄数").register(meterRegistry);
+        Gauge.builder("dayu.finance.sdk.reinit",financeSdkPool::getReinitCount).baseUnit("次").description("因错误码重建SDK句柄的次数").register(meterRegistry);
     }
 
 
@@ -115,7 +127,7 @@ public class ThreadInfo implements MeterBinder {
         return factory.getCounter();
     }
     public Number getMessageThread(){
-        return start.getCopySet().size();
+        return corpPullerRegistry.size();
     }
     public Number getRocketRetryCounter(){
         return eventBus.getRocketRetryCounter().get();
@@ -0,0 +1,52 @@
+package com.ruoran.houyi.cluster;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 多实例部署配置
+ * 开启后企业按 Redis 租约分配到各实例，未开启时单实例拉取全部企业
+ *
+ * @author refactored
+ */
+@Configuration
+@ConfigurationProperties(prefix = "houyi.cluster")
+@Data
+public class ClusterConfig {
+
+    /**
+     * 是否开启多实例分片
+     */
+    private boolean enabled = false;
+
+    /**
+     * 实例标识，为空时使用 主机名:进程号:随机串
+     */
+    private String instanceId;
+
+    /**
+     * 企业租约有效期（毫秒），实例宕机后其企业最迟在该时间后被接管
+     */
+    private long leaseTtlMs = 30000;
+
+    /**
+     * 续约/心跳/重平衡间隔（毫秒），应明显小于 leaseTtlMs
+     */
+    private long renewIntervalMs = 10000;
+
+    /**
+     * Redis 不可用无法续约时，在租约到期前留出的余量（毫秒）：预计下一次续约时剩余有效期不足该值就停止拉取
+     */
+    private long leaseSafetyMs = 5000;
+
+    /**
+     * 实例心跳超时（毫秒），超时的实例不再参与分配
+     */
+    private long heartbeatTtlMs = 30000;
+
+    /**
+     * 移交企业时等待正在处理的页结束的最长时间（毫秒），等待期间保留租约；超过后不再等待，直接释放
+     */
+    private long handOverDrainMs = 60000;
+}
@@ -0,0 +1,223 @@
+package com.ruoran.houyi.cluster;
+
+import com.ruoran.houyi.constants.AppConstants;
+import com.ruoran.houyi.utils.JedisUtil;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.JedisPool;
+
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 企业租约
+ * 租约 key 为 houyi:lease:{corpId}，值为持有实例的 instanceId，Lua 脚本 SET NX PX 抢占、比较后续约/释放；
+ * 抢到租约的同一个脚本内 INCR houyi:fence:{corpId} 得到递增的 fencing token，写 last_seq_ 时带上 token，
+ * 旧持有者（GC 停顿、网络分区后恢复）的 token 较小，写入会被拒绝
+ *
+ * 实例心跳记录在 houyi:cluster:instances（ZSET，score 为心跳时间）
+ *
+ * @author refactored
+ */
+@Slf4j
+@Component
+public class CorpLeaseManager {
+
+    /**
+     * KEYS[1] 租约，KEYS[2] houyi:fence:；ARGV[1] instanceId，ARGV[2] 有效期毫秒
+     * 抢占和生成 fencing token 在一次调用内完成，返回新 token，抢不到时返回 0
+     */
+    private static final String ACQUIRE_SCRIPT =
+            "if redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then return redis.call('incr', KEYS[2]) "
+                    + "else return 0 end";
+
+    private static final String RENEW_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) else return 0 end";
+
+    private static final String RELEASE_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end";
+
+    /**
+     * KEYS[1] last_seq_，KEYS[2] last_seq_fence_，KEYS[3] houyi:fence:；ARGV[1] seq，ARGV[2] token
+     * 与最新发放的 token（houyi:fence:）比较：租约被接管后旧持有者立即写不进去，不必等新持有者第一次落盘
+     */
+    private static final String FENCED_SET_SCRIPT =
+            "local token = tonumber(ARGV[2]) "
+                    + "if tonumber(redis.call('get', KEYS[3]) or '0') > token then return 0 end "
+                    + "if tonumber(redis.call('get', KEYS[2]) or '0') > token then return 0 end "
+                    + "redis.call('set', KEYS[2], ARGV[2]) "
+                    + "redis.call('set', KEYS[1], ARGV[1]) "
+                    + "return 1";
+
+    @Resource
+    private JedisPool jedisPool;
+
+    @Resource
+    private ClusterConfig clusterConfig;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Getter
+    private String instanceId;
+
+    /**
+     * 本实例持有的租约：corpId -> fencing token
+     */
+    private final Map<String, Long> leases = new ConcurrentHashMap<>(16);
+
+    /**
+     * 最近一次确认租约有效的时间（发出抢占/续约请求前的时间）：corpId -> 毫秒时间戳
+     */
+    private final Map<String, Long> renewedAt = new ConcurrentHashMap<>(16);
+
+    @PostConstruct
+    public void init() {
+        instanceId = StringUtils.isNotEmpty(clusterConfig.getInstanceId())
+                ? clusterConfig.getInstanceId() : defaultInstanceId();
+        Gauge.builder("houyi_cluster_owned_corps", leases, Map::size)
+                .description("本实例持有租约的企业数")
+                .register(meterRegistry);
+        if (clusterConfig.isEnabled()) {
+            log.info("多实例分片已开启, instanceId:{}, leaseTtlMs:{}", instanceId, clusterConfig.getLeaseTtlMs());
+        }
+    }
+
+    public boolean isEnabled() {
+        return clusterConfig.isEnabled();
+    }
+
+    public boolean holds(String corpId) {
+        return leases.containsKey(corpId);
+    }
+
+    public Set<String> getHeldCorps() {
+        return Collections.unmodifiableSet(leases.keySet());
+    }
+
+    /**
+     * 本实例持有的 fencing token，未持有租约时返回 null
+     */
+    public Long fencingToken(String corpId) {
+        return leases.get(corpId);
+    }
+
+    /**
+     * 尝试抢占租约，成功后生成新的 fencing token
+     */
+    public boolean tryAcquire(String corpId) {
+        if (holds(corpId)) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        Optional<Object> result = JedisUtil.execute(jedisPool, jedis -> jedis.eval(ACQUIRE_SCRIPT,
+                List.of(leaseKey(corpId), AppConstants.RedisKey.CORP_FENCE_PREFIX + corpId),
+                List.of(instanceId, String.valueOf(clusterConfig.getLeaseTtlMs()))));
+        if (result.isEmpty() || !(result.get() instanceof Long token) || token <= 0) {
+            return false;
+        }
+        renewedAt.put(corpId, now);
+        leases.put(corpId, token);
+        log.info("获得企业租约, corpId:{}, token:{}", corpId, token);
+        return true;
+    }
+
+    /**
+     * 续约，返回 false 表示租约已丢失（已过期或被其他实例抢占），调用方应立即停止该企业的拉取
+     * Redis 暂时不可用时保留租约，但到下一次续约时已接近有效期（留出 leaseSafetyMs）就视为丢失：
+     * 有效期过后其他实例可能已经接管，继续拉取推送会重复，fencing token 只保护检查点写入
+     */
+    public boolean renew(String corpId) {
+        if (!holds(corpId)) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        Optional<Object> result = JedisUtil.execute(jedisPool, jedis -> jedis.eval(RENEW_SCRIPT,
+                List.of(leaseKey(corpId)), List.of(instanceId, String.valueOf(clusterConfig.getLeaseTtlMs()))));
+        if (result.isPresent() && Long.valueOf(1L).equals(result.get())) {
+            renewedAt.put(corpId, now);
+            return true;
+        }
+        if (result.isEmpty()) {
+            long last = renewedAt.getOrDefault(corpId, 0L);
+            if (now - last + clusterConfig.getRenewIntervalMs()
+                    < clusterConfig.getLeaseTtlMs() - clusterConfig.getLeaseSafetyMs()) {
+                return true;
+            }
+            log.warn("Redis 不可用, 租约即将过期, 停止拉取, corpId:{}, 上次续约:{}ms前", corpId, now - last);
+        }
+        leases.remove(corpId);
+        renewedAt.remove(corpId);
+        meterRegistry.counter("houyi_cluster_lease_lost", Tags.of("corp", corpId)).increment();
+        log.warn("企业租约已丢失, corpId:{}", corpId);
+        return false;
+    }
+
+    public void release(String corpId) {
+        leases.remove(corpId);
+        renewedAt.remove(corpId);
+        JedisUtil.execute(jedisPool, jedis -> jedis.eval(RELEASE_SCRIPT,
+                List.of(leaseKey(corpId)), List.of(instanceId)));
+        log.info("释放企业租约, corpId:{}", corpId);
+    }
+
+    /**
+     * 带 fencing token 写 seq 检查点
+     *
+     * @return 是否写入；token 落后于最新发放的 token（租约已被接管）时返回 false
+     */
+    public boolean fencedSetLastSeq(String corpId, long seq, long token) {
+        Optional<Object> result = JedisUtil.execute(jedisPool, jedis -> jedis.eval(FENCED_SET_SCRIPT,
+                List.of(AppConstants.RedisKey.LAST_SEQ_PREFIX + corpId, AppConstants.RedisKey.LAST_SEQ_FENCE_PREFIX + corpId,
+                        AppConstants.RedisKey.CORP_FENCE_PREFIX + corpId),
+                List.of(String.valueOf(seq), String.valueOf(token))));
+        if (result.isPresent() && !Long.valueOf(1L).equals(result.get())) {
+            log.warn("fencing token 已过期，拒绝写入检查点, corpId:{}, seq:{}, token:{}", corpId, seq, token);
+            return false;
+        }
+        return result.isPresent();
+    }
+
+    /**
+     * 上报心跳并返回存活的实例列表（按 instanceId 排序）
+     */
+    public List<String> heartbeat() {
+        long now = System.currentTimeMillis();
+        return JedisUtil.execute(jedisPool, jedis -> {
+            jedis.zadd(AppConstants.RedisKey.CLUSTER_INSTANCES, now, instanceId);
+            jedis.zremrangeByScore(AppConstants.RedisKey.CLUSTER_INSTANCES, 0, now - clusterConfig.getHeartbeatTtlMs());
+            List<String> instances = new ArrayList<>(jedis.zrange(AppConstants.RedisKey.CLUSTER_INSTANCES, 0, -1));
+            Collections.sort(instances);
+            return instances;
+        }).orElse(Collections.emptyList());
+    }
+
+    /**
+     * 下线：从实例列表移除，其他实例下一轮重平衡即可接管
+     */
+    public void leave() {
+        JedisUtil.executeVoid(jedisPool, jedis -> jedis.zrem(AppConstants.RedisKey.CLUSTER_INSTANCES, instanceId));
+    }
+
+    private String leaseKey(String corpId) {
+        return AppConstants.RedisKey.CORP_LEASE_PREFIX + corpId;
+    }
+
+    private static String defaultInstanceId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "unknown";
+        }
+        return host + ":" + ProcessHandle.current().pid() + ":" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
@@ -0,0 +1,174 @@
+package com.ruoran.houyi.cluster;
+
+import com.ruoran.houyi.model.CorpInfo;
+import com.ruoran.houyi.pull.CorpPullerRegistry;
+import com.ruoran.houyi.pull.SeqCheckpointManager;
+import com.ruoran.houyi.repo.CorplistRepo;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 企业分片重平衡
+ * 每轮：上报心跳 -> 续约已持有的租约 -> 按存活实例用 rendezvous hash 计算每个企业的归属实例，
+ * 归属本实例的企业尝试抢租约并启动拉取，归属其他实例的企业落盘检查点后释放租约；
+ * 实例加入/退出时只有少量企业换主，宕机实例的企业在租约过期后由新的归属实例接管
+ *
+ * @author refactored
+ */
+@Slf4j
+@Component
+public class CorpRebalancer {
+
+    @Resource
+    private ClusterConfig clusterConfig;
+
+    @Resource
+    private CorpLeaseManager corpLeaseManager;
+
+    @Resource
+    private CorpPullerRegistry corpPullerRegistry;
+
+    @Resource
+    private SeqCheckpointManager seqCheckpointManager;
+
+    @Resource
+    private CorplistRepo corplistRepo;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private final AtomicInteger liveInstances = new AtomicInteger(0);
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("houyi_cluster_instances", liveInstances, AtomicInteger::get)
+                .description("存活的 houyi 实例数")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${houyi.cluster.renew-interval-ms:10000}")
+    public synchronized void rebalance() {
+        if (!clusterConfig.isEnabled()) {
+            return;
+        }
+        // Redis 不可用时也要续约：接近租约有效期仍续不上就停止拉取
+        for (String corpId : new ArrayList<>(corpLeaseManager.getHeldCorps())) {
+            if (!corpLeaseManager.renew(corpId)) {
+                stopPulling(corpId);
+            }
+        }
+
+        List<String> instances = corpLeaseManager.heartbeat();
+        if (instances.isEmpty()) {
+            // Redis 不可用，不重新分配
+            return;
+        }
+        liveInstances.set(instances.size());
+
+        List<CorpInfo> corps = corplistRepo.findAllByStatus(1L);
+        Set<String> enabled = new HashSet<>();
+        for (CorpInfo corpInfo : corps) {
+            String corpId = corpInfo.getCorpid();
+            enabled.add(corpId);
+            boolean mine = corpLeaseManager.getInstanceId().equals(owner(corpId, instances));
+            boolean held = corpLeaseManager.holds(corpId);
+            if (mine && !held && corpLeaseManager.tryAcquire(corpId)) {
+                // 丢弃可能残留的旧水位，从 Redis 重新加载
+                seqCheckpointManager.discard(corpId);
+                corpPullerRegistry.register(corpInfo);
+            } else if (mine && held && corpPullerRegistry.isDraining(corpId)
+                    && corpPullerRegistry.drain(corpId, 0, clusterConfig.getHandOverDrainMs())) {
+                // 移交中又归属回本实例，租约和水位都还在，处理完当前页后直接恢复拉取
+                corpPullerRegistry.register(corpInfo);
+            } else if (!mine && held) {
+                log.info("企业归属变更，移交租约, corpId:{}", corpId);
+                handOver(corpId, 0);
+            }
+        }
+        // 已停用的企业
+        for (String corpId : new ArrayList<>(corpLeaseManager.getHeldCorps())) {
+            if (!enabled.contains(corpId)) {
+                handOver(corpId, 0);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!clusterConfig.isEnabled()) {
+            return;
+        }
+        // 先停掉全部企业，再逐个等待，总等待时间不随企业数累加
+        for (String corpId : new ArrayList<>(corpLeaseManager.getHeldCorps())) {
+            handOver(corpId, 0);
+        }
+        for (String corpId : new ArrayList<>(corpLeaseManager.getHeldCorps())) {
+            handOver(corpId, clusterConfig.getHandOverDrainMs());
+        }
+        corpLeaseManager.leave();
+    }
+
+    /**
+     * 停止拉取，等正在处理的页结束后带 token 落盘检查点、释放租约；
+     * 页还没处理完时保留租约（继续续约），下一轮再移交
+     */
+    private void handOver(String corpId, long waitMs) {
+        if (!corpPullerRegistry.drain(corpId, waitMs, clusterConfig.getHandOverDrainMs())) {
+            log.info("企业还有页在处理, 下一轮再移交, corpId:{}", corpId);
+            return;
+        }
+        seqCheckpointManager.release(corpId);
+        corpLeaseManager.release(corpId);
+    }
+
+    /**
+     * 租约已丢失：停止拉取，丢弃本地进度（检查点写入已被 fencing token 拒绝）
+     */
+    private void stopPulling(String corpId) {
+        corpPullerRegistry.unregister(corpId);
+        seqCheckpointManager.discard(corpId);
+    }
+
+    /**
+     * rendezvous hash：分数最高的实例为归属实例
+     */
+    static String owner(String corpId, List<String> instances) {
+        String owner = null;
+        long best = Long.MIN_VALUE;
+        for (String instance : instances) {
+            long score = mix(hash(instance + "#" + corpId));
+            if (owner == null || score > best) {
+                best = score;
+                owner = instance;
+            }
+        }
+        return owner;
+    }
+
+    private static long hash(String value) {
+        long h = 1125899906842597L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h = 31 * h + b;
+        }
+        return h;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
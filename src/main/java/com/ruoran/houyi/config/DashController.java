@@ -6,6 +6,7 @@ import com.ruoran.houyi.model.CorpInfo;
 import com.ruoran.houyi.model.OriginalMsg;
 import com.ruoran.houyi.pojo.CorpInfoData;
 import com.ruoran.houyi.pojo.YapiResult;
+import com.ruoran.houyi.pull.CorpPullerRegistry;
 import com.ruoran.houyi.repo.CorplistRepo;
 import com.ruoran.houyi.repo.OriginalMsgRepo;
 import com.ruoran.houyi.service.CorpInfoApi;
@@ -37,6 +38,9 @@ public class DashController {
     @Resource
     Start start;
 
+    @Resource
+    CorpPullerRegistry corpPullerRegistry;
+
     @GetMapping("/api/open/pull/corp")
     public Object pullNewCorp(String corpId) {
         Optional<CorpInfo> corpInfoOptional = corplistRepo.findFirstByCorpid(corpId);
@@ -78,6 +82,11 @@ public class DashController {
         return corpId;
     }
 
+    @GetMapping("/api/open/pullers")
+    public Object pullers() {
+        return corpPullerRegistry.getStates();
+    }
+
     @GetMapping("/api/open/single/msg")
     public Object downSingle(String corpId,String msgId,long seq){
         Optional<CorpInfo> corpInfoOptional = corplistRepo.findFirstByCorpid(corpId);
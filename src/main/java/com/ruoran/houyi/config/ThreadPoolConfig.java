@@ -5,6 +5,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 import java.util.concurrent.ThreadPoolExecutor;
 
@@ -35,6 +36,51 @@ public class ThreadPoolConfig {
     @Value("${thread-pool.oss.queue-capacity:10000}")
     private int ossQueueCapacity;
 
+    @Value("${thread-pool.chat-fetch.core-size:4}")
+    private int chatFetchCoreSize;
+
+    @Value("${thread-pool.chat-fetch.max-size:16}")
+    private int chatFetchMaxSize;
+
+    @Value("${thread-pool.chat-fetch.queue-capacity:200}")
+    private int chatFetchQueueCapacity;
+
+    @Value("${thread-pool.decrypt.core-size:8}")
+    private int decryptCoreSize;
+
+    @Value("${thread-pool.decrypt.max-size:32}")
+    private int decryptMaxSize;
+
+    @Value("${thread-pool.decrypt.queue-capacity:1000}")
+    private int decryptQueueCapacity;
+
+    @Value("${thread-pool.pull.size:8}")
+    private int pullSchedulerSize;
+
+    @Value("${thread-pool.replay.size:2}")
+    private int replaySize;
+
+    @Value("${thread-pool.replay.queue-capacity:20}")
+    private int replayQueueCapacity;
+
+    @Value("${thread-pool.big-file.size:2}")
+    private int bigFileSize;
+
+    @Value("${thread-pool.big-file.queue-capacity:1000}")
+    private int bigFileQueueCapacity;
+
+    @Value("${thread-pool.single-flight.size:2}")
+    private int singleFlightSize;
+
+    @Value("${thread-pool.mixed-item.core-size:8}")
+    private int mixedItemCoreSize;
+
+    @Value("${thread-pool.mixed-item.max-size:64}")
+    private int mixedItemMaxSize;
+
+    @Value("${thread-pool.mixed-item.queue-capacity:0}")
+    private int mixedItemQueueCapacity;
+
     /**
      * 下载线程池
      */
@@ -76,5 +122,139 @@ public class ThreadPoolConfig {
             ossCoreSize, ossMaxSize, ossQueueCapacity);
         return executor;
     }
-}
 
+    /**
+     * 会话数据预取线程池（所有企业共享，执行 GetChatData）
+     * 由 FairPullScheduler 派发，队列满时直接拒绝并由调度器重新排队
+     */
+    @Bean("chatFetchExecutor")
+    public ThreadPoolTaskExecutor chatFetchExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(chatFetchCoreSize);
+        executor.setMaxPoolSize(chatFetchMaxSize);
+        executor.setQueueCapacity(chatFetchQueueCapacity);
+        executor.setKeepAliveSeconds(360);
+        executor.setThreadNamePrefix("chat-fetch-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        executor.initialize();
+
+        log.info("会话预取线程池初始化完成: core={}, max={}, queue={}",
+            chatFetchCoreSize, chatFetchMaxSize, chatFetchQueueCapacity);
+        return executor;
+    }
+
+    /**
+     * 会话解密线程池（所有开启并行解密的企业共享）
+     */
+    @Bean("decryptExecutor")
+    public ThreadPoolTaskExecutor decryptExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(decryptCoreSize);
+        executor.setMaxPoolSize(decryptMaxSize);
+        executor.setQueueCapacity(decryptQueueCapacity);
+        executor.setKeepAliveSeconds(360);
+        executor.setThreadNamePrefix("decrypt-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(60);
+        executor.initialize();
+
+        log.info("解密线程池初始化完成: core={}, max={}, queue={}",
+            decryptCoreSize, decryptMaxSize, decryptQueueCapacity);
+        return executor;
+    }
+
+    /**
+     * 企业拉取任务调度线程池（所有企业共享，线程数不随企业数增长），FairPullScheduler 的派发也在这里执行
+     */
+    @Bean("pullScheduler")
+    public ThreadPoolTaskScheduler pullScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(pullSchedulerSize);
+        scheduler.setThreadNamePrefix("pull-");
+        scheduler.setRemoveOnCancelPolicy(true);
+        scheduler.setWaitForTasksToCompleteOnShutdown(true);
+        scheduler.setAwaitTerminationSeconds(60);
+        scheduler.initialize();
+
+        log.info("拉取调度线程池初始化完成: size={}", pullSchedulerSize);
+        return scheduler;
+    }
+
+    /**
+     * 回放任务线程池（一个任务占一个线程，与在线拉取隔离）
+     */
+    @Bean("replayExecutor")
+    public ThreadPoolTaskExecutor replayExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(replaySize);
+        executor.setMaxPoolSize(replaySize);
+        executor.setQueueCapacity(replayQueueCapacity);
+        executor.setThreadNamePrefix("replay-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        executor.initialize();
+
+        log.info("回放线程池初始化完成: size={}, queue={}", replaySize, replayQueueCapacity);
+        return executor;
+    }
+
+    /**
+     * mixed/chatrecord 消息内附件的并发下载线程池
+     * 与下载线程池分开，避免下载任务等待同池中的子任务；不排队，线程用满时拒绝，
+     * 由 MixedHandler 记录 houyi_mixed_item_rejected 并减少该消息的并发数
+     */
+    @Bean("mixedItemExecutor")
+    public ThreadPoolTaskExecutor mixedItemExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(mixedItemCoreSize);
+        executor.setMaxPoolSize(mixedItemMaxSize);
+        executor.setQueueCapacity(mixedItemQueueCapacity);
+        executor.setKeepAliveSeconds(360);
+        executor.setThreadNamePrefix("mixed-item-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(60);
+        executor.initialize();
+
+        log.info("mixed附件下载线程池初始化完成: core={}, max={}, queue={}",
+            mixedItemCoreSize, mixedItemMaxSize, mixedItemQueueCapacity);
+        return executor;
+    }
+
+    /**
+     * 合并下载调度线程池：轮询其他实例的下载结果、执行等待者的回调（入库、推送），下载线程不等待
+     */
+    @Bean("singleFlightScheduler")
+    public ThreadPoolTaskScheduler singleFlightScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(singleFlightSize);
+        scheduler.setThreadNamePrefix("single-flight-");
+        scheduler.setRemoveOnCancelPolicy(true);
+        scheduler.setWaitForTasksToCompleteOnShutdown(true);
+        scheduler.setAwaitTerminationSeconds(60);
+        scheduler.initialize();
+
+        log.info("合并下载调度线程池初始化完成: size={}", singleFlightSize);
+        return scheduler;
+    }
+
+    /**
+     * 大文件下载线程池（与普通下载隔离，小文件不会排在大文件后面）
+     */
+    @Bean("bigFileExecutor")
+    public ThreadPoolTaskExecutor bigFileExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(bigFileSize);
+        executor.setMaxPoolSize(bigFileSize);
+        executor.setQueueCapacity(bigFileQueueCapacity);
+        executor.setThreadNamePrefix("big-file-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        executor.initialize();
+
+        log.info("大文件下载线程池初始化完成: size={}, queue={}", bigFileSize, bigFileQueueCapacity);
+        return executor;
+    }
+}
@@ -55,10 +55,81 @@ public class WeWorkCorpProperties {
          */
         private String privateKeyFile;
 
+        /**
+         * 按版本配置的私钥（企业后台更换密钥后新旧版本并存），
+         * 解密时按记录的 publickey_ver 选择；找不到对应版本时使用 privateKey/privateKeyFile
+         */
+        private List<VersionedPrivateKey> privateKeys = new ArrayList<>();
+
         /**
          * 是否启用 (默认启用)
          */
         private Boolean enabled = true;
+
+        /**
+         * 解密/入库/推送的并行度，1 表示逐条串行处理 (默认 1)
+         */
+        private int decryptParallelism = 1;
+
+        /**
+         * 并行处理时每批的记录数，一批全部完成后再处理下一批 (默认 50)
+         */
+        private int decryptBatchSize = 50;
+
+        /**
+         * 每次 GetChatData 拉取的条数，不配置时使用 houyi.pull.page-size
+         */
+        private Integer pageSize;
+
+        /**
+         * GetChatData 超时时间（秒），不配置时使用 houyi.pull.timeout-sec
+         */
+        private Integer pullTimeoutSec;
+
+        /**
+         * 是否自动调整页大小，不配置时使用 houyi.pull.adaptive-page-size
+         */
+        private Boolean adaptivePageSize;
+
+        /**
+         * 自适应模式下单页拉取的目标耗时（毫秒），不配置时使用 houyi.pull.page-latency-budget-ms
+         */
+        private Long pageLatencyBudgetMs;
+
+        /**
+         * 同时下载的媒体文件数上限，不配置时使用 houyi.download.fair.max-in-flight-per-corp
+         */
+        private Integer downloadMaxInFlight;
+
+        /**
+         * 排队等待下载的消息数上限，不配置时使用 houyi.download.fair.max-queued-per-corp
+         */
+        private Integer downloadMaxQueued;
+
+        /**
+         * 下载带宽权重，按权重分配每轮的下载额度 (默认 1)
+         */
+        private int downloadWeight = 1;
     }
-}
 
+    /**
+     * 指定版本的会话存档私钥
+     */
+    @Data
+    public static class VersionedPrivateKey {
+        /**
+         * 企业后台显示的公钥版本号（即 chatdata 中的 publickey_ver）
+         */
+        private Integer version;
+
+        /**
+         * 私钥内容
+         */
+        private String privateKey;
+
+        /**
+         * 私钥文件路径（同 privateKeyFile），同时配置时优先使用 privateKey
+         */
+        private String privateKeyFile;
+    }
+}
@@ -25,7 +25,15 @@ public class AppConstants {
     public static class RedisKey {
         public static final String MD5_PREFIX = "md5sum-";
         public static final String LAST_SEQ_PREFIX = "last_seq_";
+        public static final String LAST_SEQ_FENCE_PREFIX = "last_seq_fence_";
+        public static final String CORP_LEASE_PREFIX = "houyi:lease:";
+        public static final String CORP_FENCE_PREFIX = "houyi:fence:";
+        public static final String CLUSTER_INSTANCES = "houyi:cluster:instances";
         public static final String NO_MD5SUM_FILE_PREFIX = "no_md5sum_file_";
+        public static final String DOWNLOAD_RESUME_PREFIX = "houyi:resume:";
+        public static final String DOWNLOAD_RESUME_FILES_PREFIX = "houyi:resume:files:";
+        public static final String SINGLE_FLIGHT_PREFIX = "houyi:single-flight:";
+        public static final String SINGLE_FLIGHT_RESULT_PREFIX = "houyi:single-flight:result:";
     }
 
     /**
@@ -33,7 +41,6 @@ public class AppConstants {
      */
     public static class RedisExpire {
         public static final int MD5_CACHE_EXPIRE = 60 * 60 * 24 * 3; // 3天
-        public static final int DOWNLOADING_FLAG_EXPIRE = 60 * 5; // 5分钟
         public static final int NO_MD5SUM_FILE_EXPIRE = 7200; // 2小时
     }
 
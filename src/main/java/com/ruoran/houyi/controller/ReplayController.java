@@ -0,0 +1,46 @@
+package com.ruoran.houyi.controller;
+
+import com.ruoran.houyi.replay.ReplayRequest;
+import com.ruoran.houyi.replay.ReplayService;
+import org.springframework.web.bind.annotation.*;
+
+import jakarta.annotation.Resource;
+
+/**
+ * 回放（补数）接口
+ *
+ * @author refactored
+ */
+@RestController
+public class ReplayController {
+
+    @Resource
+    ReplayService replayService;
+
+    /**
+     * 提交回放任务，返回任务进度对象（含 jobId）
+     */
+    @PostMapping("/api/open/replay")
+    public Object submit(@RequestBody ReplayRequest request) {
+        try {
+            return replayService.submit(request);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return e.getMessage();
+        }
+    }
+
+    @GetMapping("/api/open/replay")
+    public Object jobs() {
+        return replayService.getJobs();
+    }
+
+    @GetMapping("/api/open/replay/{jobId}")
+    public Object job(@PathVariable String jobId) {
+        return replayService.getJob(jobId).map(Object.class::cast).orElse("job not exists:" + jobId);
+    }
+
+    @PostMapping("/api/open/replay/{jobId}/cancel")
+    public Object cancel(@PathVariable String jobId) {
+        return replayService.cancel(jobId);
+    }
+}
@@ -0,0 +1,134 @@
+package com.ruoran.houyi.crypto;
+
+import com.ruoran.houyi.service.CorpConfigService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 会话存档 encrypt_random_key 解密
+ * 每个企业的私钥只解析一次并缓存：按版本配置的私钥（wework.corps[].private-keys）按 publickey_ver 直接命中，
+ * 未配置该版本时使用企业的默认私钥（默认私钥内容变化时重新解析）；
+ * Cipher 按线程复用，解密耗时记录在 houyi_decrypt_cost{stage=rsa}，
+ * 版本命中情况记录在 houyi_decrypt_key{result=hit|miss}
+ *
+ * @author refactored
+ */
+@Slf4j
+@Component
+public class ChatKeyDecryptor {
+
+    private static final ThreadLocal<Cipher> CIPHER = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("RSA");
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private CorpConfigService corpConfigService;
+
+    private final Map<String, CorpKeys> keys = new ConcurrentHashMap<>(16);
+
+    /**
+     * RSA 解密耗时 Timer：corpId -> Timer，每条消息都要记录，不在热路径上重复 register
+     */
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>(16);
+
+    /**
+     * @param publicKeyVer  记录的 publickey_ver
+     * @param defaultKeyPem 企业默认私钥（PEM，PKCS#1 或 PKCS#8），找不到对应版本时使用
+     * @return 解密后的随机密钥，交给 Finance.DecryptData 使用
+     */
+    public String decrypt(String corpId, int publicKeyVer, String defaultKeyPem, String encryptRandomKey)
+            throws GeneralSecurityException {
+        long start = System.nanoTime();
+        PrivateKey privateKey = privateKey(corpId, publicKeyVer, defaultKeyPem);
+        byte[] plain = RsaKeys.decrypt(CIPHER.get(), privateKey, Base64.getMimeDecoder().decode(encryptRandomKey));
+        timer(corpId).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return new String(plain, StandardCharsets.UTF_8);
+    }
+
+    private PrivateKey privateKey(String corpId, int publicKeyVer, String defaultKeyPem) throws GeneralSecurityException {
+        CorpKeys corpKeys = keys.get(corpId);
+        if (corpKeys == null) {
+            corpKeys = loadVersions(corpId);
+            keys.put(corpId, corpKeys);
+        }
+        PrivateKey versioned = corpKeys.byVersion.get(publicKeyVer);
+        if (versioned != null) {
+            counter(corpId, publicKeyVer, "hit");
+            return versioned;
+        }
+        if (!corpKeys.byVersion.isEmpty()) {
+            // 只有配置了版本私钥时才算未命中，否则所有记录都走默认私钥
+            counter(corpId, publicKeyVer, "miss");
+        }
+        CachedKey cached = corpKeys.defaultKey;
+        if (cached != null && cached.pem.equals(defaultKeyPem)) {
+            return cached.key;
+        }
+        PrivateKey key = RsaKeys.parsePrivateKey(defaultKeyPem);
+        corpKeys.defaultKey = new CachedKey(defaultKeyPem, key);
+        log.info("已加载企业默认私钥, corpId:{}, 格式:{}", corpId, RsaKeys.detectFormat(RsaKeys.decodePem(defaultKeyPem)));
+        return key;
+    }
+
+    private CorpKeys loadVersions(String corpId) throws GeneralSecurityException {
+        CorpKeys corpKeys = new CorpKeys();
+        for (Map.Entry<Integer, String> entry : corpConfigService.getPrivateKeys(corpId).entrySet()) {
+            corpKeys.byVersion.put(entry.getKey(), RsaKeys.parsePrivateKey(entry.getValue()));
+            log.info("已加载企业私钥, corpId:{}, version:{}", corpId, entry.getKey());
+        }
+        return corpKeys;
+    }
+
+    private void counter(String corpId, int publicKeyVer, String result) {
+        meterRegistry.counter("houyi_decrypt_key",
+                Tags.of("corp", corpId, "version", String.valueOf(publicKeyVer), "result", result)).increment();
+    }
+
+    private Timer timer(String corpId) {
+        return timers.computeIfAbsent(corpId, id -> Timer.builder("houyi_decrypt_cost")
+                .tags(Tags.of("corp", id, "stage", "rsa"))
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+
+    private static class CorpKeys {
+        /**
+         * 加载后只读
+         */
+        final Map<Integer, PrivateKey> byVersion = new HashMap<>(4);
+        volatile CachedKey defaultKey;
+    }
+
+    private static class CachedKey {
+        final String pem;
+        final PrivateKey key;
+
+        CachedKey(String pem, PrivateKey key) {
+            this.pem = pem;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.ruoran.houyi.crypto;
+
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.pkcs.RSAPrivateKey;
+
+import javax.crypto.Cipher;
+import java.io.ByteArrayOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.interfaces.RSAKey;
+import java.security.spec.KeySpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.RSAPrivateCrtKeySpec;
+import java.util.Base64;
+
+/**
+ * RSA 私钥解析与解密
+ * 企业后台配置的私钥可能是 PKCS#1（BEGIN RSA PRIVATE KEY）或 PKCS#8（BEGIN PRIVATE KEY），
+ * 解析时按 ASN.1 结构判断格式：PKCS#8 的第二个元素是算法标识（SEQUENCE），PKCS#1 的第二个元素是模数（INTEGER）
+ *
+ * @author refactored
+ */
+public class RsaKeys {
+
+    public enum Format {
+        PKCS1,
+        PKCS8
+    }
+
+    private RsaKeys() {
+    }
+
+    /**
+     * 去掉 PEM 头尾和空白后 base64 解码
+     */
+    public static byte[] decodePem(String pem) {
+        String body = pem.replaceAll("-----(BEGIN|END) (RSA )?PRIVATE KEY-----", "")
+                .replace("\\n", "")
+                .replaceAll("\\s+", "");
+        return Base64.getDecoder().decode(body);
+    }
+
+    public static Format detectFormat(byte[] der) {
+        ASN1Sequence sequence = ASN1Sequence.getInstance(der);
+        return sequence.size() > 1 && sequence.getObjectAt(1) instanceof ASN1Sequence ? Format.PKCS8 : Format.PKCS1;
+    }
+
+    public static PrivateKey parsePrivateKey(String pem) throws GeneralSecurityException {
+        byte[] der = decodePem(pem);
+        KeySpec keySpec;
+        if (detectFormat(der) == Format.PKCS8) {
+            keySpec = new PKCS8EncodedKeySpec(der);
+        } else {
+            RSAPrivateKey key = RSAPrivateKey.getInstance(ASN1Sequence.getInstance(der));
+            keySpec = new RSAPrivateCrtKeySpec(key.getModulus(), key.getPublicExponent(), key.getPrivateExponent(),
+                    key.getPrime1(), key.getPrime2(), key.getExponent1(), key.getExponent2(), key.getCoefficient());
+        }
+        return KeyFactory.getInstance("RSA").generatePrivate(keySpec);
+    }
+
+    /**
+     * 按密钥长度分段解密（密文超过一个块时逐块 doFinal）
+     *
+     * @param cipher 调用方线程独占的 RSA Cipher
+     */
+    public static byte[] decrypt(Cipher cipher, PrivateKey privateKey, byte[] data) throws GeneralSecurityException {
+        cipher.init(Cipher.DECRYPT_MODE, privateKey);
+        int blockSize = privateKey instanceof RSAKey
+                ? (((RSAKey) privateKey).getModulus().bitLength() + 7) / 8 : data.length;
+        if (data.length <= blockSize) {
+            return cipher.doFinal(data);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+        for (int offset = 0; offset < data.length; offset += blockSize) {
+            byte[] block = cipher.doFinal(data, offset, Math.min(blockSize, data.length - offset));
+            out.write(block, 0, block.length);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,165 @@
+package com.ruoran.houyi.downloader;
+
+import com.ruoran.houyi.MsgHandler;
+import com.ruoran.houyi.model.OriginalMsg;
+import com.ruoran.houyi.repo.OriginalMsgRepo;
+import com.ruoran.houyi.utils.TokenBucket;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONObject;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.io.InterruptedIOException;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大文件下载通道
+ * 消息中 filesize 超过阈值的文件直接进入，普通下载中途超时的文件由下载线程转入（断点续传接着下）；
+ * 独立线程池、独立超时、所有大文件共享一个带宽令牌桶
+ *
+ * 直接提交时通道队列满会拒绝（RejectedExecutionException），由调用方按下载队列满处理；
+ * 下载中途转入时队列满或通道内仍超时，才回退为 push_at=-999 标记，由 ReloadNotPushMsg.bigFile 定时补偿
+ *
+ * @author refactored
+ */
+@Slf4j
+@Component
+public class BigFileLane {
+
+    public static final long PENDING_PUSH_AT = -999L;
+
+    @Resource
+    private BigFileLaneConfig bigFileLaneConfig;
+
+    @Resource(name = "bigFileExecutor")
+    private ThreadPoolTaskExecutor bigFileExecutor;
+
+    @Resource
+    private OriginalMsgRepo originalMsgRepo;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private TokenBucket bandwidth;
+
+    private Timer waitTimer;
+
+    @PostConstruct
+    public void init() {
+        bandwidth = new TokenBucket(bigFileLaneConfig.getBytesPerSecond(), bigFileLaneConfig.getBytesPerSecond());
+        waitTimer = Timer.builder("houyi_big_file_wait")
+                .description("大文件从入队到开始下载的等待时间")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        Gauge.builder("houyi_big_file_queue_depth", bigFileExecutor,
+                        executor -> executor.getThreadPoolExecutor().getQueue().size())
+                .description("大文件通道排队数")
+                .register(meterRegistry);
+        Gauge.builder("houyi_big_file_active", bigFileExecutor, ThreadPoolTaskExecutor::getActiveCount)
+                .description("大文件通道下载中的文件数")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return bigFileLaneConfig.isEnabled();
+    }
+
+    public long getTimeoutMs() {
+        return bigFileLaneConfig.getTimeoutMs();
+    }
+
+    /**
+     * 是否走大文件通道：已标记 big_file（转入或补偿的消息）或 filesize 不小于阈值
+     */
+    public boolean accept(JSONObject object) {
+        return isEnabled() && (object.optBoolean("big_file", false)
+                || MsgHandler.mediaFileSize(object) >= bigFileLaneConfig.getThresholdBytes());
+    }
+
+    /**
+     * 通道是否还有空闲的排队位置
+     */
+    public boolean hasCapacity() {
+        return remainingCapacity() > 0;
+    }
+
+    /**
+     * 通道排队数
+     */
+    public int queueSize() {
+        return bigFileExecutor.getThreadPoolExecutor().getQueue().size();
+    }
+
+    /**
+     * 通道剩余排队位置
+     */
+    public int remainingCapacity() {
+        return bigFileExecutor.getThreadPoolExecutor().getQueue().remainingCapacity();
+    }
+
+    /**
+     * 提交大文件下载，队列满时抛出 RejectedExecutionException
+     */
+    public void execute(String corpId, String msgId, long seq, Runnable task) {
+        long enqueueNanos = System.nanoTime();
+        try {
+            bigFileExecutor.execute(() -> {
+                waitTimer.record(System.nanoTime() - enqueueNanos, TimeUnit.NANOSECONDS);
+                task.run();
+            });
+        } catch (RejectedExecutionException e) {
+            log.error("大文件通道已满, corpId:{}, msgId:{}, seq:{}", corpId, msgId, seq);
+            meterRegistry.counter("houyi_big_file_rejected").increment();
+            throw e;
+        }
+    }
+
+    /**
+     * 普通下载超时后转入通道，此时 seq 已提交，队列满时标记 push_at=-999 交给定时补偿
+     *
+     * @return 是否已进入通道
+     */
+    public boolean handOff(String corpId, String msgId, long seq, Runnable task) {
+        try {
+            execute(corpId, msgId, seq, task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            markPending(corpId, msgId, seq);
+            return false;
+        }
+    }
+
+    /**
+     * 按带宽预算限速，每写入一个分片调用一次
+     */
+    public void acquireBandwidth(int bytes) throws InterruptedIOException {
+        try {
+            bandwidth.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待大文件带宽被中断");
+        }
+    }
+
+    /**
+     * 标记为待补偿的大文件，已标记的保留原值（补偿次数记录在 push_at 中）
+     */
+    public void markPending(String corpId, String msgId, long seq) {
+        Optional<OriginalMsg> optionalOriginalMsg = originalMsgRepo.findFirstByCorpIdAndMsgIdAndSeq(corpId, msgId, seq);
+        if (optionalOriginalMsg.isPresent()) {
+            OriginalMsg originalMsg = optionalOriginalMsg.get();
+            if (originalMsg.getPushAt() == null || originalMsg.getPushAt() > PENDING_PUSH_AT) {
+                log.error("BigFile,{}", originalMsg.getId());
+                originalMsg.setPushAt(PENDING_PUSH_AT);
+                originalMsgRepo.save(originalMsg);
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.ruoran.houyi.downloader;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 大文件下载通道配置
+ * 大文件在独立线程池中下载，有自己的超时和带宽上限，不占用普通下载线程；线程数和队列见 thread-pool.big-file
+ *
+ * @author refactored
+ */
+@Configuration
+@ConfigurationProperties(prefix = "houyi.download.big-file")
+@Data
+public class BigFileLaneConfig {
+
+    /**
+     * 是否开启大文件通道，关闭时沿用 push_at=-999 标记 + 定时补偿
+     */
+    private boolean enabled = true;
+
+    /**
+     * 消息中 filesize 不小于该值（字节）时直接进入大文件通道
+     */
+    private long thresholdBytes = 20L * 1024 * 1024;
+
+    /**
+     * 大文件通道内单个文件的下载超时（毫秒），超时后保留断点，交给定时补偿
+     */
+    private long timeoutMs = 60 * 60 * 1000L;
+
+    /**
+     * 大文件通道合计下载带宽（字节/秒），<= 0 表示不限
+     */
+    private long bytesPerSecond = 32L * 1024 * 1024;
+}
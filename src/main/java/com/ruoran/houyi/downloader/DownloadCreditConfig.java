@@ -0,0 +1,32 @@
+package com.ruoran.houyi.downloader;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 下载背压配置
+ * 拉取前按下载队列占用率放慢，队列满时本页从水位稍后重新拉取，不再因队列满而睡眠或跳过消息
+ *
+ * @author refactored
+ */
+@Configuration
+@ConfigurationProperties(prefix = "houyi.download.credit")
+@Data
+public class DownloadCreditConfig {
+
+    /**
+     * 占用率低于该值时不限速
+     */
+    private double lowWatermark = 0.5;
+
+    /**
+     * 占用率达到该值时按 maxPullDelayMs 限速，之间线性增加
+     */
+    private double highWatermark = 0.9;
+
+    /**
+     * 拉取下一页前最多等待的时间（毫秒）
+     */
+    private long maxPullDelayMs = 5000;
+}
@@ -0,0 +1,151 @@
+package com.ruoran.houyi.downloader;
+
+import com.ruoran.houyi.DownloadThreadKeeper;
+import com.ruoran.houyi.exception.DownloadException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 下载额度
+ * 每个企业一个信号量，额度数为企业配额的 maxInFlight + maxQueued；分发下载时占用一个额度，
+ * 下载任务结束（转入大文件通道的在通道内结束）或提交被拒绝时归还。
+ * 拉取循环在处理下一页前按占用率放慢（pullDelay），分发下载前占用额度（dispatch），
+ * 没有额度或线程池/大文件通道拒绝时抛出 DownloadException，本条消息不提交 seq，由拉取循环稍后从水位重新拉取
+ *
+ * 占用率按企业导出 houyi_download_credit_utilisation{corp}
+ *
+ * @author refactored
+ */
+@Slf4j
+@Component
+public class DownloadCreditGate {
+
+    @Resource
+    private DownloadCreditConfig downloadCreditConfig;
+
+    @Resource
+    private DownloadThreadKeeper downloadThreadKeeper;
+
+    @Resource
+    private DownloadPrioritizer downloadPrioritizer;
+
+    @Resource
+    private BigFileLane bigFileLane;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, Credits> credits = new ConcurrentHashMap<>(16);
+
+    /**
+     * 企业的额度占用率，0 表示没有占用，1 表示没有额度
+     * 取企业已占用额度、下载线程池与大文件通道合计排队占用、公平队列中企业子队列占用三者的最大值
+     */
+    public double utilisation(String corpId) {
+        Credits corpCredits = credits(corpId);
+        double used = ratio(corpCredits.limit - corpCredits.permits.availablePermits(), corpCredits.limit);
+        if (!(downloadThreadKeeper.getExecutorService() instanceof ThreadPoolExecutor pool)) {
+            return used;
+        }
+        BlockingQueue<Runnable> queue = pool.getQueue();
+        int size = queue.size() + bigFileLane.queueSize();
+        used = Math.max(used, ratio(size, size + queue.remainingCapacity() + bigFileLane.remainingCapacity()));
+        if (queue instanceof FairDownloadQueue fair) {
+            used = Math.max(used, ratio(fair.depth(corpId), downloadPrioritizer.quota(corpId).getMaxQueued()));
+        }
+        return used;
+    }
+
+    /**
+     * 企业是否还有下载额度，没有时不再预取下一页
+     */
+    public boolean hasCredit(String corpId) {
+        return utilisation(corpId) < 1;
+    }
+
+    /**
+     * 处理下一页前应等待的时间：占用率在低水位以下为 0，到高水位时为 maxPullDelayMs，之间线性增加
+     */
+    public long pullDelay(String corpId) {
+        double used = utilisation(corpId);
+        double low = downloadCreditConfig.getLowWatermark();
+        double high = downloadCreditConfig.getHighWatermark();
+        if (used <= low) {
+            return 0;
+        }
+        if (used >= high || high <= low) {
+            return downloadCreditConfig.getMaxPullDelayMs();
+        }
+        return (long) ((used - low) / (high - low) * downloadCreditConfig.getMaxPullDelayMs());
+    }
+
+    /**
+     * 占用一个额度后提交下载，submit 收到归还额度的回调，须在下载任务结束时调用（可重复调用，只归还一次）；
+     * 没有额度或提交被拒绝时立即抛出 DownloadException，不占用调用线程等待：
+     * 在线拉取由 getList 从水位回退，把 pullDelay 交还调度器，到时再从该条消息重新处理
+     */
+    public void dispatch(String corpId, String msgId, Consumer<Runnable> submit) {
+        Semaphore permits = credits(corpId).permits;
+        if (utilisation(corpId) < 1 && permits.tryAcquire()) {
+            AtomicBoolean released = new AtomicBoolean(false);
+            Runnable release = () -> {
+                if (released.compareAndSet(false, true)) {
+                    permits.release();
+                }
+            };
+            try {
+                submit.accept(release);
+                return;
+            } catch (RejectedExecutionException e) {
+                // 其他企业抢先用掉了线程池或大文件通道的空位
+                release.run();
+            }
+        }
+        meterRegistry.counter("houyi_download_credit_rejected", Tags.of("corp", corpId)).increment();
+        throw new DownloadException("下载队列已满, corpId:" + corpId, msgId);
+    }
+
+    private Credits credits(String corpId) {
+        return credits.computeIfAbsent(corpId, id -> {
+            FairDownloadQueue.Quota quota = downloadPrioritizer.quota(id);
+            Credits corpCredits = new Credits(quota.getMaxInFlight() + quota.getMaxQueued());
+            Gauge.builder("houyi_download_credit_utilisation", () -> utilisation(id))
+                    .tags(Tags.of("corp", id))
+                    .description("企业下载额度占用率")
+                    .register(meterRegistry);
+            return corpCredits;
+        });
+    }
+
+    private static double ratio(int used, int total) {
+        return total <= 0 ? 1 : Math.min(1, (double) used / total);
+    }
+
+    /**
+     * 企业的额度：limit 为总数，permits 为剩余
+     */
+    private static final class Credits {
+
+        private final int limit;
+
+        private final Semaphore permits;
+
+        private Credits(int limit) {
+            this.limit = limit;
+            this.permits = new Semaphore(limit);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.ruoran.houyi.downloader;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 下载按企业公平调度配置
+ * 企业可在 wework.corps 中单独配置 download-max-in-flight、download-max-queued、download-weight
+ *
+ * @author refactored
+ */
+@Configuration
+@ConfigurationProperties(prefix = "houyi.download.fair")
+@Data
+public class DownloadFairnessConfig {
+
+    /**
+     * 是否按企业公平调度，关闭时所有企业共用一个队列
+     */
+    private boolean enabled = true;
+
+    /**
+     * 单个企业同时下载的任务数上限
+     */
+    private int maxInFlightPerCorp = 32;
+
+    /**
+     * 单个企业排队的任务数上限，超过时只拒绝该企业的任务
+     */
+    private int maxQueuedPerCorp = 5000;
+
+    /**
+     * 权重为 1 的企业每轮分到的下载额度（字节）
+     */
+    private long quantumBytes = 4L * 1024 * 1024;
+}
@@ -0,0 +1,116 @@
+package com.ruoran.houyi.downloader;
+
+import com.ruoran.houyi.MsgHandler;
+import com.ruoran.houyi.config.WeWorkCorpProperties;
+import com.ruoran.houyi.service.CorpConfigService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.Resource;
+import org.json.JSONObject;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 下载任务排序
+ * 按消息中的 filesize（没有时按消息类型估计）换算排队延迟，包装成 PrioritizedDownload；
+ * 按大小分档记录排队时间 houyi_download_queue_wait{size=small|medium|large}
+ *
+ * 开启公平调度时下载线程池使用 FairDownloadQueue，企业之间轮流出队，企业内部仍按大小排序
+ *
+ * @author refactored
+ */
+@Component
+public class DownloadPrioritizer {
+
+    private static final long SMALL_BYTES = 1024 * 1024L;
+    private static final long MEDIUM_BYTES = 20 * 1024 * 1024L;
+
+    @Resource
+    private DownloadPriorityConfig downloadPriorityConfig;
+
+    @Resource
+    private DownloadFairnessConfig downloadFairnessConfig;
+
+    @Resource
+    private CorpConfigService corpConfigService;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 按大小分档的排队时间 Timer：size -> Timer
+     */
+    private final Map<String, Timer> waitTimers = new ConcurrentHashMap<>(4);
+
+    public boolean isEnabled() {
+        return downloadPriorityConfig.isEnabled();
+    }
+
+    /**
+     * 下载线程池的队列：按企业公平调度，或所有企业共用一个队列（关闭优先级时为先进先出）
+     */
+    public BlockingQueue<Runnable> newQueue(int capacity) {
+        if (downloadFairnessConfig.isEnabled()) {
+            return new FairDownloadQueue(capacity, this::quota, meterRegistry);
+        }
+        return isEnabled() ? new DownloadPriorityQueue(capacity) : new LinkedBlockingQueue<>(capacity);
+    }
+
+    /**
+     * 企业配额，wework.corps 中未配置的使用 houyi.download.fair 的默认值
+     */
+    public FairDownloadQueue.Quota quota(String corpId) {
+        WeWorkCorpProperties.CorpConfig corpConfig = corpConfigService.getCorpConfig(corpId).orElse(null);
+        int maxInFlight = downloadFairnessConfig.getMaxInFlightPerCorp();
+        int maxQueued = downloadFairnessConfig.getMaxQueuedPerCorp();
+        int weight = 1;
+        if (corpConfig != null) {
+            if (corpConfig.getDownloadMaxInFlight() != null) {
+                maxInFlight = corpConfig.getDownloadMaxInFlight();
+            }
+            if (corpConfig.getDownloadMaxQueued() != null) {
+                maxQueued = corpConfig.getDownloadMaxQueued();
+            }
+            weight = Math.max(1, corpConfig.getDownloadWeight());
+        }
+        return new FairDownloadQueue.Quota(Math.max(1, maxInFlight), Math.max(1, maxQueued),
+                downloadFairnessConfig.getQuantumBytes() * weight);
+    }
+
+    public Runnable wrap(String corpId, JSONObject object, Runnable task) {
+        long expectedBytes = expectedBytes(object);
+        long delayNanos = 0;
+        if (isEnabled() && downloadPriorityConfig.getAgingBytesPerSecond() > 0) {
+            double seconds = (double) expectedBytes / downloadPriorityConfig.getAgingBytesPerSecond();
+            delayNanos = Math.min((long) (seconds * TimeUnit.SECONDS.toNanos(1)),
+                    TimeUnit.MILLISECONDS.toNanos(downloadPriorityConfig.getMaxDelayMs()));
+        }
+        return new PrioritizedDownload(corpId, expectedBytes, delayNanos, task, waitTimer(expectedBytes));
+    }
+
+    /**
+     * 预计下载大小：消息中的 filesize，没有时按消息类型估计
+     */
+    public long expectedBytes(JSONObject object) {
+        long fileSize = MsgHandler.mediaFileSize(object);
+        if (fileSize >= 0) {
+            return fileSize;
+        }
+        return downloadPriorityConfig.getTypeSizes()
+                .getOrDefault(object.optString("msgtype"), downloadPriorityConfig.getDefaultSize());
+    }
+
+    private Timer waitTimer(long expectedBytes) {
+        String size = expectedBytes < SMALL_BYTES ? "small" : expectedBytes < MEDIUM_BYTES ? "medium" : "large";
+        return waitTimers.computeIfAbsent(size, tier -> Timer.builder("houyi_download_queue_wait")
+                .tag("size", tier)
+                .description("下载任务在线程池中的排队时间")
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+}
@@ -0,0 +1,53 @@
+package com.ruoran.houyi.downloader;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 下载排队优先级配置
+ * 下载线程池按"预计大小 + 排队时间"排序：小文件先下，大文件排队越久越靠前，不会一直被插队
+ *
+ * @author refactored
+ */
+@Configuration
+@ConfigurationProperties(prefix = "houyi.download.priority")
+@Data
+public class DownloadPriorityConfig {
+
+    /**
+     * 是否按大小排序，关闭时为先进先出
+     */
+    private boolean enabled = true;
+
+    /**
+     * 排队 1 秒相当于多少字节：预计大小每多这么多，最多晚开始 1 秒
+     */
+    private long agingBytesPerSecond = 1024 * 1024;
+
+    /**
+     * 大文件最多让小文件插队的时间（毫秒），排队超过该值的任务先于之后入队的所有任务
+     */
+    private long maxDelayMs = 5 * 60 * 1000L;
+
+    /**
+     * 消息中没有 filesize 时按消息类型估计的大小（字节），未列出的类型使用 defaultSize
+     */
+    private Map<String, Long> typeSizes = new HashMap<>(Map.of(
+            "image", 512 * 1024L,
+            "voice", 64 * 1024L,
+            "emotion", 256 * 1024L,
+            "video", 20 * 1024 * 1024L,
+            "file", 5 * 1024 * 1024L,
+            "meeting_voice_call", 20 * 1024 * 1024L,
+            "mixed", 1024 * 1024L,
+            "chatrecord", 2 * 1024 * 1024L));
+
+    /**
+     * 未知类型的预计大小（字节）
+     */
+    private long defaultSize = 1024 * 1024;
+}
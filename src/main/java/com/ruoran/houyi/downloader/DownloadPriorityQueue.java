@@ -0,0 +1,33 @@
+package com.ruoran.houyi.downloader;
+
+import java.util.concurrent.PriorityBlockingQueue;
+
+/**
+ * 有容量上限的优先级队列
+ * PriorityBlockingQueue 无界，线程池永远不会扩到 maxPoolSize、也不会拒绝；
+ * 这里 offer 超过容量时返回 false，保持和原来 LinkedBlockingQueue(10000) 一样的扩容/拒绝行为
+ *
+ * @author refactored
+ */
+public class DownloadPriorityQueue extends PriorityBlockingQueue<Runnable> {
+
+    private final int capacity;
+
+    public DownloadPriorityQueue(int capacity) {
+        super(Math.min(capacity, 1024), PrioritizedDownload.ORDER);
+        this.capacity = capacity;
+    }
+
+    @Override
+    public synchronized boolean offer(Runnable runnable) {
+        if (size() >= capacity) {
+            return false;
+        }
+        return super.offer(runnable);
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Math.max(0, capacity - size());
+    }
+}
@@ -0,0 +1,42 @@
+package com.ruoran.houyi.downloader;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 断点续传配置
+ * 多分片媒体下载中断（网络错误、超时）后保留本地部分文件，重试时从最后一个完成的分片继续
+ *
+ * @author refactored
+ */
+@Configuration
+@ConfigurationProperties(prefix = "houyi.download.resume")
+@Data
+public class DownloadResumeConfig {
+
+    /**
+     * 是否开启断点续传
+     */
+    private boolean enabled = true;
+
+    /**
+     * 续传状态保留时间（秒），超过后状态过期，本地部分文件由清理任务删除
+     */
+    private int ttlSeconds = 6 * 3600;
+
+    /**
+     * 距上次保存进度写入超过该字节数才再次保存（中断时总会保存最新进度）
+     */
+    private long saveIntervalBytes = 8 * 1024 * 1024L;
+
+    /**
+     * 距上次保存进度超过该时间（毫秒）才再次保存
+     */
+    private long saveIntervalMs = 5000;
+
+    /**
+     * 清理过期部分文件的间隔（毫秒）
+     */
+    private long sweepIntervalMs = 10 * 60 * 1000L;
+}
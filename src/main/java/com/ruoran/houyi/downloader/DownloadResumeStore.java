@@ -0,0 +1,216 @@
+package com.ruoran.houyi.downloader;
+
+import com.ruoran.houyi.Md5Util;
+import com.ruoran.houyi.cluster.CorpLeaseManager;
+import com.ruoran.houyi.constants.AppConstants;
+import com.ruoran.houyi.utils.FileUtil;
+import com.ruoran.houyi.utils.JedisUtil;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.Resource;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONObject;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+
+import java.io.File;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * 断点续传状态
+ * 按 sdkfileid 记录多分片下载的进度：本地部分文件、SDK 返回的 indexbuf、已写字节数、MD5 中间状态，
+ * 网络错误/超时后经 MQ 重试时从最后一个完成的分片继续，不再从头下载。
+ * 进度按 saveIntervalBytes/saveIntervalMs 节流写入，下载中断返回前再保存一次最新进度；
+ * 进程崩溃时从较早的进度续传，MediaSink.resume 会截掉之后多写的部分
+ *
+ * 状态存在 houyi:resume:{md5(sdkfileid)}，带过期时间；部分文件只在下载它的实例本地，
+ * 所以状态里记录 instanceId，其他实例不续传。每个实例的部分文件登记在 houyi:resume:files:{instanceId}
+ * （ZSET，score 为最近一次写入时间），状态过期后由 sweep 删除残留文件
+ *
+ * @author refactored
+ */
+@Slf4j
+@Component
+public class DownloadResumeStore {
+
+    @Resource
+    private JedisPool jedisPool;
+
+    @Resource
+    private DownloadResumeConfig downloadResumeConfig;
+
+    @Resource
+    private CorpLeaseManager corpLeaseManager;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    public boolean isEnabled() {
+        return downloadResumeConfig.isEnabled();
+    }
+
+    /**
+     * 读取可续传的状态，没有、属于其他实例或本地文件已不完整时返回 null
+     */
+    public State load(String sdkFileId) {
+        if (!downloadResumeConfig.isEnabled()) {
+            return null;
+        }
+        String value = JedisUtil.execute(jedisPool, jedis -> jedis.get(stateKey(sdkFileId))).orElse(null);
+        if (value == null) {
+            return null;
+        }
+        try {
+            JSONObject json = new JSONObject(value);
+            if (!corpLeaseManager.getInstanceId().equals(json.optString("instanceId"))) {
+                return null;
+            }
+            State state = new State();
+            state.setLocalPath(json.getString("localPath"));
+            state.setIndexBuf(json.getString("indexBuf"));
+            state.setBytes(json.getLong("bytes"));
+            state.setDigestState(Base64.getDecoder().decode(json.getString("digestState")));
+            File file = new File(state.getLocalPath());
+            if (!file.exists() || file.length() < state.getBytes()) {
+                log.warn("续传文件不完整，重新下载, sdkFileId:{}, localPath:{}", sdkFileId, state.getLocalPath());
+                clear(sdkFileId, state.getLocalPath());
+                return null;
+            }
+            meterRegistry.counter("houyi_download_resumed").increment();
+            meterRegistry.summary("houyi_download_resumed_bytes").record(state.getBytes());
+            return state;
+        } catch (Exception e) {
+            log.error("解析续传状态失败, sdkFileId:{}", sdkFileId, e);
+            return null;
+        }
+    }
+
+    /**
+     * 开始记录一次下载的进度，enabled 为 false 时（如流式上传）不保存
+     */
+    public Progress progress(String sdkFileId, String localPath, MediaSink sink, boolean enabled) {
+        return new Progress(sdkFileId, localPath, sink, enabled && downloadResumeConfig.isEnabled());
+    }
+
+    /**
+     * 保存进度，indexBuf 为最后写入的分片之后的 GetOutIndexBuf
+     */
+    public void save(String sdkFileId, String localPath, String indexBuf, MediaSink sink) {
+        if (!downloadResumeConfig.isEnabled()) {
+            return;
+        }
+        JSONObject json = new JSONObject();
+        json.put("instanceId", corpLeaseManager.getInstanceId());
+        json.put("localPath", localPath);
+        json.put("indexBuf", indexBuf);
+        json.put("bytes", sink.getBytes());
+        json.put("digestState", Base64.getEncoder().encodeToString(sink.getDigestState()));
+        JedisUtil.executeVoid(jedisPool, jedis -> {
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.setex(stateKey(sdkFileId), downloadResumeConfig.getTtlSeconds(), json.toString());
+            pipeline.zadd(filesKey(), System.currentTimeMillis(), localPath);
+            pipeline.sync();
+        });
+    }
+
+    /**
+     * 下载完成（或放弃续传）后调用
+     */
+    public void clear(String sdkFileId, String localPath) {
+        if (!downloadResumeConfig.isEnabled()) {
+            return;
+        }
+        JedisUtil.executeVoid(jedisPool, jedis -> {
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.del(stateKey(sdkFileId));
+            pipeline.zrem(filesKey(), localPath);
+            pipeline.sync();
+        });
+    }
+
+    /**
+     * 删除状态已过期的本地部分文件
+     */
+    @Scheduled(fixedDelayString = "${houyi.download.resume.sweep-interval-ms:600000}")
+    public void sweep() {
+        if (!downloadResumeConfig.isEnabled()) {
+            return;
+        }
+        long expireBefore = System.currentTimeMillis() - downloadResumeConfig.getTtlSeconds() * 1000L;
+        List<String> paths = JedisUtil.execute(jedisPool, jedis -> jedis.zrangeByScore(filesKey(), 0, expireBefore))
+                .orElse(List.of());
+        for (String path : paths) {
+            FileUtil.safeDelete(path);
+            JedisUtil.executeVoid(jedisPool, jedis -> jedis.zrem(filesKey(), path));
+        }
+        if (!paths.isEmpty()) {
+            log.info("清理过期的续传文件 {} 个", paths.size());
+        }
+    }
+
+    private String stateKey(String sdkFileId) {
+        // sdkfileid 可能很长，取 md5 作为 key
+        return AppConstants.RedisKey.DOWNLOAD_RESUME_PREFIX + Md5Util.getMd5(sdkFileId);
+    }
+
+    private String filesKey() {
+        return AppConstants.RedisKey.DOWNLOAD_RESUME_FILES_PREFIX + corpLeaseManager.getInstanceId();
+    }
+
+    /**
+     * 一次下载的进度：每个非最后分片写入后调用 onChunk，到了保存间隔才写 Redis；中断返回前调用 flush
+     */
+    public class Progress {
+
+        private final String sdkFileId;
+        private final String localPath;
+        private final MediaSink sink;
+        private final boolean enabled;
+        private String indexBuf;
+        private long savedBytes;
+        private long savedAt;
+
+        private Progress(String sdkFileId, String localPath, MediaSink sink, boolean enabled) {
+            this.sdkFileId = sdkFileId;
+            this.localPath = localPath;
+            this.sink = sink;
+            this.enabled = enabled;
+            this.savedBytes = sink.getBytes();
+            this.savedAt = System.currentTimeMillis();
+        }
+
+        public void onChunk(String indexBuf) {
+            this.indexBuf = indexBuf;
+            if (sink.getBytes() - savedBytes >= downloadResumeConfig.getSaveIntervalBytes()
+                    || System.currentTimeMillis() - savedAt >= downloadResumeConfig.getSaveIntervalMs()) {
+                flush();
+            }
+        }
+
+        /**
+         * 保存尚未保存的最新进度
+         */
+        public void flush() {
+            if (!enabled || indexBuf == null || sink.getBytes() == savedBytes) {
+                return;
+            }
+            save(sdkFileId, localPath, indexBuf, sink);
+            savedBytes = sink.getBytes();
+            savedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 续传状态
+     */
+    @Data
+    public static class State {
+        private String localPath;
+        private String indexBuf;
+        private long bytes;
+        private byte[] digestState;
+    }
+}
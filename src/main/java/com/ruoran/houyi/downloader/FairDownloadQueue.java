@@ -0,0 +1,441 @@
+package com.ruoran.houyi.downloader;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * 按企业公平调度的下载队列
+ * 每个企业一个子队列（企业内按 PrioritizedDownload 的截止时间排序），企业之间按预计字节数做 deficit round-robin：
+ * 轮到的企业每轮获得 quantumBytes 额度，额度够下一个任务才出队，刷屏的企业不会挤占其他企业
+ *
+ * 每个企业有下载中任务数上限（达到后暂不出队）和排队数上限（达到后 offer 失败，只拒绝该企业），
+ * 出队返回的任务执行结束后归还下载中名额
+ *
+ * 只能通过 execute 提交 PrioritizedDownload，其他任务归入企业 ""；线程池须用 newExecutor 创建
+ *
+ * @author refactored
+ */
+public class FairDownloadQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    /**
+     * 单个任务计入额度的上限（quantum 的倍数），超大任务不需要轮很多圈才出队
+     */
+    private static final int MAX_COST_QUANTUMS = 16;
+
+    private final int capacity;
+    private final Function<String, Quota> quotas;
+    private final MeterRegistry meterRegistry;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Map<String, CorpQueue> queues = new HashMap<>(16);
+    /**
+     * 有排队任务的企业，队首为当前轮到的企业
+     */
+    private final ArrayDeque<CorpQueue> ring = new ArrayDeque<>();
+    private int count = 0;
+
+    /**
+     * @param capacity 所有企业合计的排队上限
+     * @param quotas   corpId -> 企业配额，每个企业第一次入队时读取一次
+     */
+    public FairDownloadQueue(int capacity, Function<String, Quota> quotas, MeterRegistry meterRegistry) {
+        this.capacity = capacity;
+        this.quotas = quotas;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 使用本队列的下载线程池：线程数固定且预先全部启动
+     * ThreadPoolExecutor 线程数不足核心数时把任务直接交给新线程，offer 失败时新建非核心线程直接执行，
+     * 都会绕过公平出队和下载中上限；线程全部启动后任务只能经过 offer 入队，offer 失败即拒绝
+     */
+    public static ThreadPoolExecutor newExecutor(FairDownloadQueue queue, int threads, ThreadFactory threadFactory) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, queue,
+                threadFactory);
+        executor.prestartAllCoreThreads();
+        return executor;
+    }
+
+    @Override
+    public boolean offer(Runnable runnable) {
+        String corpId = corpOf(runnable);
+        lock.lock();
+        try {
+            if (count >= capacity) {
+                return false;
+            }
+            CorpQueue queue = queues.computeIfAbsent(corpId, this::newCorpQueue);
+            if (queue.tasks.size() >= queue.quota.getMaxQueued()) {
+                queue.rejected.increment();
+                return false;
+            }
+            queue.tasks.add(runnable);
+            count++;
+            if (!queue.inRing) {
+                queue.inRing = true;
+                ring.addLast(queue);
+            }
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable runnable) throws InterruptedException {
+        if (!offer(runnable)) {
+            throw new IllegalStateException("下载队列已满");
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable runnable, long timeout, TimeUnit unit) {
+        return offer(runnable);
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            Runnable task;
+            while ((task = dequeue()) == null) {
+                notEmpty.await();
+            }
+            return task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            Runnable task;
+            while ((task = dequeue()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            for (CorpQueue queue : ring) {
+                if (queue.inFlight < queue.quota.getMaxInFlight()) {
+                    return queue.tasks.peek();
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return Math.max(0, capacity - count);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof Runnable runnable)) {
+            return false;
+        }
+        lock.lock();
+        try {
+            CorpQueue queue = queues.get(corpOf(runnable));
+            if (queue == null || !queue.tasks.remove(runnable)) {
+                return false;
+            }
+            count--;
+            leaveRingIfEmpty(queue);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 关闭线程池时取出全部任务，不受下载中上限限制
+     */
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        lock.lock();
+        try {
+            int n = 0;
+            while (n < maxElements && !ring.isEmpty()) {
+                CorpQueue queue = ring.peekFirst();
+                c.add(queue.tasks.poll());
+                count--;
+                n++;
+                leaveRingIfEmpty(queue);
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            List<Runnable> snapshot = new ArrayList<>(count);
+            for (CorpQueue queue : ring) {
+                snapshot.addAll(queue.tasks);
+            }
+            return snapshot.iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 企业当前排队数
+     */
+    public int depth(String corpId) {
+        lock.lock();
+        try {
+            CorpQueue queue = queues.get(corpId);
+            return queue == null ? 0 : queue.tasks.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 企业当前下载中的任务数
+     */
+    public int inFlight(String corpId) {
+        lock.lock();
+        try {
+            CorpQueue queue = queues.get(corpId);
+            return queue == null ? 0 : queue.inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 不经过队列直接占用企业一个下载中名额（mixed 附件的并发下载），达到 maxInFlight 时返回 false；
+     * 占用成功后必须调用 releaseInFlight 归还
+     */
+    public boolean tryAcquireInFlight(String corpId) {
+        lock.lock();
+        try {
+            CorpQueue queue = queues.computeIfAbsent(corpId, this::newCorpQueue);
+            if (queue.inFlight >= queue.quota.getMaxInFlight()) {
+                return false;
+            }
+            queue.inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 归还 tryAcquireInFlight 占用的名额
+     */
+    public void releaseInFlight(String corpId) {
+        CorpQueue queue;
+        lock.lock();
+        try {
+            queue = queues.get(corpId);
+        } finally {
+            lock.unlock();
+        }
+        if (queue != null) {
+            release(queue);
+        }
+    }
+
+    /**
+     * deficit round-robin 取下一个可执行的任务，没有时返回 null（调用方持有锁）
+     */
+    private Runnable dequeue() {
+        // 每个企业最多需要 MAX_COST_QUANTUMS 轮额度才能出队
+        int limit = ring.size() * (MAX_COST_QUANTUMS + 1);
+        for (int visited = 0; visited < limit && !ring.isEmpty(); visited++) {
+            CorpQueue queue = ring.peekFirst();
+            if (queue.inFlight >= queue.quota.getMaxInFlight()) {
+                // 达到下载中上限的企业本轮跳过，不累计额度
+                ring.addLast(ring.pollFirst());
+                continue;
+            }
+            Runnable head = queue.tasks.peek();
+            long cost = costOf(head, queue.quota.getQuantumBytes());
+            if (cost > queue.deficit) {
+                queue.deficit += queue.quota.getQuantumBytes();
+                ring.addLast(ring.pollFirst());
+                continue;
+            }
+            queue.tasks.poll();
+            queue.deficit -= cost;
+            queue.inFlight++;
+            count--;
+            leaveRingIfEmpty(queue);
+            if (head instanceof PrioritizedDownload download) {
+                queue.waitTimer.record(System.nanoTime() - download.getEnqueueNanos(), TimeUnit.NANOSECONDS);
+            }
+            return () -> {
+                try {
+                    head.run();
+                } finally {
+                    release(queue);
+                }
+            };
+        }
+        return null;
+    }
+
+    private void release(CorpQueue queue) {
+        lock.lock();
+        try {
+            queue.inFlight--;
+            if (!queue.tasks.isEmpty()) {
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void leaveRingIfEmpty(CorpQueue queue) {
+        if (queue.tasks.isEmpty() && queue.inRing) {
+            ring.remove(queue);
+            queue.inRing = false;
+            // 空闲的企业不保留额度
+            queue.deficit = 0;
+        }
+    }
+
+    private CorpQueue newCorpQueue(String corpId) {
+        CorpQueue queue = new CorpQueue(quotas.apply(corpId));
+        Tags tags = Tags.of("corp", corpId);
+        Gauge.builder("houyi_download_corp_queue_depth", queue, q -> q.tasks.size())
+                .tags(tags)
+                .description("企业下载排队数")
+                .register(meterRegistry);
+        Gauge.builder("houyi_download_corp_in_flight", queue, q -> q.inFlight)
+                .tags(tags)
+                .description("企业下载中的任务数")
+                .register(meterRegistry);
+        queue.waitTimer = Timer.builder("houyi_download_corp_wait")
+                .tags(tags)
+                .description("企业下载任务的排队时间")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        queue.rejected = meterRegistry.counter("houyi_download_corp_rejected", tags);
+        return queue;
+    }
+
+    private static String corpOf(Runnable runnable) {
+        return runnable instanceof PrioritizedDownload download && download.getCorpId() != null
+                ? download.getCorpId() : "";
+    }
+
+    private static long costOf(Runnable runnable, long quantumBytes) {
+        long bytes = runnable instanceof PrioritizedDownload download ? download.getExpectedBytes() : 0;
+        return Math.max(0, Math.min(bytes, quantumBytes * MAX_COST_QUANTUMS));
+    }
+
+    /**
+     * 企业配额
+     */
+    @Data
+    @AllArgsConstructor
+    public static class Quota {
+
+        /**
+         * 同时下载的任务数上限
+         */
+        private int maxInFlight;
+
+        /**
+         * 排队任务数上限
+         */
+        private int maxQueued;
+
+        /**
+         * 每轮分到的额度（字节），权重高的企业给更大的值
+         */
+        private long quantumBytes;
+    }
+
+    private static class CorpQueue {
+        private final Quota quota;
+        private final PriorityQueue<Runnable> tasks = new PriorityQueue<>(PrioritizedDownload.ORDER);
+        private long deficit = 0;
+        private int inFlight = 0;
+        private boolean inRing = false;
+        private Timer waitTimer;
+        private Counter rejected;
+
+        CorpQueue(Quota quota) {
+            this.quota = quota;
+        }
+    }
+}
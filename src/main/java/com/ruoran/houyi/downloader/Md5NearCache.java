@@ -0,0 +1,211 @@
+package com.ruoran.houyi.downloader;
+
+import com.ruoran.houyi.model.Md5Index;
+import com.ruoran.houyi.service.EventBus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * md5 索引进程内缓存（near cache）
+ * tryMd5Sum 依次查 进程内 -> Redis -> MySQL，本类是第一层：按访问顺序淘汰（LRU），带过期时间；
+ * 查不到的 md5 也缓存（negative），过期时间更短，新文件下载完成前的重复查询不再打到 Redis/MySQL
+ *
+ * 写入新的 ossPath（setMd5Cache）时 invalidate。查询 Redis/MySQL 前先取 stamp，
+ * 期间同一分段有过 invalidate 的未命中结果不缓存，避免把刚写入的文件缓存成“不存在”
+ *
+ * 每层命中数见 houyi_md5_index_lookup{tier=near|redis|mysql|miss}，
+ * 命中率见 houyi_md5_index_hit_ratio{tier}（该层命中数 / 到达该层的查询数）
+ *
+ * @author refactored
+ */
+@Component
+public class Md5NearCache {
+
+    private static final int STAMP_STRIPES = 64;
+
+    public enum Tier {
+        /**
+         * 进程内缓存
+         */
+        NEAR,
+        REDIS,
+        MYSQL,
+        /**
+         * 都没有，需要下载
+         */
+        MISS;
+
+        String tag() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    @Resource
+    private Md5NearCacheConfig md5NearCacheConfig;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private EventBus eventBus;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > md5NearCacheConfig.getMaxSize();
+        }
+    };
+
+    /**
+     * 按 md5 分段的 invalidate 次数
+     */
+    private final AtomicLongArray stamps = new AtomicLongArray(STAMP_STRIPES);
+
+    private final Map<Tier, LongAdder> hits = new EnumMap<>(Tier.class);
+
+    private final Map<Tier, Counter> counters = new EnumMap<>(Tier.class);
+
+    @PostConstruct
+    public void init() {
+        for (Tier tier : Tier.values()) {
+            hits.put(tier, new LongAdder());
+            counters.put(tier, meterRegistry.counter("houyi_md5_index_lookup", Tags.of("tier", tier.tag())));
+        }
+        for (Tier tier : new Tier[]{Tier.NEAR, Tier.REDIS, Tier.MYSQL}) {
+            Gauge.builder("houyi_md5_index_hit_ratio", this, cache -> cache.hitRatio(tier))
+                    .tags(Tags.of("tier", tier.tag()))
+                    .description("md5 索引各层命中率")
+                    .register(meterRegistry);
+        }
+        Gauge.builder("houyi_md5_near_cache_size", this, Md5NearCache::size)
+                .description("md5 进程内缓存条数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 查进程内缓存，没有或已过期时返回 null；
+     * 返回的 Entry.getValue() 为 null 表示最近查过 Redis/MySQL 都没有
+     */
+    public Entry lookup(String md5) {
+        if (!md5NearCacheConfig.isEnabled()) {
+            return null;
+        }
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(md5);
+            if (entry != null && entry.expireNanos - System.nanoTime() <= 0) {
+                entries.remove(md5);
+                entry = null;
+            }
+        }
+        if (entry != null) {
+            record(Tier.NEAR);
+        }
+        return entry;
+    }
+
+    /**
+     * 查询 Redis/MySQL 之前调用，结果传给 put
+     */
+    public long stamp(String md5) {
+        return stamps.get(stripe(md5));
+    }
+
+    /**
+     * 缓存 Redis/MySQL 的查询结果，value 为 null 时按 negativeTtlMs 缓存未命中
+     */
+    public void put(String md5, Md5Index value, long stamp) {
+        if (!md5NearCacheConfig.isEnabled()) {
+            return;
+        }
+        long ttlMs = value != null ? md5NearCacheConfig.getTtlMs() : md5NearCacheConfig.getNegativeTtlMs();
+        if (ttlMs <= 0) {
+            return;
+        }
+        Entry entry = new Entry(value, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMs));
+        synchronized (entries) {
+            // 查询期间写入过新的 ossPath，未命中的结果已经过时
+            if (value == null && stamps.get(stripe(md5)) != stamp) {
+                return;
+            }
+            entries.put(md5, entry);
+        }
+    }
+
+    /**
+     * 写入新的 ossPath 后调用
+     */
+    public void invalidate(String md5) {
+        synchronized (entries) {
+            stamps.incrementAndGet(stripe(md5));
+            entries.remove(md5);
+        }
+    }
+
+    /**
+     * 记录一次查询在哪一层结束，NEAR 由 lookup 记录
+     */
+    public void record(Tier tier) {
+        hits.get(tier).increment();
+        counters.get(tier).increment();
+        if (tier == Tier.NEAR || tier == Tier.REDIS) {
+            eventBus.getMd5CacheHits().incrementAndGet();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * 该层命中数 / 到达该层的查询数（前面各层都没命中的）
+     */
+    double hitRatio(Tier tier) {
+        long reached = 0;
+        for (Tier t : Tier.values()) {
+            if (t.ordinal() >= tier.ordinal()) {
+                reached += hits.get(t).sum();
+            }
+        }
+        return reached == 0 ? 0 : (double) hits.get(tier).sum() / reached;
+    }
+
+    private static int stripe(String md5) {
+        return (md5.hashCode() & Integer.MAX_VALUE) % STAMP_STRIPES;
+    }
+
+    /**
+     * 缓存条目
+     */
+    public static class Entry {
+        private final Md5Index value;
+        private final long expireNanos;
+
+        Entry(Md5Index value, long expireNanos) {
+            this.value = value;
+            this.expireNanos = expireNanos;
+        }
+
+        /**
+         * 为 null 表示 Redis/MySQL 都没有
+         */
+        public Md5Index getValue() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.ruoran.houyi.downloader;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * md5 索引进程内缓存配置
+ * 位于 Redis（md5sum-{md5}）和 MySQL（md5index）之前，热门表情、转发图片不必每次都查 Redis
+ *
+ * @author refactored
+ */
+@Configuration
+@ConfigurationProperties(prefix = "houyi.download.md5-cache")
+@Data
+public class Md5NearCacheConfig {
+
+    /**
+     * 是否开启进程内缓存，关闭时每次都查 Redis/MySQL
+     */
+    private boolean enabled = true;
+
+    /**
+     * 最多缓存的 md5 数，超过后淘汰最久未访问的
+     */
+    private int maxSize = 20000;
+
+    /**
+     * 命中（有 ossPath）的缓存时间（毫秒）
+     */
+    private long ttlMs = 10 * 60 * 1000L;
+
+    /**
+     * 未命中的缓存时间（毫秒），新文件下载完成前的重复查询直接返回，应尽量短
+     */
+    private long negativeTtlMs = 10 * 1000L;
+}
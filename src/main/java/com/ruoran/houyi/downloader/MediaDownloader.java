@@ -2,20 +2,20 @@ package com.ruoran.houyi.downloader;
 
 import com.ruoran.houyi.Audio;
 import com.ruoran.houyi.constants.AppConstants;
+import com.ruoran.houyi.finance.FinanceBackend;
+import com.ruoran.houyi.finance.FinanceSdkPool;
+import com.ruoran.houyi.finance.NativeHandles;
 import com.ruoran.houyi.model.Md5Index;
 import com.ruoran.houyi.service.EventBus;
 import com.ruoran.houyi.service.OssUtil;
 import com.ruoran.houyi.utils.DateUtil;
 import com.ruoran.houyi.utils.FileUtil;
-import com.tencent.wework.Finance;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.json.JSONObject;
 
-import java.io.File;
-import java.io.FileOutputStream;
-
 /**
  * 媒体文件下载器
  * 封装文件下载的核心逻辑，消除重复代码
@@ -26,11 +26,15 @@ import java.io.FileOutputStream;
 @Data
 public class MediaDownloader {
 
-    private final long sdk;
+    private final FinanceBackend financeBackend;
+    private final FinanceSdkPool financeSdkPool;
+    private final NativeHandles nativeHandles;
     private final String corpid;
+    private final String secret;
     private final String prefix;
     private final EventBus eventBus;
     private final OssUtil ossUtil;
+    private final MeterRegistry meterRegistry;
 
     /**
      * 下载上下文
@@ -62,24 +66,31 @@ public class MediaDownloader {
         prepareDownload(context);
         
         String indexBuff = "";
-        while (true) {
-            long mediaData = Finance.NewMediaData();
-            int ret = Finance.GetMediaData(this.sdk, indexBuff, context.getSdkFileId(), "", "", 60, mediaData);
-
-            if (ret != 0) {
-                Finance.FreeMediaData(mediaData);
-                return false; // 调用方处理重试
-            }
-
-            // 写入文件
-            writeMediaData(context.getLocalPath(), mediaData);
+        try (MediaSink sink = MediaSink.open(context.getLocalPath());
+             FinanceSdkPool.Lease lease = financeSdkPool.borrow(this.corpid, this.secret)) {
+            while (true) {
+                try (NativeHandles.Handle media = nativeHandles.mediaData()) {
+                    long mediaData = media.get();
+                    int ret = financeBackend.getMediaData(lease.getSdk(), indexBuff, context.getSdkFileId(), "", "", 60, mediaData);
+
+                    if (ret != 0) {
+                        lease.reportError(ret);
+                        return false; // 调用方处理重试
+                    }
+
+                    // 写入文件
+                    sink.write(financeBackend.getData(mediaData));
+
+                    if (financeBackend.isMediaDataFinish(mediaData) == 1) {
+                        media.close();
+                        sink.finish();
+                        sink.record(meterRegistry, this.corpid);
+                        return processDownloadedFile(context, sink.getMd5());
+                    } else {
+                        indexBuff = financeBackend.getOutIndexBuf(mediaData);
+                    }
+                }
 
-            if (Finance.IsMediaDataFinish(mediaData) == 1) {
-                return processDownloadedFile(context, mediaData);
-            } else {
-                indexBuff = Finance.GetOutIndexBuf(mediaData);
-                Finance.FreeMediaData(mediaData);
-                
                 // 检查大文件超时
                 if (!context.getBigFile() && isDownloadTimeout(context)) {
                     FileUtil.safeDelete(context.getLocalPath());
@@ -105,26 +116,15 @@ public class MediaDownloader {
         FileUtil.safeDelete(context.getLocalPath());
     }
 
-    /**
-     * 写入媒体数据到文件
-     */
-    private void writeMediaData(String localPath, long mediaData) throws Exception {
-        try (FileOutputStream outputStream = new FileOutputStream(localPath, true)) {
-            outputStream.write(Finance.GetData(mediaData));
-            outputStream.flush();
-        }
-    }
-
     /**
      * 处理下载完成的文件
      */
-    private boolean processDownloadedFile(DownloadContext context, long mediaData) {
+    private boolean processDownloadedFile(DownloadContext context, String md5) {
         try {
             eventBus.getTotalRealDount().incrementAndGet();
-            Finance.FreeMediaData(mediaData);
 
             // MD5 校验
-            if (!validateMd5(context)) {
+            if (!validateMd5(context, md5)) {
                 return false;
             }
 
@@ -144,15 +144,14 @@ public class MediaDownloader {
     }
 
     /**
-     * MD5 校验
+     * MD5 校验，md5 为写入时同步计算的结果
      */
-    private boolean validateMd5(DownloadContext context) {
+    private boolean validateMd5(DownloadContext context, String calculatedMd5) {
         String md5sum = context.getMd5sum();
         if (StringUtils.isEmpty(md5sum) || AppConstants.FileExt.GIF.equalsIgnoreCase(context.getExt())) {
             return true;
         }
 
-        String calculatedMd5 = calculateFileMd5(new File(context.getLocalPath()));
         if (!md5sum.equalsIgnoreCase(calculatedMd5)) {
             log.error("MD5校验失败, msgId:{}, 期望:{}, 实际:{}", 
                 context.getMsgId(), md5sum, calculatedMd5);
@@ -204,14 +203,6 @@ public class MediaDownloader {
         return false;
     }
 
-    /**
-     * 计算文件 MD5
-     */
-    private String calculateFileMd5(File file) {
-        // 使用 MsgHandler 中的静态方法
-        return com.ruoran.houyi.MsgHandler.getFileMd5(file);
-    }
-
     /**
      * 保存 MD5 索引
      */
@@ -0,0 +1,290 @@
+package com.ruoran.houyi.downloader;
+
+import com.ruoran.houyi.cluster.CorpLeaseManager;
+import com.ruoran.houyi.constants.AppConstants;
+import com.ruoran.houyi.utils.JedisUtil;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.params.SetParams;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * 同一 md5 的媒体文件合并下载（single-flight）
+ * 实例内用 md5 -> CompletableFuture 合并并发请求，实例之间用 Redis 租约 houyi:single-flight:{md5}
+ * （SET NX PX 抢占、Lua 比较后续约/释放）保证同一时刻只有一处在下载
+ *
+ * 本实例第一个请求者抢租约，抢到即为领头，下载结束后 complete(ossPath)：结果写入
+ * houyi:single-flight:result:{md5} 并释放租约；抢不到时由调度线程轮询结果，租约消失（领头失败或宕机）时结束等待。
+ * join 不阻塞：其他请求者拿到等待中的 Flight，subscribe 回调在调度线程上拿到 ossPath（领头失败或超时为 null），
+ * 下载线程立即释放
+ *
+ * 用法:
+ * <pre>
+ * MediaSingleFlight.Flight flight = mediaSingleFlight.join(md5);
+ * if (flight.isShared()) {
+ *     object.put("ossPath", flight.getOssPath());
+ *     return;
+ * }
+ * if (flight.isPending()) {
+ *     flight.subscribe(ossPath -> ... 用 ossPath 完成消息，为 null 时重试 ...);
+ *     return;
+ * }
+ * try {
+ *     ... 下载、上传 ...
+ * } finally {
+ *     flight.complete(object.optString("ossPath"));
+ * }
+ * </pre>
+ *
+ * @author refactored
+ */
+@Slf4j
+@Component
+public class MediaSingleFlight {
+
+    private static final String RENEW_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) else return 0 end";
+
+    /**
+     * KEYS[1] 租约，KEYS[2] 结果；ARGV[1] instanceId，ARGV[2] ossPath（失败时为空），ARGV[3] 结果保留毫秒
+     */
+    private static final String COMPLETE_SCRIPT =
+            "if ARGV[2] ~= '' then redis.call('set', KEYS[2], ARGV[2], 'PX', ARGV[3]) end "
+                    + "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end";
+
+    @Resource
+    private JedisPool jedisPool;
+
+    @Resource
+    private MediaSingleFlightConfig mediaSingleFlightConfig;
+
+    @Resource
+    private CorpLeaseManager corpLeaseManager;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource(name = "singleFlightScheduler")
+    private ThreadPoolTaskScheduler singleFlightScheduler;
+
+    /**
+     * 本实例正在下载（或正在等其他实例）的文件：md5 -> ossPath，失败时为 null
+     */
+    private final Map<String, CompletableFuture<String>> flights = new ConcurrentHashMap<>(16);
+
+    /**
+     * 本实例持有租约的 md5
+     */
+    private final Set<String> leases = ConcurrentHashMap.newKeySet();
+
+    private Timer waitTimer;
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("houyi_single_flight_in_flight", flights, Map::size)
+                .description("本实例合并下载中的文件数")
+                .register(meterRegistry);
+        waitTimer = Timer.builder("houyi_single_flight_wait")
+                .description("等待同一文件下载结果的时间")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * 加入 md5 的下载，不阻塞：返回领头（需要自己下载并 complete）、复用结果或等待中（subscribe 结果）；
+     * 关闭或 md5 为空时直接返回领头，不做合并
+     */
+    public Flight join(String md5) {
+        if (!mediaSingleFlightConfig.isEnabled() || StringUtils.isEmpty(md5)) {
+            return new Flight(md5, null, null, null);
+        }
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> current = flights.putIfAbsent(md5, mine);
+        if (current != null) {
+            // 本实例已有消息在下载或在等其他实例，订阅它的结果
+            return new Flight(md5, null, null, current);
+        }
+        try {
+            String ossPath = JedisUtil.execute(jedisPool, jedis -> jedis.get(resultKey(md5))).orElse(null);
+            if (StringUtils.isNotEmpty(ossPath)) {
+                land(md5, mine, ossPath);
+                meterRegistry.counter("houyi_single_flight", Tags.of("role", "shared")).increment();
+                return new Flight(null, null, ossPath, null);
+            }
+            if (tryLease(md5)) {
+                leases.add(md5);
+                meterRegistry.counter("houyi_single_flight", Tags.of("role", "leader")).increment();
+                return new Flight(md5, mine, null, null);
+            }
+            // 其他实例在下载，由调度线程轮询结果
+            pollRemote(md5, mine, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mediaSingleFlightConfig.getWaitMs()));
+            return new Flight(md5, null, null, mine);
+        } catch (RuntimeException e) {
+            land(md5, mine, null);
+            throw e;
+        }
+    }
+
+    /**
+     * 续约本实例持有的租约，租约丢失（过期后被其他实例抢占）只记录，本地下载继续
+     */
+    @Scheduled(fixedDelayString = "${houyi.download.single-flight.renew-interval-ms:20000}")
+    public void renew() {
+        for (String md5 : leases) {
+            Optional<Object> result = JedisUtil.execute(jedisPool, jedis -> jedis.eval(RENEW_SCRIPT,
+                    List.of(leaseKey(md5)), List.of(corpLeaseManager.getInstanceId(),
+                            String.valueOf(mediaSingleFlightConfig.getLeaseMs()))));
+            if (result.isPresent() && !Long.valueOf(1L).equals(result.get()) && leases.remove(md5)) {
+                meterRegistry.counter("houyi_single_flight_lease_lost").increment();
+                log.warn("合并下载租约已丢失, md5:{}", md5);
+            }
+        }
+    }
+
+    /**
+     * 每 pollIntervalMs 查一次其他实例的下载结果，拿到结果、租约消失（领头失败或宕机）或超时后结束等待
+     */
+    private void pollRemote(String md5, CompletableFuture<String> future, long deadline) {
+        singleFlightScheduler.schedule(() -> {
+            try {
+                String ossPath = JedisUtil.execute(jedisPool, jedis -> jedis.get(resultKey(md5))).orElse(null);
+                if (StringUtils.isNotEmpty(ossPath)) {
+                    land(md5, future, ossPath);
+                    return;
+                }
+                boolean leaderGone = !JedisUtil.execute(jedisPool, jedis -> jedis.exists(leaseKey(md5))).orElse(false);
+                if (leaderGone || System.nanoTime() >= deadline) {
+                    land(md5, future, null);
+                    return;
+                }
+                pollRemote(md5, future, deadline);
+            } catch (RuntimeException e) {
+                log.error("查询合并下载结果失败, md5:{}", md5, e);
+                land(md5, future, null);
+            }
+        }, Instant.now().plusMillis(mediaSingleFlightConfig.getPollIntervalMs()));
+    }
+
+    /**
+     * Redis 不可用时视为抢到，退化为各自下载
+     */
+    private boolean tryLease(String md5) {
+        return JedisUtil.execute(jedisPool, jedis -> "OK".equals(jedis.set(leaseKey(md5),
+                        corpLeaseManager.getInstanceId(), SetParams.setParams().nx().px(mediaSingleFlightConfig.getLeaseMs()))))
+                .orElse(true);
+    }
+
+    private void land(String md5, CompletableFuture<String> future, String ossPath) {
+        flights.remove(md5, future);
+        future.complete(ossPath);
+    }
+
+    private static String leaseKey(String md5) {
+        return AppConstants.RedisKey.SINGLE_FLIGHT_PREFIX + md5;
+    }
+
+    private static String resultKey(String md5) {
+        return AppConstants.RedisKey.SINGLE_FLIGHT_RESULT_PREFIX + md5;
+    }
+
+    /**
+     * 一次 join 的结果
+     */
+    public class Flight {
+        private final String md5;
+        /**
+         * 领头时非空
+         */
+        private final CompletableFuture<String> future;
+        private final String ossPath;
+        /**
+         * 等待中时非空：本实例领头（或等其他实例的请求者）的结果
+         */
+        private final CompletableFuture<String> pending;
+
+        private Flight(String md5, CompletableFuture<String> future, String ossPath,
+                       CompletableFuture<String> pending) {
+            this.md5 = md5;
+            this.future = future;
+            this.ossPath = ossPath;
+            this.pending = pending;
+        }
+
+        /**
+         * 同一文件已由其他消息下载完成，直接使用 getOssPath
+         */
+        public boolean isShared() {
+            return ossPath != null;
+        }
+
+        /**
+         * 同一文件正由其他消息下载，通过 subscribe 拿结果
+         */
+        public boolean isPending() {
+            return pending != null;
+        }
+
+        public String getOssPath() {
+            return ossPath;
+        }
+
+        /**
+         * 等待中时订阅下载结果，回调在调度线程上执行：拿到 ossPath，或领头失败、超过 waitMs 时为 null
+         */
+        public void subscribe(Consumer<String> onResult) {
+            long startNanos = System.nanoTime();
+            pending.copy()
+                    .orTimeout(mediaSingleFlightConfig.getWaitMs(), TimeUnit.MILLISECONDS)
+                    .whenCompleteAsync((result, error) -> {
+                        waitTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+                        String shared = error == null && StringUtils.isNotEmpty(result) ? result : null;
+                        String role = shared != null ? "shared" : error instanceof TimeoutException ? "timeout" : "failed";
+                        meterRegistry.counter("houyi_single_flight", Tags.of("role", role)).increment();
+                        if (error instanceof TimeoutException) {
+                            log.warn("等待同一文件下载超时, md5:{}", md5);
+                        }
+                        try {
+                            onResult.accept(shared);
+                        } catch (Exception e) {
+                            log.error("合并下载回调异常, md5:{}", md5, e);
+                        }
+                    }, singleFlightScheduler);
+        }
+
+        /**
+         * 领头下载结束后调用（包括失败，ossPath 为空），通知等待者并释放租约；非领头时什么都不做，可重复调用
+         */
+        public void complete(String ossPath) {
+            if (future == null || future.isDone()) {
+                return;
+            }
+            String result = ossPath == null ? "" : ossPath;
+            leases.remove(md5);
+            JedisUtil.execute(jedisPool, jedis -> jedis.eval(COMPLETE_SCRIPT,
+                    List.of(leaseKey(md5), resultKey(md5)),
+                    List.of(corpLeaseManager.getInstanceId(), result,
+                            String.valueOf(mediaSingleFlightConfig.getResultTtlMs()))));
+            land(md5, future, StringUtils.isEmpty(result) ? null : result);
+        }
+    }
+}
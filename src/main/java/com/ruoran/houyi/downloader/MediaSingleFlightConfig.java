@@ -0,0 +1,47 @@
+package com.ruoran.houyi.downloader;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 同一 md5 的媒体文件合并下载配置
+ * 同一时刻只有一个实例的一个线程下载，其他消息订阅它的 ossPath，不占下载线程
+ *
+ * @author refactored
+ */
+@Configuration
+@ConfigurationProperties(prefix = "houyi.download.single-flight")
+@Data
+public class MediaSingleFlightConfig {
+
+    /**
+     * 是否开启合并下载，关闭时同一文件的多条消息各自下载
+     */
+    private boolean enabled = true;
+
+    /**
+     * 下载租约有效期（毫秒），持有期间定时续约，实例宕机后过期由其他实例接手
+     */
+    private long leaseMs = 60 * 1000L;
+
+    /**
+     * 续约间隔（毫秒），应明显小于 leaseMs
+     */
+    private long renewIntervalMs = 20 * 1000L;
+
+    /**
+     * 等待其他消息下载同一文件的最长时间（毫秒），超时后整条消息进延迟重试队列
+     */
+    private long waitMs = 5 * 60 * 1000L;
+
+    /**
+     * 等待其他实例下载时查询结果的间隔（毫秒）
+     */
+    private long pollIntervalMs = 500L;
+
+    /**
+     * 下载结果（ossPath）在 Redis 中的保留时间（毫秒），供其他实例的等待者读取
+     */
+    private long resultTtlMs = 60 * 1000L;
+}
@@ -0,0 +1,188 @@
+package com.ruoran.houyi.downloader;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.bouncycastle.crypto.digests.MD5Digest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HexFormat;
+
+/**
+ * 媒体文件写入
+ * 分片写入时同步更新 MD5，下载完成后不必再读一遍文件校验
+ *
+ * open 返回写本地文件的实现，整个下载过程只打开一次 FileChannel；
+ * 大文件流式上传见 MultipartUploadSink
+ *
+ * MD5 使用可导出中间状态的 MD5Digest，下载中断时连同已写字节数一起保存，resume 时接着写、接着算
+ *
+ * 用法:
+ * <pre>
+ * try (MediaSink sink = MediaSink.open(localPath)) {
+ *     sink.write(chunk);
+ *     ...
+ *     sink.finish();
+ *     boolean ok = md5sum.equalsIgnoreCase(sink.getMd5());
+ * }
+ * </pre>
+ *
+ * @author refactored
+ */
+public abstract class MediaSink implements AutoCloseable {
+
+    private final MD5Digest digest;
+    private final long startNanos = System.nanoTime();
+    private final long resumedBytes;
+    private long bytes;
+    private long costNanos = 0;
+    private String md5;
+
+    protected MediaSink() {
+        this(new MD5Digest(), 0);
+    }
+
+    protected MediaSink(MD5Digest digest, long bytes) {
+        this.digest = digest;
+        this.bytes = bytes;
+        this.resumedBytes = bytes;
+    }
+
+    /**
+     * 打开（或截断）本地文件
+     */
+    public static MediaSink open(String localPath) throws IOException {
+        return new FileSink(FileChannel.open(Path.of(localPath),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    /**
+     * 续写中断的下载：文件截断到 bytes 后接着写，digestState 为中断时 getDigestState 的结果
+     */
+    public static MediaSink resume(String localPath, long bytes, byte[] digestState) throws IOException {
+        FileChannel channel = FileChannel.open(Path.of(localPath), StandardOpenOption.WRITE);
+        try {
+            channel.truncate(bytes);
+            channel.position(bytes);
+            return new FileSink(channel, new MD5Digest(digestState), bytes);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 追加一个分片
+     */
+    public final void write(byte[] data) throws IOException {
+        if (md5 != null) {
+            throw new IllegalStateException("MediaSink已完成");
+        }
+        writeChunk(data);
+        digest.update(data, 0, data.length);
+        bytes += data.length;
+    }
+
+    /**
+     * 写完最后一个分片后调用：落盘/上传剩余数据并计算 MD5，可重复调用
+     *
+     * @return 小写十六进制 MD5
+     */
+    public final String finish() throws IOException {
+        if (md5 == null) {
+            flush();
+            byte[] out = new byte[digest.getDigestSize()];
+            digest.doFinal(out, 0);
+            md5 = HexFormat.of().formatHex(out);
+            costNanos = System.nanoTime() - startNanos;
+        }
+        return md5;
+    }
+
+    /**
+     * finish 之后可用
+     */
+    public String getMd5() {
+        return md5;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * 已写入部分的 MD5 中间状态，finish 之前可用
+     */
+    public byte[] getDigestState() {
+        return digest.getEncodedState();
+    }
+
+    /**
+     * 下载速度（字节/秒），从 open/resume 到 finish，不含续写前已有的部分
+     */
+    public double getBytesPerSecond() {
+        long nanos = md5 == null ? System.nanoTime() - startNanos : costNanos;
+        return nanos <= 0 ? 0 : (bytes - resumedBytes) * 1_000_000_000.0 / nanos;
+    }
+
+    /**
+     * 记录本次下载的大小和速度
+     */
+    public void record(MeterRegistry meterRegistry, String corpId) {
+        DistributionSummary.builder("houyi_download_throughput")
+                .baseUnit("bytes/s")
+                .tags(Tags.of("corp", corpId))
+                .description("单个媒体文件的下载速度")
+                .register(meterRegistry)
+                .record(getBytesPerSecond());
+        meterRegistry.summary("houyi_download_bytes", Tags.of("corp", corpId)).record(bytes);
+    }
+
+    protected abstract void writeChunk(byte[] data) throws IOException;
+
+    /**
+     * 最后一个分片写入后调用一次
+     */
+    protected abstract void flush() throws IOException;
+
+    @Override
+    public abstract void close() throws IOException;
+
+    /**
+     * 写本地文件
+     */
+    private static class FileSink extends MediaSink {
+        private final FileChannel channel;
+
+        FileSink(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        FileSink(FileChannel channel, MD5Digest digest, long bytes) {
+            super(digest, bytes);
+            this.channel = channel;
+        }
+
+        @Override
+        protected void writeChunk(byte[] data) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        @Override
+        protected void flush() throws IOException {
+            channel.close();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.ruoran.houyi.downloader;
+
+import com.ruoran.houyi.storage.MultipartObjectStore;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 边下载边分片上传
+ * 分片攒够 partSize 后提交到上传线程池，下载继续；同时上传中的分片超过 maxInflightParts 时 write 阻塞，
+ * 内存占用有上限且不需要本地临时文件
+ *
+ * finish 上传最后一片并等待全部分片完成，complete 校验 MD5 后合并；
+ * 未 complete 就 close（下载失败、异常、超时）时放弃上传并清理已上传的分片
+ *
+ * @author refactored
+ */
+@Slf4j
+public class MultipartUploadSink extends MediaSink {
+
+    private final MultipartObjectStore store;
+    private final String key;
+    private final int partSize;
+    private final Executor executor;
+    private final Semaphore inflight;
+    private final String uploadId;
+    private final List<CompletableFuture<String>> parts = new ArrayList<>();
+    private ByteArrayOutputStream buffer;
+    private boolean completed = false;
+    private boolean aborted = false;
+
+    MultipartUploadSink(MultipartObjectStore store, String key, int partSize, int maxInflightParts, Executor executor) {
+        this.store = store;
+        this.key = key;
+        this.partSize = partSize;
+        this.executor = executor;
+        this.inflight = new Semaphore(Math.max(1, maxInflightParts));
+        this.buffer = new ByteArrayOutputStream(partSize);
+        this.uploadId = store.initiate(key);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    protected void writeChunk(byte[] data) throws IOException {
+        buffer.write(data);
+        if (buffer.size() >= partSize) {
+            submitPart();
+        }
+    }
+
+    @Override
+    protected void flush() throws IOException {
+        // 空文件也要有一个分片
+        if (buffer.size() > 0 || parts.isEmpty()) {
+            submitPart();
+        }
+        for (CompletableFuture<String> part : parts) {
+            try {
+                part.join();
+            } catch (CompletionException e) {
+                throw new IOException("分片上传失败, key:" + key, e.getCause());
+            }
+        }
+    }
+
+    /**
+     * finish 之后调用：MD5 与消息一致时合并分片，否则放弃上传
+     *
+     * @param expectedMd5 消息中的 md5sum，为空时不校验
+     * @return 是否上传成功
+     */
+    public boolean complete(String expectedMd5) {
+        if (getMd5() == null) {
+            throw new IllegalStateException("MultipartUploadSink未finish");
+        }
+        if (StringUtils.isNotEmpty(expectedMd5) && !expectedMd5.equalsIgnoreCase(getMd5())) {
+            log.error("流式上传md5校验失败, key:{}, 消息md5sum:{}, 计算md5:{}", key, expectedMd5, getMd5());
+            abort();
+            return false;
+        }
+        try {
+            store.complete(key, uploadId, parts.stream().map(CompletableFuture::join).toList());
+            completed = true;
+            return true;
+        } catch (Exception e) {
+            log.error("合并分片失败, key:{}", key, e);
+            abort();
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!completed) {
+            abort();
+        }
+    }
+
+    private void submitPart() throws IOException {
+        // 前面的分片已失败时尽早结束下载
+        for (CompletableFuture<String> part : parts) {
+            if (part.isCompletedExceptionally()) {
+                throw new IOException("分片上传失败, key:" + key);
+            }
+        }
+        try {
+            inflight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待分片上传被中断");
+        }
+        byte[] data = buffer.toByteArray();
+        buffer = new ByteArrayOutputStream(partSize);
+        int partNumber = parts.size() + 1;
+        CompletableFuture<String> part;
+        try {
+            part = CompletableFuture.supplyAsync(() -> store.uploadPart(key, uploadId, partNumber, data), executor);
+        } catch (RuntimeException e) {
+            inflight.release();
+            throw new IOException("提交分片上传失败, key:" + key, e);
+        }
+        part.whenComplete((etag, e) -> inflight.release());
+        parts.add(part);
+    }
+
+    private void abort() {
+        if (aborted || completed) {
+            return;
+        }
+        aborted = true;
+        // 等进行中的分片结束，避免 abort 之后又有分片写入
+        for (CompletableFuture<String> part : parts) {
+            try {
+                part.join();
+            } catch (Exception ignore) {
+            }
+        }
+        try {
+            store.abort(key, uploadId);
+        } catch (Exception e) {
+            log.error("放弃分片上传失败, key:{}, uploadId:{}", key, uploadId, e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.ruoran.houyi.downloader;
+
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 带优先级的下载任务
+ * 排序键为虚拟截止时间 = 入队时间 + 预计大小换算的延迟（有上限），键在入队时确定：
+ * 后入队的小文件只能插到截止时间比它晚的任务前面，大文件最多被插队 maxDelayMs，不会饿死
+ *
+ * 只能通过 execute 提交，submit 包装成 FutureTask 后无法排序
+ *
+ * @author refactored
+ */
+@Getter
+public class PrioritizedDownload implements Runnable {
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    /**
+     * 截止时间相同时先入队的先执行；非 PrioritizedDownload 的任务排在最前
+     */
+    public static final Comparator<Runnable> ORDER = Comparator
+            .comparingLong((Runnable r) -> r instanceof PrioritizedDownload d ? d.deadlineNanos : Long.MIN_VALUE)
+            .thenComparingLong(r -> r instanceof PrioritizedDownload d ? d.sequence : Long.MIN_VALUE);
+
+    private final String corpId;
+    private final long expectedBytes;
+    private final long enqueueNanos;
+    private final long deadlineNanos;
+    private final long sequence;
+    private final Runnable task;
+    private final Timer waitTimer;
+
+    public PrioritizedDownload(String corpId, long expectedBytes, long delayNanos, Runnable task, Timer waitTimer) {
+        this.corpId = corpId;
+        this.expectedBytes = expectedBytes;
+        this.enqueueNanos = System.nanoTime();
+        this.deadlineNanos = enqueueNanos + delayNanos;
+        this.sequence = SEQUENCE.incrementAndGet();
+        this.task = task;
+        this.waitTimer = waitTimer;
+    }
+
+    @Override
+    public void run() {
+        waitTimer.record(System.nanoTime() - enqueueNanos, TimeUnit.NANOSECONDS);
+        task.run();
+    }
+}
@@ -0,0 +1,46 @@
+package com.ruoran.houyi.downloader;
+
+import com.ruoran.houyi.constants.AppConstants;
+import com.ruoran.houyi.storage.MultipartObjectStore;
+import com.ruoran.houyi.storage.StreamingUploadConfig;
+import jakarta.annotation.Resource;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+/**
+ * 大文件流式上传入口
+ * 判断文件是否走流式上传，并创建上传到对象存储的 MediaSink
+ *
+ * @author refactored
+ */
+@Component
+public class StreamingUploader {
+
+    @Resource
+    private StreamingUploadConfig streamingUploadConfig;
+
+    @Resource
+    private MultipartObjectStore multipartObjectStore;
+
+    @Resource(name = "ossExecutor")
+    private ThreadPoolTaskExecutor ossExecutor;
+
+    /**
+     * amr 需要先落盘转 mp3，不走流式上传
+     *
+     * @param fileSize 消息中的 filesize，未知时传 -1
+     */
+    public boolean accept(long fileSize, String ext) {
+        return streamingUploadConfig.isEnabled()
+                && fileSize >= streamingUploadConfig.getThresholdBytes()
+                && !AppConstants.FileExt.AMR.equalsIgnoreCase(ext);
+    }
+
+    /**
+     * 发起分片上传，返回的 sink 必须 close
+     */
+    public MultipartUploadSink open(String ossTargetPath) {
+        return new MultipartUploadSink(multipartObjectStore, ossTargetPath, streamingUploadConfig.getPartSize(),
+                streamingUploadConfig.getMaxInflightParts(), ossExecutor);
+    }
+}
@@ -0,0 +1,32 @@
+package com.ruoran.houyi.exception;
+
+/**
+ * 会话存档 SDK 异常
+ *
+ * @author refactored
+ */
+public class FinanceSdkException extends RuntimeException {
+
+    private final String corpId;
+    private final int errorCode;
+
+    public FinanceSdkException(String message, String corpId) {
+        super(message);
+        this.corpId = corpId;
+        this.errorCode = -1;
+    }
+
+    public FinanceSdkException(String message, String corpId, int errorCode) {
+        super(message);
+        this.corpId = corpId;
+        this.errorCode = errorCode;
+    }
+
+    public String getCorpId() {
+        return corpId;
+    }
+
+    public int getErrorCode() {
+        return errorCode;
+    }
+}
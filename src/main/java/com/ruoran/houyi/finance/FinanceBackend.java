@@ -0,0 +1,54 @@
+package com.ruoran.houyi.finance;
+
+/**
+ * 会话存档 SDK 调用接口
+ * 方法与 com.tencent.wework.Finance 的原生方法一一对应，返回码含义相同（0 为成功）
+ *
+ * 默认使用 JniFinanceBackend；houyi.finance.backend=simulated 时使用 SimulatedFinanceBackend，
+ * 不依赖企业微信的 .so 和真实企业，用于压测、性能分析和集成测试
+ *
+ * @author refactored
+ */
+public interface FinanceBackend {
+
+    long newSdk();
+
+    int init(long sdk, String corpId, String secret);
+
+    void destroySdk(long sdk);
+
+    /**
+     * 从 seq 之后拉取最多 limit 条会话数据，结果写入 chatData（Slice）
+     */
+    int getChatData(long sdk, long seq, long limit, String proxy, String passwd, long timeout, long chatData);
+
+    /**
+     * 用解密后的随机密钥解密消息，明文写入 msg（Slice）
+     */
+    int decryptData(long sdk, String encryptKey, String encryptMsg, long msg);
+
+    /**
+     * 分片拉取媒体文件，首片 indexBuf 传空串，之后传上一片的 outIndexBuf
+     */
+    int getMediaData(long sdk, String indexBuf, String sdkFileId, String proxy, String passwd, long timeout,
+                     long mediaData);
+
+    long newSlice();
+
+    void freeSlice(long slice);
+
+    String getContentFromSlice(long slice);
+
+    long newMediaData();
+
+    void freeMediaData(long mediaData);
+
+    String getOutIndexBuf(long mediaData);
+
+    byte[] getData(long mediaData);
+
+    /**
+     * @return 1 完成，0 未完成
+     */
+    int isMediaDataFinish(long mediaData);
+}
@@ -0,0 +1,121 @@
+package com.ruoran.houyi.finance;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 会话存档 SDK 句柄池配置
+ *
+ * @author refactored
+ */
+@Configuration
+@ConfigurationProperties(prefix = "houyi.finance")
+@Data
+public class FinanceSdkConfig {
+
+    /**
+     * SDK 实现：jni（默认，企业微信原生 SDK）或 simulated（模拟数据，用于压测和集成测试）
+     */
+    private String backend = "jni";
+
+    /**
+     * 每个企业最多持有的 SDK 句柄数（拉取、解密、下载共用）
+     */
+    private int maxHandlesPerCorp = 64;
+
+    /**
+     * 句柄耗尽时借用的最长等待时间（毫秒）
+     */
+    private long borrowTimeoutMs = 60000;
+
+    /**
+     * 空闲句柄超过该时间未被使用则销毁（毫秒）
+     */
+    private long idleTimeoutMs = 10 * 60 * 1000L;
+
+    /**
+     * SDK 返回这些错误码时认为句柄已损坏，归还时销毁并在下次借用时重新 Init
+     * 10003: 系统失败, 10011: 证书错误
+     */
+    private List<Integer> reinitErrorCodes = new ArrayList<>(List.of(10003, 10011));
+
+    /**
+     * 每个线程缓存并复用 Slice/MediaData 句柄（默认关闭）
+     * SDK 文档未说明同一个 Slice/MediaData 能否多次作为输出参数，升级 SDK 后需先在测试环境验证内存稳定再开启
+     */
+    private boolean reuseNativeHandles = false;
+
+    /**
+     * 模拟后端配置，仅 backend=simulated 时生效
+     */
+    private Simulated simulated = new Simulated();
+
+    @Data
+    public static class Simulated {
+
+        /**
+         * 加密随机密钥用的 RSA 公钥（PEM）；为空时启动时生成密钥对，私钥写入 privateKeyOutput
+         */
+        private String publicKey;
+
+        /**
+         * 生成密钥对时私钥的输出文件，企业配置的 privateKeyFile 指向它即可
+         */
+        private String privateKeyOutput = System.getProperty("java.io.tmpdir") + "/houyi-simulated-private.pem";
+
+        /**
+         * 消息记录里的 publickey_ver
+         */
+        private int publicKeyVer = 1;
+
+        /**
+         * 每个企业的消息总数，拉到该 seq 后返回空页；小于等于 0 表示不限
+         */
+        private long messagesPerCorp = 100000;
+
+        /**
+         * 文本消息内容长度（字符）
+         */
+        private int textSize = 200;
+
+        /**
+         * 文件消息占比
+         */
+        private double fileRatio = 0.2;
+
+        /**
+         * 图文混排（mixed）消息占比
+         */
+        private double mixedRatio = 0.05;
+
+        /**
+         * 媒体文件大小范围（字节）
+         */
+        private int mediaMinSize = 16 * 1024;
+        private int mediaMaxSize = 512 * 1024;
+
+        /**
+         * 媒体分片大小（字节），与真实 SDK 一致默认 512K
+         */
+        private int chunkSize = 512 * 1024;
+
+        /**
+         * 每次 GetChatData / GetMediaData（每片）/ DecryptData 的模拟耗时（毫秒）
+         */
+        private long chatLatencyMs = 50;
+        private long mediaLatencyMs = 20;
+        private long decryptLatencyMs = 0;
+
+        /**
+         * GetChatData / GetMediaData 返回错误码的概率，错误码从 errorCodes 中随机选
+         * 10001: 网络请求错误, 10002: 数据解析失败
+         */
+        private double chatErrorRate = 0;
+        private double mediaErrorRate = 0;
+        private List<Integer> errorCodes = new ArrayList<>(List.of(10001, 10002));
+    }
+}
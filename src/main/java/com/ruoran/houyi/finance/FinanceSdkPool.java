@@ -0,0 +1,250 @@
+package com.ruoran.houyi.finance;
+
+import com.ruoran.houyi.exception.FinanceSdkException;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 会话存档 SDK 句柄池
+ * 按 corpId 维护有上限的 SDK 句柄，首次借用时才 NewSdk/Init，
+ * 句柄出现指定错误码、空闲超时或应用关闭时调用 DestroySdk 释放
+ *
+ * 用法:
+ * <pre>
+ * try (FinanceSdkPool.Lease lease = financeSdkPool.borrow(corpId, secret)) {
+ *     int ret = financeBackend.getChatData(lease.getSdk(), ...);
+ *     lease.reportError(ret);
+ * }
+ * </pre>
+ *
+ * @author refactored
+ */
+@Slf4j
+@Component
+public class FinanceSdkPool {
+
+    @Resource
+    private FinanceSdkConfig financeSdkConfig;
+
+    @Resource
+    private FinanceBackend financeBackend;
+
+    private final ConcurrentHashMap<String, CorpSdkPool> pools = new ConcurrentHashMap<>(16);
+
+    private final AtomicLong createdCount = new AtomicLong(0);
+    private final AtomicLong destroyedCount = new AtomicLong(0);
+    private final AtomicLong reinitCount = new AtomicLong(0);
+
+    private volatile boolean closed = false;
+
+    /**
+     * 借用一个已初始化的 SDK 句柄，用完必须 close
+     *
+     * @param corpId 企业 ID
+     * @param secret 会话存档密钥
+     * @return 句柄租约
+     */
+    public Lease borrow(String corpId, String secret) {
+        if (closed) {
+            throw new FinanceSdkException("SDK句柄池已关闭", corpId);
+        }
+        return pools.computeIfAbsent(corpId, CorpSdkPool::new).borrow(secret);
+    }
+
+    /**
+     * 定期销毁空闲超时的句柄
+     */
+    @Scheduled(fixedDelay = 60 * 1000)
+    public void evictIdle() {
+        long deadline = System.currentTimeMillis() - financeSdkConfig.getIdleTimeoutMs();
+        for (CorpSdkPool pool : pools.values()) {
+            for (SdkHandle handle : pool.idle) {
+                if (handle.lastUsedAt < deadline && pool.idle.remove(handle)) {
+                    pool.destroy(handle);
+                    log.debug("销毁空闲SDK句柄, corpId:{}", pool.corpId);
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        closed = true;
+        for (CorpSdkPool pool : pools.values()) {
+            SdkHandle handle;
+            while ((handle = pool.idle.pollFirst()) != null) {
+                pool.destroy(handle);
+            }
+        }
+        log.info("SDK句柄池已关闭, 累计创建:{}, 累计销毁:{}", createdCount.get(), destroyedCount.get());
+    }
+
+    public int getTotalCount() {
+        return pools.values().stream().mapToInt(pool -> pool.total.get()).sum();
+    }
+
+    public int getIdleCount() {
+        return pools.values().stream().mapToInt(pool -> pool.idle.size()).sum();
+    }
+
+    public int getBorrowedCount() {
+        return pools.values().stream().mapToInt(pool -> pool.borrowed.get()).sum();
+    }
+
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    public long getDestroyedCount() {
+        return destroyedCount.get();
+    }
+
+    public long getReinitCount() {
+        return reinitCount.get();
+    }
+
+    /**
+     * 已初始化的 SDK 句柄
+     */
+    private static class SdkHandle {
+        final long sdk;
+        final String secret;
+        volatile long lastUsedAt = System.currentTimeMillis();
+
+        SdkHandle(long sdk, String secret) {
+            this.sdk = sdk;
+            this.secret = secret;
+        }
+    }
+
+    /**
+     * 单个企业的句柄池
+     */
+    private class CorpSdkPool {
+        final String corpId;
+        final LinkedBlockingDeque<SdkHandle> idle = new LinkedBlockingDeque<>();
+        final Semaphore permits;
+        final AtomicInteger total = new AtomicInteger(0);
+        final AtomicInteger borrowed = new AtomicInteger(0);
+
+        CorpSdkPool(String corpId) {
+            this.corpId = corpId;
+            this.permits = new Semaphore(financeSdkConfig.getMaxHandlesPerCorp(), true);
+        }
+
+        Lease borrow(String secret) {
+            try {
+                if (!permits.tryAcquire(financeSdkConfig.getBorrowTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                    throw new FinanceSdkException("等待SDK句柄超时", corpId);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FinanceSdkException("等待SDK句柄被中断", corpId);
+            }
+            try {
+                SdkHandle handle = idle.pollFirst();
+                // secret 变更后旧句柄不可再用
+                while (handle != null && !Objects.equals(handle.secret, secret)) {
+                    destroy(handle);
+                    handle = idle.pollFirst();
+                }
+                if (handle == null) {
+                    handle = create(secret);
+                }
+                borrowed.incrementAndGet();
+                return new Lease(this, handle);
+            } catch (RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        SdkHandle create(String secret) {
+            long sdk = financeBackend.newSdk();
+            int state = financeBackend.init(sdk, corpId, secret);
+            if (state != 0) {
+                financeBackend.destroySdk(sdk);
+                log.error("初始化（Finance.init）失败,corpId:{},ret:{}", corpId, state);
+                throw new FinanceSdkException("Finance.Init失败", corpId, state);
+            }
+            total.incrementAndGet();
+            createdCount.incrementAndGet();
+            return new SdkHandle(sdk, secret);
+        }
+
+        void giveBack(SdkHandle handle, boolean broken) {
+            borrowed.decrementAndGet();
+            try {
+                if (broken || closed) {
+                    destroy(handle);
+                } else {
+                    handle.lastUsedAt = System.currentTimeMillis();
+                    // 后进先出，让冷句柄自然空闲超时被回收
+                    idle.offerFirst(handle);
+                }
+            } finally {
+                permits.release();
+            }
+        }
+
+        void destroy(SdkHandle handle) {
+            try {
+                financeBackend.destroySdk(handle.sdk);
+            } catch (Throwable e) {
+                log.error("DestroySdk失败, corpId:{}", corpId, e);
+            }
+            total.decrementAndGet();
+            destroyedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * SDK 句柄租约，close 时归还句柄
+     */
+    public class Lease implements AutoCloseable {
+        private final CorpSdkPool pool;
+        private final SdkHandle handle;
+        private boolean broken = false;
+        private boolean released = false;
+
+        private Lease(CorpSdkPool pool, SdkHandle handle) {
+            this.pool = pool;
+            this.handle = handle;
+        }
+
+        public long getSdk() {
+            return handle.sdk;
+        }
+
+        /**
+         * 上报 SDK 调用返回码，命中重建错误码时句柄在归还后销毁
+         */
+        public void reportError(int ret) {
+            if (ret != 0 && financeSdkConfig.getReinitErrorCodes().contains(ret)) {
+                log.warn("SDK句柄返回错误码{}，归还后重建, corpId:{}", ret, pool.corpId);
+                broken = true;
+                reinitCount.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (released) {
+                return;
+            }
+            released = true;
+            pool.giveBack(handle, broken);
+        }
+    }
+}
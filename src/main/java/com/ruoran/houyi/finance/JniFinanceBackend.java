@@ -0,0 +1,87 @@
+package com.ruoran.houyi.finance;
+
+import com.tencent.wework.Finance;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * 企业微信会话存档 SDK（JNI）实现，直接转调 Finance 的原生方法
+ * 首次调用时才加载 .so
+ *
+ * @author refactored
+ */
+@Component
+@ConditionalOnProperty(name = "houyi.finance.backend", havingValue = "jni", matchIfMissing = true)
+public class JniFinanceBackend implements FinanceBackend {
+
+    @Override
+    public long newSdk() {
+        return Finance.NewSdk();
+    }
+
+    @Override
+    public int init(long sdk, String corpId, String secret) {
+        return Finance.Init(sdk, corpId, secret);
+    }
+
+    @Override
+    public void destroySdk(long sdk) {
+        Finance.DestroySdk(sdk);
+    }
+
+    @Override
+    public int getChatData(long sdk, long seq, long limit, String proxy, String passwd, long timeout, long chatData) {
+        return Finance.GetChatData(sdk, seq, limit, proxy, passwd, timeout, chatData);
+    }
+
+    @Override
+    public int decryptData(long sdk, String encryptKey, String encryptMsg, long msg) {
+        return Finance.DecryptData(sdk, encryptKey, encryptMsg, msg);
+    }
+
+    @Override
+    public int getMediaData(long sdk, String indexBuf, String sdkFileId, String proxy, String passwd, long timeout,
+                            long mediaData) {
+        return Finance.GetMediaData(sdk, indexBuf, sdkFileId, proxy, passwd, timeout, mediaData);
+    }
+
+    @Override
+    public long newSlice() {
+        return Finance.NewSlice();
+    }
+
+    @Override
+    public void freeSlice(long slice) {
+        Finance.FreeSlice(slice);
+    }
+
+    @Override
+    public String getContentFromSlice(long slice) {
+        return Finance.GetContentFromSlice(slice);
+    }
+
+    @Override
+    public long newMediaData() {
+        return Finance.NewMediaData();
+    }
+
+    @Override
+    public void freeMediaData(long mediaData) {
+        Finance.FreeMediaData(mediaData);
+    }
+
+    @Override
+    public String getOutIndexBuf(long mediaData) {
+        return Finance.GetOutIndexBuf(mediaData);
+    }
+
+    @Override
+    public byte[] getData(long mediaData) {
+        return Finance.GetData(mediaData);
+    }
+
+    @Override
+    public int isMediaDataFinish(long mediaData) {
+        return Finance.IsMediaDataFinish(mediaData);
+    }
+}
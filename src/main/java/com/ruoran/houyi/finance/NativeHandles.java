@@ -0,0 +1,179 @@
+package com.ruoran.houyi.finance;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.lang.ref.Cleaner;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * 会话存档 SDK 的 Slice / MediaData 原生句柄管理
+ * 句柄通过 try-with-resources 保证释放；开启 reuse-native-handles 时每个线程缓存一个句柄重复使用，
+ * 减少跨 JNI 的分配和释放
+ *
+ * 忘记 close 的包装对象被 GC 时由 Cleaner 兜底释放，并计入 houyi_native_handle_leaks
+ *
+ * 用法:
+ * <pre>
+ * try (NativeHandles.Handle slice = nativeHandles.slice()) {
+ *     int ret = financeBackend.getChatData(sdk, ..., slice.get());
+ * }
+ * </pre>
+ *
+ * @author refactored
+ */
+@Slf4j
+@Component
+public class NativeHandles {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    @Resource
+    private FinanceSdkConfig financeSdkConfig;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private FinanceBackend financeBackend;
+
+    private Kind sliceKind;
+    private Kind mediaDataKind;
+
+    @PostConstruct
+    public void init() {
+        sliceKind = new Kind("slice", financeBackend::newSlice, financeBackend::freeSlice);
+        mediaDataKind = new Kind("media_data", financeBackend::newMediaData, financeBackend::freeMediaData);
+        for (Kind kind : new Kind[]{sliceKind, mediaDataKind}) {
+            Gauge.builder("houyi_native_handles", kind, k -> k.allocated.get() - k.freed.get())
+                    .tags(Tags.of("type", kind.name))
+                    .description("未释放的原生句柄数（含线程缓存）")
+                    .register(meterRegistry);
+            Gauge.builder("houyi_native_handle_allocs", kind.allocated, AtomicLong::get)
+                    .tags(Tags.of("type", kind.name))
+                    .description("累计分配的原生句柄数")
+                    .register(meterRegistry);
+            Gauge.builder("houyi_native_handle_leaks", kind.leaked, AtomicLong::get)
+                    .tags(Tags.of("type", kind.name))
+                    .description("未 close 而由 GC 兜底释放的句柄数")
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * 用于 GetChatData / DecryptData 输出
+     */
+    public Handle slice() {
+        return acquire(sliceKind);
+    }
+
+    /**
+     * 用于 GetMediaData 输出，分片下载时每一片使用一个
+     */
+    public Handle mediaData() {
+        return acquire(mediaDataKind);
+    }
+
+    private Handle acquire(Kind kind) {
+        long handle = 0;
+        if (financeSdkConfig.isReuseNativeHandles()) {
+            handle = kind.cached.get()[0];
+            kind.cached.get()[0] = 0;
+        }
+        if (handle == 0) {
+            handle = kind.allocator.getAsLong();
+            kind.allocated.incrementAndGet();
+        }
+        return new Handle(kind, handle, financeSdkConfig.isReuseNativeHandles());
+    }
+
+    private static final class Kind {
+        final String name;
+        final LongSupplier allocator;
+        final LongConsumer releaser;
+        final AtomicLong allocated = new AtomicLong(0);
+        final AtomicLong freed = new AtomicLong(0);
+        final AtomicLong leaked = new AtomicLong(0);
+        /**
+         * 每个线程缓存一个空闲句柄
+         */
+        final ThreadLocal<long[]> cached = ThreadLocal.withInitial(() -> new long[1]);
+
+        Kind(String name, LongSupplier allocator, LongConsumer releaser) {
+            this.name = name;
+            this.allocator = allocator;
+            this.releaser = releaser;
+        }
+
+        void free(long handle) {
+            releaser.accept(handle);
+            freed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Cleaner 动作，不能引用 Handle 本身
+     */
+    private static final class State implements Runnable {
+        final Kind kind;
+        final long handle;
+        volatile boolean closed = false;
+
+        State(Kind kind, long handle) {
+            this.kind = kind;
+            this.handle = handle;
+        }
+
+        @Override
+        public void run() {
+            if (!closed) {
+                kind.leaked.incrementAndGet();
+                kind.free(handle);
+            }
+        }
+    }
+
+    /**
+     * 原生句柄包装，close 可重复调用
+     */
+    public static final class Handle implements AutoCloseable {
+        private final State state;
+        private final Cleaner.Cleanable cleanable;
+        private final boolean reuse;
+
+        private Handle(Kind kind, long handle, boolean reuse) {
+            this.state = new State(kind, handle);
+            this.cleanable = CLEANER.register(this, state);
+            this.reuse = reuse;
+        }
+
+        public long get() {
+            if (state.closed) {
+                throw new IllegalStateException("原生句柄已释放: " + state.kind.name);
+            }
+            return state.handle;
+        }
+
+        @Override
+        public void close() {
+            if (state.closed) {
+                return;
+            }
+            state.closed = true;
+            long[] cached = state.kind.cached.get();
+            if (reuse && cached[0] == 0) {
+                cached[0] = state.handle;
+            } else {
+                state.kind.free(state.handle);
+            }
+            cleanable.clean();
+        }
+    }
+}
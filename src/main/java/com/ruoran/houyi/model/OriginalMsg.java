@@ -13,6 +13,9 @@ import jakarta.persistence.*;
 @Table(name="original_msg",indexes = {
 })
 public class OriginalMsg {
+    /**
+     * AUTO 在 MySQL 上用序列表分段取号，saveAll 可以批量 insert；改为 IDENTITY 会使 hibernate 关闭批量插入
+     */
     @Id
     @GeneratedValue(strategy = GenerationType.AUTO)
     long id;
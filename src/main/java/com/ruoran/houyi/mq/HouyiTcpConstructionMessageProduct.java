@@ -14,6 +14,10 @@ import org.springframework.stereotype.Component;
 import org.springframework.util.StopWatch;
 
 import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * RocketMQ 5.0 gRPC SDK 生产者
@@ -55,6 +59,39 @@ public class HouyiTcpConstructionMessageProduct implements MessageProducerInterf
                 .record(stopWatch.getTotalTimeMillis());
     }
     
+    /**
+     * 批量发送 FIFO 消息
+     * 同一 MessageGroup 内按顺序串行异步发送以保证顺序，不同 MessageGroup 之间并发
+     * 
+     * @param messages 消息列表
+     */
+    @Override
+    public void sendBatch(List<OutboundMessage> messages) {
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+        String topic = mqConfig.getTopic();
+        Map<String, CompletableFuture<?>> chains = new LinkedHashMap<>();
+        for (OutboundMessage outbound : messages) {
+            String messageGroup = extractShardingKey(outbound.getBody());
+            Message message = buildFifoMessage(outbound.getBody(), outbound.getKey(), topic, messageGroup);
+            CompletableFuture<?> previous = chains.getOrDefault(messageGroup, CompletableFuture.completedFuture(null));
+            chains.put(messageGroup, previous.thenCompose(ignored -> producer.sendAsync(message)));
+        }
+        try {
+            CompletableFuture.allOf(chains.values().toArray(new CompletableFuture[0])).join();
+        } catch (Exception e) {
+            log.error("FIFO 消息批量发送失败: topic={}, size={}, error={}", topic, messages.size(), e.getMessage(), e);
+            meterRegistry.counter("houyi_pushed_msg",
+                Tags.of("service", "rocketmq", "type", "error")).increment();
+            throw new RuntimeException("RocketMQ FIFO 消息批量发送失败", e);
+        }
+        meterRegistry.counter("houyi_pushed_msg",
+            Tags.of("service", "rocketmq", "type", "fifo")).increment(messages.size());
+        stopWatch.stop();
+        meterRegistry.summary("houyi_push_cost", Tags.of("type", "rocketmq_batch"))
+                .record(stopWatch.getTotalTimeMillis());
+    }
+    
     /**
      * 发送延迟消息（用于重试）
      * 
@@ -93,14 +130,7 @@ public class HouyiTcpConstructionMessageProduct implements MessageProducerInterf
             log.info("发送 FIFO 消息 - Topic: {}, Tag: {}, Key: {}, MessageGroup: {}", 
                 topic, mqConfig.getTag(), messageKey, messageGroup);
             
-            // 构建 FIFO 消息（必须设置 MessageGroup）
-            Message message = clientServiceProvider.newMessageBuilder()
-                .setTopic(topic)
-                .setTag(mqConfig.getTag())
-                .setKeys(messageKey)
-                .setMessageGroup(messageGroup)  // FIFO 消息必须设置 MessageGroup
-                .setBody(messageBody.getBytes(StandardCharsets.UTF_8))
-                .build();
+            Message message = buildFifoMessage(messageBody, messageKey, topic, messageGroup);
             
             // 发送消息
             SendReceipt sendReceipt = producer.send(message);
@@ -118,6 +148,19 @@ public class HouyiTcpConstructionMessageProduct implements MessageProducerInterf
         }
     }
     
+    /**
+     * 构建 FIFO 消息（必须设置 MessageGroup）
+     */
+    private Message buildFifoMessage(String messageBody, String messageKey, String topic, String messageGroup) {
+        return clientServiceProvider.newMessageBuilder()
+            .setTopic(topic)
+            .setTag(mqConfig.getTag())
+            .setKeys(messageKey)
+            .setMessageGroup(messageGroup)
+            .setBody(messageBody.getBytes(StandardCharsets.UTF_8))
+            .build();
+    }
+    
     /**
      * 发送延迟消息
      * 
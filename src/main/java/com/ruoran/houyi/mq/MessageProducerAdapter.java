@@ -5,6 +5,8 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+
 /**
  * 消息生产者适配器
  * 根据配置自动选择使用 RocketMQ 或 Redis
@@ -50,6 +52,23 @@ public class MessageProducerAdapter {
         producer.send(message, messageKey);
     }
     
+    /**
+     * 批量发送主消息，同一分组内保持发送顺序，任一条失败时抛出异常
+     * 
+     * @param messages 消息列表
+     */
+    public void sendBatch(List<OutboundMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        MessageProducerInterface producer = getProducer();
+        if (producer == null) {
+            log.error("消息生产者未初始化，无法发送消息");
+            throw new IllegalStateException("消息生产者未初始化");
+        }
+        producer.sendBatch(messages);
+    }
+    
     /**
      * 发送延迟消息（用于重试）
      * 
@@ -87,6 +106,16 @@ public class MessageProducerAdapter {
  */
 interface MessageProducerInterface {
     void send(String message, String messageKey);
+
+    /**
+     * 批量发送，默认逐条发送
+     */
+    default void sendBatch(List<OutboundMessage> messages) {
+        for (OutboundMessage message : messages) {
+            send(message.getBody(), message.getKey());
+        }
+    }
+
     void sendDelayMessage(String message, String messageKey, long delayTimeMs);
     void sendDelayMessage(String message, String messageKey);
 }
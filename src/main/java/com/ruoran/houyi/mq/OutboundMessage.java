@@ -0,0 +1,24 @@
+package com.ruoran.houyi.mq;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 待推送的消息（批量发送用）
+ *
+ * @author refactored
+ */
+@Data
+@AllArgsConstructor
+public class OutboundMessage {
+
+    /**
+     * 消息内容
+     */
+    private String body;
+
+    /**
+     * 消息 Key
+     */
+    private String key;
+}
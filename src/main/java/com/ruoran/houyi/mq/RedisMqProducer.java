@@ -10,10 +10,16 @@ import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.json.JSONObject;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StreamOperations;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StopWatch;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -57,6 +63,64 @@ public class RedisMqProducer implements MessageProducerInterface {
                 .record(stopWatch.getTotalTimeMillis());
     }
     
+    /**
+     * 批量发送主消息，通过 pipeline 一次往返写入 Redis Stream
+     * 
+     * @param messages 消息列表
+     */
+    @Override
+    public void sendBatch(List<OutboundMessage> messages) {
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+        String topic = mqConfig.getTopic();
+        List<String> shardingKeys = new ArrayList<>(messages.size());
+        List<Object> results;
+        try {
+            for (OutboundMessage message : messages) {
+                shardingKeys.add(extractShardingKey(message.getBody()));
+            }
+            results = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) {
+                    StreamOperations<String, String, String> streamOps =
+                        ((RedisOperations<String, String>) operations).opsForStream();
+                    for (int i = 0; i < messages.size(); i++) {
+                        OutboundMessage message = messages.get(i);
+                        streamOps.add(topic, buildMessageFields(message.getBody(), message.getKey(), shardingKeys.get(i)));
+                    }
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            log.error("消息批量发送失败: topic={}, size={}, error={}", topic, messages.size(), e.getMessage(), e);
+            meterRegistry.counter("houyi_pushed_msg",
+                Tags.of("service", "redis", "type", "error")).increment();
+            throw new RuntimeException("Redis 消息批量发送失败", e);
+        }
+        
+        if (mqConfig.isEnableMessageBackup()) {
+            try {
+                List<RedisMessageBackup> backups = new ArrayList<>(messages.size());
+                for (int i = 0; i < messages.size(); i++) {
+                    Object result = i < results.size() ? results.get(i) : null;
+                    String redisMsgId = result instanceof RecordId ? ((RecordId) result).getValue() : null;
+                    OutboundMessage message = messages.get(i);
+                    backups.add(buildBackup(topic, message.getBody(), message.getKey(), redisMsgId, shardingKeys.get(i)));
+                }
+                messageBackupRepo.saveAll(backups);
+            } catch (Exception e) {
+                log.warn("消息批量备份失败（不影响发送）: size={}, error={}", messages.size(), e.getMessage());
+            }
+        }
+        
+        meterRegistry.counter("houyi_pushed_msg",
+            Tags.of("service", "redis", "type", "normal")).increment(messages.size());
+        stopWatch.stop();
+        meterRegistry.summary("houyi_push_cost", Tags.of("type", "redis_batch"))
+                .record(stopWatch.getTotalTimeMillis());
+    }
+    
     /**
      * 发送延迟消息（用于重试）
      * 
@@ -97,13 +161,7 @@ public class RedisMqProducer implements MessageProducerInterface {
             String shardingKey = extractShardingKey(messageBody);
             
             // 构建消息元数据
-            Map<String, String> messageFields = new HashMap<>();
-            messageFields.put("body", messageBody);
-            messageFields.put("key", messageKey);
-            messageFields.put("tag", mqConfig.getTag());
-            if (shardingKey != null && !shardingKey.equals(messageKey)) {
-                messageFields.put("shardingKey", shardingKey);
-            }
+            Map<String, String> messageFields = buildMessageFields(messageBody, messageKey, shardingKey);
             
             if (isDelay && delayTimeMs > 0) {
                 // 延迟消息：存储到数据库
@@ -141,16 +199,7 @@ public class RedisMqProducer implements MessageProducerInterface {
                 // 如果启用了消息备份，保存到数据库
                 if (mqConfig.isEnableMessageBackup()) {
                     try {
-                        RedisMessageBackup backup = new RedisMessageBackup();
-                        backup.setTopic(topic);
-                        backup.setMessageBody(messageBody);
-                        backup.setMessageKey(messageKey);
-                        backup.setRedisMsgId(redisMsgId);
-                        backup.setTag(mqConfig.getTag());
-                        backup.setShardingKey(shardingKey);
-                        backup.setStatus(0); // 已发送到 Redis
-                        backup.setCreateAt(System.currentTimeMillis());
-                        
+                        RedisMessageBackup backup = buildBackup(topic, messageBody, messageKey, redisMsgId, shardingKey);
                         messageBackupRepo.save(backup);
                         log.debug("消息已备份到数据库: key={}, backupId={}", messageKey, backup.getId());
                     } catch (Exception e) {
@@ -172,6 +221,34 @@ public class RedisMqProducer implements MessageProducerInterface {
         }
     }
     
+    /**
+     * 构建 Stream 消息字段
+     */
+    private Map<String, String> buildMessageFields(String messageBody, String messageKey, String shardingKey) {
+        Map<String, String> messageFields = new HashMap<>();
+        messageFields.put("body", messageBody);
+        messageFields.put("key", messageKey);
+        messageFields.put("tag", mqConfig.getTag());
+        if (shardingKey != null && !shardingKey.equals(messageKey)) {
+            messageFields.put("shardingKey", shardingKey);
+        }
+        return messageFields;
+    }
+    
+    private RedisMessageBackup buildBackup(String topic, String messageBody, String messageKey,
+                                           String redisMsgId, String shardingKey) {
+        RedisMessageBackup backup = new RedisMessageBackup();
+        backup.setTopic(topic);
+        backup.setMessageBody(messageBody);
+        backup.setMessageKey(messageKey);
+        backup.setRedisMsgId(redisMsgId);
+        backup.setTag(mqConfig.getTag());
+        backup.setShardingKey(shardingKey);
+        backup.setStatus(0); // 已发送到 Redis
+        backup.setCreateAt(System.currentTimeMillis());
+        return backup;
+    }
+    
     /**
      * 从消息中提取 ShardingKey
      * 优先使用 from 字段，否则使用随机值
@@ -4,6 +4,8 @@ import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+
 /**
  * RocketMQ 生产者适配器
  * 让 RocketMQ 生产者实现 MessageProducerInterface 接口
@@ -22,6 +24,11 @@ public class RocketMqProducerAdapter implements MessageProducerInterface {
         rocketMqProducer.send(message, messageKey);
     }
     
+    @Override
+    public void sendBatch(List<OutboundMessage> messages) {
+        rocketMqProducer.sendBatch(messages);
+    }
+    
     @Override
     public void sendDelayMessage(String message, String messageKey, long delayTimeMs) {
         rocketMqProducer.sendDelayMessage(message, messageKey, delayTimeMs);
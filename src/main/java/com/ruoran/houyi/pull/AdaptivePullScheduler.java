@@ -0,0 +1,103 @@
+package com.ruoran.houyi.pull;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 自适应拉取间隔
+ * 拉满一页立即拉下一页；不满的一页等待 baseDelayMs；空页按倍数退避到 maxIdleDelayMs；
+ * 出错时从 errorBaseDelayMs 开始翻倍退避，上限由错误类型决定，成功后恢复
+ *
+ * @author refactored
+ */
+@Slf4j
+@Component
+public class AdaptivePullScheduler {
+
+    /**
+     * 空轮询占比的滑动平均系数
+     */
+    private static final double EMPTY_RATIO_ALPHA = 0.1;
+
+    @Resource
+    private PullConfig pullConfig;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, PullBackoff> backoffs = new ConcurrentHashMap<>(16);
+
+    /**
+     * 根据拉取结果计算下次拉取前的等待时间
+     *
+     * @return 等待毫秒数，0 表示立即拉取
+     */
+    public long onPage(String corpId, ChatPage page) {
+        PullBackoff backoff = backoff(corpId);
+        synchronized (backoff) {
+            backoff.consecutiveErrors = 0;
+            boolean empty = page.size() == 0;
+            backoff.emptyRatio = backoff.emptyRatio * (1 - EMPTY_RATIO_ALPHA) + (empty ? EMPTY_RATIO_ALPHA : 0);
+            long delay;
+            if (page.isFull()) {
+                delay = 0;
+            } else if (!empty) {
+                delay = pullConfig.getBaseDelayMs();
+            } else {
+                delay = Math.min(Math.max(backoff.delayMs * 2, pullConfig.getBaseDelayMs()),
+                        pullConfig.getMaxIdleDelayMs());
+            }
+            backoff.delayMs = delay;
+            return delay;
+        }
+    }
+
+    /**
+     * 拉取出错后的等待时间
+     *
+     * @param maxDelayMs 该错误的退避上限
+     */
+    public long onError(String corpId, long maxDelayMs) {
+        PullBackoff backoff = backoff(corpId);
+        synchronized (backoff) {
+            int shift = Math.min(backoff.consecutiveErrors, 20);
+            backoff.consecutiveErrors++;
+            long delay = Math.min(pullConfig.getErrorBaseDelayMs() << shift, maxDelayMs);
+            backoff.delayMs = delay;
+            log.warn("拉取出错退避, corpId:{}, 连续错误:{}, 等待:{}ms", corpId, backoff.consecutiveErrors, delay);
+            return delay;
+        }
+    }
+
+    public long getDelayMs(String corpId) {
+        return backoff(corpId).delayMs;
+    }
+
+    private PullBackoff backoff(String corpId) {
+        return backoffs.computeIfAbsent(corpId, id -> {
+            PullBackoff backoff = new PullBackoff();
+            Gauge.builder("houyi_pull_interval_ms", backoff, b -> b.delayMs)
+                    .tags(Tags.of("corp", id))
+                    .description("当前拉取间隔")
+                    .register(meterRegistry);
+            Gauge.builder("houyi_pull_empty_ratio", backoff, b -> b.emptyRatio)
+                    .tags(Tags.of("corp", id))
+                    .description("近期空轮询占比（指数滑动平均）")
+                    .register(meterRegistry);
+            return backoff;
+        });
+    }
+
+    private static class PullBackoff {
+        volatile long delayMs = 0;
+        volatile double emptyRatio = 0;
+        int consecutiveErrors = 0;
+    }
+}
@@ -0,0 +1,100 @@
+package com.ruoran.houyi.pull;
+
+import com.ruoran.houyi.service.EventBus;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 追赶模式切换
+ * 企业消息延迟超过 enter-lag-sec 时进入追赶模式，低于 exit-lag-sec 时退出（两个阈值之间保持原模式，避免来回抖动）
+ *
+ * 追赶模式下：整页批量入库、批量推送、检查点延迟落盘、使用更大的页
+ *
+ * @author refactored
+ */
+@Slf4j
+@Component
+public class CatchUpModeController {
+
+    public static final String MODE_NORMAL = "normal";
+    public static final String MODE_CATCH_UP = "catch_up";
+
+    @Resource
+    private PullConfig pullConfig;
+
+    @Resource
+    private EventBus eventBus;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private SeqCheckpointManager seqCheckpointManager;
+
+    private final Map<String, CorpMode> modes = new ConcurrentHashMap<>(16);
+
+    public boolean isCatchUp(String corpId) {
+        CorpMode mode = modes.get(corpId);
+        return mode != null && mode.catchUp;
+    }
+
+    /**
+     * 根据当前延迟判断并切换模式
+     *
+     * @return 是否处于追赶模式
+     */
+    public boolean evaluate(String corpId) {
+        CorpMode mode = mode(corpId);
+        AtomicLong diff = eventBus.getDiffs().get(corpId);
+        long lagSec = diff == null ? 0 : diff.get();
+        PullConfig.CatchUp catchUp = pullConfig.getCatchUp();
+        boolean changed = false;
+        synchronized (mode) {
+            if (!mode.catchUp && lagSec > catchUp.getEnterLagSec()) {
+                mode.catchUp = true;
+                changed = true;
+            } else if (mode.catchUp && lagSec < catchUp.getExitLagSec()) {
+                mode.catchUp = false;
+                changed = true;
+            }
+        }
+        if (changed) {
+            String name = mode.catchUp ? MODE_CATCH_UP : MODE_NORMAL;
+            log.warn("企业拉取模式切换, corpId:{}, 模式:{}, 消息延迟:{}秒", corpId, name, lagSec);
+            meterRegistry.counter("houyi_pull_mode_changes", Tags.of("corp", corpId, "mode", name)).increment();
+            seqCheckpointManager.setDeferred(corpId, mode.catchUp);
+        }
+        return mode.catchUp;
+    }
+
+    /**
+     * 按模式统计处理的记录数，用于对比两种模式的吞吐
+     */
+    public void recordProcessed(String corpId, int records) {
+        String name = isCatchUp(corpId) ? MODE_CATCH_UP : MODE_NORMAL;
+        meterRegistry.counter("houyi_pull_records", Tags.of("corp", corpId, "mode", name)).increment(records);
+    }
+
+    private CorpMode mode(String corpId) {
+        return modes.computeIfAbsent(corpId, id -> {
+            CorpMode mode = new CorpMode();
+            Gauge.builder("houyi_pull_mode", mode, m -> m.catchUp ? 1 : 0)
+                    .tags(Tags.of("corp", id))
+                    .description("拉取模式，1 为追赶模式")
+                    .register(meterRegistry);
+            return mode;
+        });
+    }
+
+    private static class CorpMode {
+        volatile boolean catchUp = false;
+    }
+}
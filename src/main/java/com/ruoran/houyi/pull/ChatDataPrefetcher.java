@@ -0,0 +1,224 @@
+package com.ruoran.houyi.pull;
+
+import com.ruoran.houyi.finance.FinanceBackend;
+import com.ruoran.houyi.finance.FinanceSdkPool;
+import com.ruoran.houyi.finance.NativeHandles;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 单个企业的会话数据预取器
+ * 拉到第 N 页、得知其最后一个 seq 后立即通过 FairPullScheduler 排队拉取第 N+1 页，
+ * 拉取任务从有界的页队列中取页，使网络往返与解密/入库/推送并行
+ *
+ * 只有拉满一页（说明还有积压）时才会继续预取；空页或不满的页需要拉取任务再次 poll 才会触发下一次拉取，
+ * 避免空闲企业被反复调用 GetChatData；企业没有下载额度时也不预取，拉回的页反正要等额度才能处理
+ *
+ * @author refactored
+ */
+@Slf4j
+public class ChatDataPrefetcher {
+
+    private final String corpId;
+    private final String secret;
+    private final FinanceBackend financeBackend;
+    private final FinanceSdkPool financeSdkPool;
+    private final NativeHandles nativeHandles;
+    private final FairPullScheduler fairPullScheduler;
+    private final PageSizeController pageSizeController;
+    private final MeterRegistry meterRegistry;
+    private final PullConfig pullConfig;
+    private final BooleanSupplier hasCredit;
+
+    private final BlockingQueue<ChatPage> pages = new LinkedBlockingQueue<>();
+    private final AtomicBoolean fetching = new AtomicBoolean(false);
+    private final Object lock = new Object();
+
+    /**
+     * reset 时递增，用于丢弃 reset 之前发起的拉取结果
+     */
+    private long generation = 0;
+
+    /**
+     * 下一次拉取的起始游标
+     */
+    private long cursor = 0;
+
+    /**
+     * 企业移交后不再发起拉取
+     */
+    private boolean closed = false;
+
+    private volatile Runnable onPageReady;
+
+    public ChatDataPrefetcher(String corpId, String secret, FinanceBackend financeBackend, FinanceSdkPool financeSdkPool,
+                              NativeHandles nativeHandles, FairPullScheduler fairPullScheduler, PageSizeController pageSizeController,
+                              MeterRegistry meterRegistry, PullConfig pullConfig, BooleanSupplier hasCredit) {
+        this.corpId = corpId;
+        this.secret = secret;
+        this.financeBackend = financeBackend;
+        this.financeSdkPool = financeSdkPool;
+        this.nativeHandles = nativeHandles;
+        this.fairPullScheduler = fairPullScheduler;
+        this.pageSizeController = pageSizeController;
+        this.meterRegistry = meterRegistry;
+        this.pullConfig = pullConfig;
+        this.hasCredit = hasCredit;
+        Gauge.builder("houyi_pull_pages_in_flight", this, ChatDataPrefetcher::getPagesInFlight)
+                .tags(Tags.of("corp", corpId))
+                .description("已预取或正在拉取、尚未处理的页数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 丢弃已预取的页，从指定游标重新拉取（启动时或处理失败后调用）
+     */
+    public void reset(long fromSeq) {
+        synchronized (lock) {
+            generation++;
+            pages.clear();
+            cursor = fromSeq;
+        }
+    }
+
+    /**
+     * 停止预取：丢弃已预取的页，正在进行的拉取结果作废，之后不再发起拉取
+     */
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            generation++;
+            pages.clear();
+        }
+    }
+
+    /**
+     * 取下一页（不阻塞），没有预取好的页时触发一次拉取，拉回后通过 onPageReady 通知
+     *
+     * @return 下一页；尚未拉回时返回 null
+     */
+    public ChatPage poll() {
+        ChatPage page = pages.poll();
+        if (page == null) {
+            // 没有可处理的页时立即拉取
+            scheduleFetch(false);
+        } else if (page.isFull()) {
+            // 拉满的页说明还有积压，继续保持预取深度
+            scheduleFetch(true);
+        }
+        return page;
+    }
+
+    /**
+     * 设置新页入队时的回调
+     */
+    public void setOnPageReady(Runnable onPageReady) {
+        this.onPageReady = onPageReady;
+    }
+
+    public int getPagesInFlight() {
+        return pages.size() + (fetching.get() ? 1 : 0);
+    }
+
+    /**
+     * @param ahead 是否为提前预取，企业没有下载额度时跳过
+     */
+    private void scheduleFetch(boolean ahead) {
+        if (ahead && !hasCredit.getAsBoolean()) {
+            return;
+        }
+        final long gen;
+        final long fromSeq;
+        synchronized (lock) {
+            if (closed || pages.size() >= pullConfig.getPrefetchPages() || !fetching.compareAndSet(false, true)) {
+                return;
+            }
+            gen = generation;
+            fromSeq = cursor;
+        }
+        fairPullScheduler.submit(corpId, () -> fetchOnce(gen, fromSeq));
+    }
+
+    private void fetchOnce(long gen, long fromSeq) {
+        ChatPage page = fetch(fromSeq);
+        boolean prefetchNext;
+        boolean stale = false;
+        boolean offered = false;
+        synchronized (lock) {
+            fetching.set(false);
+            if (gen != generation) {
+                // 拉取期间发生了 reset，结果作废，按新游标重新拉
+                prefetchNext = true;
+                stale = true;
+            } else {
+                if (page.isSuccess()) {
+                    cursor = page.getLastSeq();
+                }
+                offered = pages.offer(page);
+                prefetchNext = page.isFull() && pages.size() < pullConfig.getPrefetchPages();
+            }
+        }
+        Runnable callback = onPageReady;
+        if (offered && callback != null) {
+            callback.run();
+        }
+        if (prefetchNext) {
+            scheduleFetch(!stale);
+        }
+    }
+
+    private ChatPage fetch(long fromSeq) {
+        int limit = fairPullScheduler.pageSize(corpId, pageSizeController.pageSize(corpId));
+        ChatPage page = fetchPage(financeBackend, financeSdkPool, nativeHandles, corpId, secret, fromSeq, limit,
+                pageSizeController.timeoutSec(corpId));
+        fairPullScheduler.onFetched(corpId, page);
+        pageSizeController.onFetched(corpId, page);
+        meterRegistry.summary("houyi_pull_cost", Tags.of("corp", corpId, "stage", "fetch"))
+                .record(page.getFetchCostMs());
+        return page;
+    }
+
+    /**
+     * 调用一次 GetChatData，SDK 异常时返回 ret = -1 的页
+     */
+    public static ChatPage fetchPage(FinanceBackend financeBackend, FinanceSdkPool financeSdkPool,
+                                     NativeHandles nativeHandles, String corpId, String secret, long fromSeq,
+                                     int limit, int timeoutSec) {
+        ChatPage page = new ChatPage();
+        page.setFromSeq(fromSeq);
+        page.setLastSeq(fromSeq);
+        page.setLimit(limit);
+        long start = System.currentTimeMillis();
+        try (NativeHandles.Handle slice = nativeHandles.slice()) {
+            try (FinanceSdkPool.Lease lease = financeSdkPool.borrow(corpId, secret)) {
+                int ret = financeBackend.getChatData(lease.getSdk(), fromSeq, limit, "", "", timeoutSec, slice.get());
+                lease.reportError(ret);
+                page.setRet(ret);
+            }
+            if (page.getRet() == 0) {
+                page.setResponse(new JSONObject(financeBackend.getContentFromSlice(slice.get())));
+                JSONArray chatData = page.getChatData();
+                for (int i = 0; i < chatData.length(); i++) {
+                    long seq = chatData.getJSONObject(i).optLong("seq", 0);
+                    if (seq > page.getLastSeq()) {
+                        page.setLastSeq(seq);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.error("拉取消息异常, corpId:{}", corpId, e);
+            page.setRet(-1);
+        }
+        page.setFetchCostMs(System.currentTimeMillis() - start);
+        return page;
+    }
+}
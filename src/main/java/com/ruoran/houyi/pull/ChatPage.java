@@ -0,0 +1,66 @@
+package com.ruoran.houyi.pull;
+
+import lombok.Data;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * 一次 GetChatData 拉取到的一页会话数据
+ *
+ * @author refactored
+ */
+@Data
+public class ChatPage {
+
+    /**
+     * 本页的起始游标（返回的消息 seq 均大于该值）
+     */
+    private long fromSeq;
+
+    /**
+     * 本页最后一条消息的 seq，空页时等于 fromSeq
+     */
+    private long lastSeq;
+
+    /**
+     * 请求的条数
+     */
+    private int limit;
+
+    /**
+     * SDK 调用返回值，非 0 表示调用失败，此时 response 为空
+     */
+    private int ret;
+
+    /**
+     * 接口返回的完整 JSON（errcode/errmsg/chatdata）
+     */
+    private JSONObject response;
+
+    /**
+     * 拉取耗时（毫秒）
+     */
+    private long fetchCostMs;
+
+    public JSONArray getChatData() {
+        if (response == null || !response.has("chatdata")) {
+            return new JSONArray();
+        }
+        return response.getJSONArray("chatdata");
+    }
+
+    public int size() {
+        return getChatData().length();
+    }
+
+    /**
+     * 拉满一页说明服务端还有积压
+     */
+    public boolean isFull() {
+        return ret == 0 && size() >= limit;
+    }
+
+    public boolean isSuccess() {
+        return ret == 0 && response != null && response.optInt("errcode", -1) == 0;
+    }
+}
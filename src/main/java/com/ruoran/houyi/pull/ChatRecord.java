@@ -0,0 +1,36 @@
+package com.ruoran.houyi.pull;
+
+import lombok.Data;
+import org.json.JSONObject;
+
+/**
+ * 解密后的一条会话记录
+ *
+ * @author refactored
+ */
+@Data
+public class ChatRecord {
+
+    private long seq;
+
+    private String msgId;
+
+    private String msgType;
+
+    private long msgTime;
+
+    /**
+     * 解密后的消息体（已补充 corp_id、seq）
+     */
+    private JSONObject content;
+
+    /**
+     * 是否需要下载媒体文件
+     */
+    private boolean needDownload;
+
+    /**
+     * 不是真正的消息（如 switch），只需提交 seq
+     */
+    private boolean skip;
+}
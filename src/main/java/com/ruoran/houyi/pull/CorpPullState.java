@@ -0,0 +1,180 @@
+package com.ruoran.houyi.pull;
+
+import com.ruoran.houyi.Message;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.time.Instant;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个企业的拉取任务状态
+ * 每次执行只处理一页，处理完按返回的间隔把自己重新提交到共享调度器，同一企业的执行不会重叠；
+ * 没有预取好的页时进入 WAITING，由预取器拿到页后唤醒，兜底超时后也会再执行一次
+ *
+ * @author refactored
+ */
+@Slf4j
+public class CorpPullState {
+
+    /**
+     * Message.getList 返回该值表示页还没拉回来，等待预取器唤醒
+     */
+    public static final long WAIT_FOR_PAGE = -1;
+
+    public enum Status {
+        /**
+         * 已排期，等待执行
+         */
+        SCHEDULED,
+        /**
+         * 正在处理一页
+         */
+        RUNNING,
+        /**
+         * 等待预取结果
+         */
+        WAITING,
+        /**
+         * 已停止
+         */
+        STOPPED
+    }
+
+    @Getter
+    private final String corpId;
+
+    private final Message message;
+    private final TaskScheduler scheduler;
+    private final long waitTimeoutMs;
+
+    @Getter
+    private volatile Status status = Status.SCHEDULED;
+
+    /**
+     * 上次执行时间
+     */
+    @Getter
+    private volatile long lastPullAt;
+
+    /**
+     * 上次执行后排定的间隔（毫秒）
+     */
+    @Getter
+    private volatile long lastDelayMs;
+
+    /**
+     * 停止时间，未停止时为 0
+     */
+    @Getter
+    private volatile long stoppedAt;
+
+    private final AtomicLong pullCount = new AtomicLong(0);
+
+    private ScheduledFuture<?> next;
+    private boolean wakeRequested = false;
+
+    /**
+     * 是否有一页正在处理，stop 之后 status 不再反映这一点
+     */
+    private boolean processing = false;
+
+    public CorpPullState(String corpId, Message message, TaskScheduler scheduler, long waitTimeoutMs) {
+        this.corpId = corpId;
+        this.message = message;
+        this.scheduler = scheduler;
+        this.waitTimeoutMs = waitTimeoutMs;
+        message.setPageReadyListener(this::wake);
+    }
+
+    public long getPullCount() {
+        return pullCount.get();
+    }
+
+    public synchronized void start() {
+        scheduleLocked(0);
+    }
+
+    public synchronized void stop() {
+        status = Status.STOPPED;
+        stoppedAt = System.currentTimeMillis();
+        if (next != null) {
+            next.cancel(false);
+        }
+        message.stopPrefetch();
+    }
+
+    /**
+     * 停止后调用：等待正在处理的页结束（该页的 seq 提交到水位后才能落盘、移交）
+     *
+     * @return 是否已没有正在处理的页；超时返回 false
+     */
+    public synchronized boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (processing) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * 预取器拿到新页时调用
+     */
+    public synchronized void wake() {
+        if (status == Status.WAITING) {
+            scheduleLocked(0);
+        } else if (status == Status.RUNNING) {
+            wakeRequested = true;
+        }
+    }
+
+    private void runOnce() {
+        synchronized (this) {
+            if (status == Status.RUNNING || status == Status.STOPPED) {
+                return;
+            }
+            status = Status.RUNNING;
+            wakeRequested = false;
+            processing = true;
+        }
+        lastPullAt = System.currentTimeMillis();
+        pullCount.incrementAndGet();
+        long delay;
+        try {
+            delay = message.getList();
+        } catch (Throwable e) {
+            log.error("拉取任务异常, corpId:{}", corpId, e);
+            delay = waitTimeoutMs;
+        }
+        synchronized (this) {
+            processing = false;
+            notifyAll();
+            if (status == Status.STOPPED) {
+                return;
+            }
+            if (delay != WAIT_FOR_PAGE) {
+                scheduleLocked(delay);
+            } else if (wakeRequested) {
+                scheduleLocked(0);
+            } else {
+                scheduleLocked(waitTimeoutMs);
+                status = Status.WAITING;
+            }
+        }
+    }
+
+    private void scheduleLocked(long delayMs) {
+        if (next != null) {
+            next.cancel(false);
+        }
+        status = Status.SCHEDULED;
+        lastDelayMs = delayMs;
+        next = scheduler.schedule(this::runOnce, Instant.now().plusMillis(delayMs));
+    }
+}
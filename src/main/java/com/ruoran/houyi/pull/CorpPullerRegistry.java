@@ -0,0 +1,164 @@
+package com.ruoran.houyi.pull;
+
+import com.ruoran.houyi.Message;
+import com.ruoran.houyi.SpringContextUtils;
+import com.ruoran.houyi.model.CorpInfo;
+import com.ruoran.houyi.service.EventBus;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 企业拉取任务注册表
+ * 所有企业的拉取任务运行在同一个固定大小的调度线程池上，线程数不随企业数增长
+ *
+ * @author refactored
+ */
+@Slf4j
+@Component
+public class CorpPullerRegistry {
+
+    @Resource
+    private SpringContextUtils springContextUtils;
+
+    @Resource(name = "pullScheduler")
+    private ThreadPoolTaskScheduler pullScheduler;
+
+    @Resource
+    private PageSizeController pageSizeController;
+
+    @Resource
+    private EventBus eventBus;
+
+    @Resource
+    private FairPullScheduler fairPullScheduler;
+
+    private final Map<String, CorpPullState> states = new ConcurrentHashMap<>(16);
+
+    /**
+     * 已停止、还有页在处理的企业（移交中）
+     */
+    private final Map<String, CorpPullState> draining = new ConcurrentHashMap<>(16);
+
+    /**
+     * 注册并启动企业的拉取任务
+     *
+     * @return 是否新启动（已在运行或未配置私钥时返回 false）
+     */
+    public boolean register(CorpInfo corpInfo) {
+        String corpId = corpInfo.getCorpid();
+        if (StringUtils.isEmpty(corpInfo.getPrikey())) {
+            log.warn("未配置privateKey,无法获取会话存档, corpId:{}", corpId);
+            return false;
+        }
+        if (states.containsKey(corpId)) {
+            return false;
+        }
+        Message message = new Message();
+        message.init(corpId, corpInfo.getSecret(), corpInfo.getPrikey());
+        springContextUtils.autowireBean(message);
+        long waitTimeoutMs = pageSizeController.timeoutSec(corpId) * 1000L + 10000L;
+        CorpPullState state = new CorpPullState(corpId, message, pullScheduler, waitTimeoutMs);
+        if (states.putIfAbsent(corpId, state) != null) {
+            return false;
+        }
+        eventBus.getCorpsStatus().put(corpId, true);
+        state.start();
+        log.info("企业拉取任务已启动: {} ({})", corpInfo.getCorpname(), corpId);
+        return true;
+    }
+
+    /**
+     * 停止并移除企业的拉取任务，不等待正在处理的页（租约已丢失时调用）
+     *
+     * @return 是否存在该任务
+     */
+    public boolean unregister(String corpId) {
+        draining.remove(corpId);
+        return stop(corpId) != null;
+    }
+
+    /**
+     * 停止企业的拉取任务并等待正在处理的页结束（企业移交给其他实例时调用）
+     * 页处理完、seq 都提交到水位后才能落盘检查点、释放租约，否则新实例会从旧水位重复拉取推送；
+     * 没等到时企业留在移交中，下次调用继续等待
+     *
+     * @param waitMs     本次最多等待的毫秒数，0 表示只检查不等待
+     * @param maxDrainMs 从停止起最多等待的毫秒数，超过后不再等待（页处理卡住时不能一直占着企业）
+     * @return 是否可以移交
+     */
+    public boolean drain(String corpId, long waitMs, long maxDrainMs) {
+        CorpPullState state = stop(corpId);
+        if (state == null) {
+            state = draining.get(corpId);
+        }
+        if (state == null) {
+            return true;
+        }
+        boolean idle;
+        try {
+            idle = state.awaitIdle(waitMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            idle = false;
+        }
+        if (!idle && System.currentTimeMillis() - state.getStoppedAt() < maxDrainMs) {
+            draining.put(corpId, state);
+            return false;
+        }
+        if (!idle) {
+            log.warn("企业移交等待超时, 正在处理的页可能被新实例重复拉取, corpId:{}", corpId);
+        }
+        draining.remove(corpId);
+        return true;
+    }
+
+    /**
+     * 是否已停止、还在等待正在处理的页
+     */
+    public boolean isDraining(String corpId) {
+        return draining.containsKey(corpId);
+    }
+
+    public boolean contains(String corpId) {
+        return states.containsKey(corpId);
+    }
+
+    public Optional<CorpPullState> getState(String corpId) {
+        return Optional.ofNullable(states.get(corpId));
+    }
+
+    public Collection<CorpPullState> getStates() {
+        return states.values();
+    }
+
+    private CorpPullState stop(String corpId) {
+        CorpPullState state = states.remove(corpId);
+        if (state == null) {
+            return null;
+        }
+        state.stop();
+        fairPullScheduler.remove(corpId);
+        eventBus.getCorpsStatus().remove(corpId);
+        log.info("企业拉取任务已停止: {}", corpId);
+        return state;
+    }
+
+    public int size() {
+        return states.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        states.values().forEach(CorpPullState::stop);
+        log.info("企业拉取任务已全部停止, 企业数:{}", states.size());
+    }
+}
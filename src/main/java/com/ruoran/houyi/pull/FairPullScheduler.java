@@ -0,0 +1,333 @@
+package com.ruoran.houyi.pull;
+
+import com.ruoran.houyi.service.EventBus;
+import com.ruoran.houyi.utils.TokenBucket;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按消息延迟加权的公平拉取调度
+ * 各企业的 GetChatData 请求先在这里排队，按步长调度（stride scheduling）选出 pass 最小的企业派发，
+ * 同时受全局并发数和每秒调用数限制
+ *
+ * 派发在 pullScheduler 上进行：有请求提交或拉取完成时立即派发一次，另有固定间隔的派发兜底，
+ * 每秒调用数用完或拉取线程池已满时不等待，请求留在队列中由下一次派发处理
+ *
+ * 只有上一页拉满（确实有积压）的企业才按 EventBus.diffs 中的延迟提高权重，权重越高步长越小、越常被选中，
+ * 页大小也按权重放大；空闲企业的延迟再大也按权重 1 对待
+ *
+ * @author refactored
+ */
+@Slf4j
+@Component
+public class FairPullScheduler {
+
+    private static final double STRIDE_BASE = 1 << 20;
+
+    /**
+     * 吞吐统计周期（毫秒）
+     */
+    private static final long STATS_INTERVAL_MS = 10000;
+
+    /**
+     * 兜底派发间隔（毫秒）：调用数用完或线程池已满后，最迟在这个间隔后重试
+     */
+    private static final long DISPATCH_TICK_MS = 100;
+
+    @Resource
+    private PullConfig pullConfig;
+
+    @Resource
+    private EventBus eventBus;
+
+    @Resource
+    private PageSizeController pageSizeController;
+
+    @Resource(name = "chatFetchExecutor")
+    private ThreadPoolTaskExecutor chatFetchExecutor;
+
+    @Resource(name = "pullScheduler")
+    private ThreadPoolTaskScheduler pullScheduler;
+
+    private final Map<String, CorpShare> shares = new ConcurrentHashMap<>(16);
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * 已提交到 pullScheduler、尚未开始的派发，避免重复提交
+     */
+    private final AtomicBoolean dispatchQueued = new AtomicBoolean(false);
+
+    /**
+     * 全局虚拟时间：最近一次派发时的 pass，新加入或空闲后回来的企业从这里开始，不能攒积分
+     */
+    private double virtualTime = 0;
+
+    private Semaphore slots;
+    private TokenBucket sdkRate;
+    private ScheduledFuture<?> tick;
+    private volatile boolean running = true;
+
+    @PostConstruct
+    public void init() {
+        slots = new Semaphore(pullConfig.getMaxConcurrentFetches());
+        sdkRate = new TokenBucket(pullConfig.getFetchesPerSecond(), pullConfig.getFetchesPerSecond());
+        tick = pullScheduler.scheduleWithFixedDelay(this::dispatch, Duration.ofMillis(DISPATCH_TICK_MS));
+        log.info("公平拉取调度已启动: 并发上限={}, 每秒调用上限={}",
+                pullConfig.getMaxConcurrentFetches(), pullConfig.getFetchesPerSecond());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        tick.cancel(false);
+    }
+
+    /**
+     * 提交企业的一次拉取，同一企业同时最多一个待派发请求
+     */
+    public void submit(String corpId, Runnable fetch) {
+        lock.lock();
+        try {
+            CorpShare share = share(corpId);
+            share.pending = fetch;
+            if (share.pass < virtualTime) {
+                share.pass = virtualTime;
+            }
+        } finally {
+            lock.unlock();
+        }
+        trigger();
+    }
+
+    /**
+     * 移除企业的调度状态（企业停止拉取或移交给其他实例时调用），未派发的请求一并丢弃
+     */
+    public void remove(String corpId) {
+        lock.lock();
+        try {
+            shares.remove(corpId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按权重放大后的页大小
+     */
+    public int pageSize(String corpId, int basePageSize) {
+        CorpShare share = shares.get(corpId);
+        double weight = share == null ? 1 : share.weight;
+        long size = Math.round(basePageSize * weight);
+        return (int) Math.max(basePageSize, Math.min(size, pullConfig.getMaxPageSize()));
+    }
+
+    /**
+     * 拉取完成后回报结果，用于判断是否积压和统计吞吐
+     */
+    public void onFetched(String corpId, ChatPage page) {
+        CorpShare share = shares.get(corpId);
+        if (share == null) {
+            // 拉取期间企业已移除
+            return;
+        }
+        share.backlogged = page.isFull();
+        share.records.addAndGet(page.size());
+    }
+
+    /**
+     * 各企业当前的调度份额、延迟和近期吞吐
+     */
+    public List<ShareView> getShares() {
+        double totalWeight = shares.values().stream().mapToDouble(s -> s.weight).sum();
+        long totalDispatches = shares.values().stream().mapToLong(s -> s.recentDispatches).sum();
+        List<ShareView> views = new ArrayList<>(shares.size());
+        shares.forEach((corpId, share) -> {
+            ShareView view = new ShareView();
+            view.corpId = corpId;
+            view.lagSec = lagSec(corpId);
+            view.backlogged = share.backlogged;
+            view.weight = share.weight;
+            view.targetShare = totalWeight == 0 ? 0 : share.weight / totalWeight;
+            view.actualShare = totalDispatches == 0 ? 0 : (double) share.recentDispatches / totalDispatches;
+            view.recordsPerSecond = share.recordsPerSecond;
+            view.pageSize = pageSize(corpId, pageSizeController.pageSize(corpId));
+            views.add(view);
+        });
+        return views;
+    }
+
+    @Scheduled(fixedRate = STATS_INTERVAL_MS)
+    public void refreshStats() {
+        for (CorpShare share : shares.values()) {
+            long records = share.records.get();
+            long dispatches = share.dispatches.get();
+            share.recordsPerSecond = (records - share.lastRecords) * 1000.0 / STATS_INTERVAL_MS;
+            share.recentDispatches = dispatches - share.lastDispatches;
+            share.lastRecords = records;
+            share.lastDispatches = dispatches;
+        }
+    }
+
+    /**
+     * 在 pullScheduler 上尽快派发一次
+     */
+    private void trigger() {
+        if (!running || !dispatchQueued.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            pullScheduler.execute(() -> {
+                dispatchQueued.set(false);
+                dispatch();
+            });
+        } catch (RejectedExecutionException e) {
+            // 调度线程池关闭中，由兜底派发处理
+            dispatchQueued.set(false);
+        }
+    }
+
+    /**
+     * 按 pass 从小到大派发，直到没有待派发请求、并发数或每秒调用数用完；不阻塞调度线程
+     */
+    private void dispatch() {
+        try {
+            while (running && slots.tryAcquire()) {
+                if (!dispatchNext()) {
+                    slots.release();
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            log.error("拉取调度异常", e);
+        }
+    }
+
+    /**
+     * 派发 pass 最小的企业，调用方已占用一个并发名额，派发成功后由拉取任务归还
+     *
+     * @return 是否已派发；没有待派发请求、调用数用完或线程池已满时返回 false
+     */
+    private boolean dispatchNext() {
+        String corpId = null;
+        CorpShare next = null;
+        Runnable task;
+        double previousPass;
+        lock.lock();
+        try {
+            for (Map.Entry<String, CorpShare> entry : shares.entrySet()) {
+                CorpShare share = entry.getValue();
+                if (share.pending != null && (next == null || share.pass < next.pass)) {
+                    next = share;
+                    corpId = entry.getKey();
+                }
+            }
+            if (next == null || !sdkRate.tryAcquire(1)) {
+                return false;
+            }
+            next.weight = weight(corpId, next);
+            virtualTime = next.pass;
+            previousPass = next.pass;
+            next.pass += STRIDE_BASE / next.weight;
+            task = next.pending;
+            next.pending = null;
+            next.dispatches.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            chatFetchExecutor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    slots.release();
+                    trigger();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            log.warn("拉取线程池已满, 下次派发重试, corpId:{}", corpId);
+            requeue(corpId, next, task, previousPass);
+            return false;
+        }
+    }
+
+    /**
+     * 线程池拒绝的请求放回队列并恢复 pass，期间企业已移除或又提交了新请求时丢弃
+     */
+    private void requeue(String corpId, CorpShare share, Runnable task, double previousPass) {
+        lock.lock();
+        try {
+            if (shares.get(corpId) == share && share.pending == null) {
+                share.pending = task;
+                share.pass = previousPass;
+                share.dispatches.decrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private double weight(String corpId, CorpShare share) {
+        if (!share.backlogged) {
+            return 1;
+        }
+        double weight = 1 + (double) lagSec(corpId) / pullConfig.getLagWeightUnitSec();
+        return Math.min(weight, pullConfig.getMaxLagWeight());
+    }
+
+    private long lagSec(String corpId) {
+        AtomicLong diff = eventBus.getDiffs().get(corpId);
+        return diff == null ? 0 : diff.get();
+    }
+
+    private CorpShare share(String corpId) {
+        return shares.computeIfAbsent(corpId, id -> new CorpShare());
+    }
+
+    private static class CorpShare {
+        Runnable pending;
+        double pass;
+        volatile double weight = 1;
+        volatile boolean backlogged = false;
+        final AtomicLong records = new AtomicLong(0);
+        final AtomicLong dispatches = new AtomicLong(0);
+        long lastRecords;
+        long lastDispatches;
+        volatile long recentDispatches;
+        volatile double recordsPerSecond;
+    }
+
+    /**
+     * 企业调度份额快照
+     */
+    @Getter
+    public static class ShareView {
+        private String corpId;
+        private long lagSec;
+        private boolean backlogged;
+        private double weight;
+        private double targetShare;
+        private double actualShare;
+        private double recordsPerSecond;
+        private int pageSize;
+    }
+}
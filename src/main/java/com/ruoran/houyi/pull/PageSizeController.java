@@ -0,0 +1,113 @@
+package com.ruoran.houyi.pull;
+
+import com.ruoran.houyi.DownloadThreadKeeper;
+import com.ruoran.houyi.config.WeWorkCorpProperties;
+import com.ruoran.houyi.service.CorpConfigService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * GetChatData 页大小与超时
+ * 企业可在 wework.corps 中单独配置页大小和超时；开启自适应后按"加性增、乘性减"调整页大小：
+ * 单页拉取超出耗时预算或下载队列过深时减半，拉满且耗时低于预算 80% 时增加一个步长
+ *
+ * @author refactored
+ */
+@Slf4j
+@Component
+public class PageSizeController {
+
+    @Resource
+    private PullConfig pullConfig;
+
+    @Resource
+    private CorpConfigService corpConfigService;
+
+    @Resource
+    private DownloadThreadKeeper downloadThreadKeeper;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private CatchUpModeController catchUpModeController;
+
+    private final Map<String, AtomicInteger> adaptiveSizes = new ConcurrentHashMap<>(16);
+
+    /**
+     * 企业当前的基础页大小（未计入公平调度的放大），追赶模式下不小于追赶模式页大小
+     */
+    public int pageSize(String corpId) {
+        WeWorkCorpProperties.CorpConfig corpConfig = corpConfig(corpId);
+        int configured = corpConfig != null && corpConfig.getPageSize() != null
+                ? corpConfig.getPageSize() : pullConfig.getPageSize();
+        int size = isAdaptive(corpConfig) ? adaptiveSize(corpId, configured).get() : configured;
+        if (catchUpModeController.isCatchUp(corpId)) {
+            size = Math.max(size, pullConfig.getCatchUp().getPageSize());
+        }
+        return size;
+    }
+
+    public int timeoutSec(String corpId) {
+        WeWorkCorpProperties.CorpConfig corpConfig = corpConfig(corpId);
+        return corpConfig != null && corpConfig.getPullTimeoutSec() != null
+                ? corpConfig.getPullTimeoutSec() : pullConfig.getTimeoutSec();
+    }
+
+    /**
+     * 拉取完成后根据耗时和下载队列深度调整页大小
+     */
+    public void onFetched(String corpId, ChatPage page) {
+        WeWorkCorpProperties.CorpConfig corpConfig = corpConfig(corpId);
+        if (!isAdaptive(corpConfig) || page.getRet() != 0) {
+            return;
+        }
+        long budget = corpConfig != null && corpConfig.getPageLatencyBudgetMs() != null
+                ? corpConfig.getPageLatencyBudgetMs() : pullConfig.getPageLatencyBudgetMs();
+        int configured = corpConfig != null && corpConfig.getPageSize() != null
+                ? corpConfig.getPageSize() : pullConfig.getPageSize();
+        AtomicInteger size = adaptiveSize(corpId, configured);
+        int queueDepth = downloadThreadKeeper.getQueueDepth();
+        int current = size.get();
+        int next = current;
+        if (page.getFetchCostMs() > budget || queueDepth > pullConfig.getDownloadQueueHighWatermark()) {
+            next = Math.max(pullConfig.getMinPageSize(), current / 2);
+        } else if (page.isFull() && page.getFetchCostMs() < budget * 0.8) {
+            next = Math.min(pullConfig.getMaxPageSize(), current + pullConfig.getPageSizeStep());
+        }
+        if (next != current && size.compareAndSet(current, next)) {
+            log.debug("调整页大小, corpId:{}, {} -> {}, 耗时:{}ms, 下载队列:{}",
+                    corpId, current, next, page.getFetchCostMs(), queueDepth);
+        }
+    }
+
+    private boolean isAdaptive(WeWorkCorpProperties.CorpConfig corpConfig) {
+        if (corpConfig != null && corpConfig.getAdaptivePageSize() != null) {
+            return corpConfig.getAdaptivePageSize();
+        }
+        return pullConfig.isAdaptivePageSize();
+    }
+
+    private AtomicInteger adaptiveSize(String corpId, int initial) {
+        return adaptiveSizes.computeIfAbsent(corpId, id -> {
+            AtomicInteger size = new AtomicInteger(initial);
+            Gauge.builder("houyi_pull_page_size", size, AtomicInteger::get)
+                    .tags(Tags.of("corp", id))
+                    .description("自适应页大小")
+                    .register(meterRegistry);
+            return size;
+        });
+    }
+
+    private WeWorkCorpProperties.CorpConfig corpConfig(String corpId) {
+        return corpConfigService.getCorpConfig(corpId).orElse(null);
+    }
+}
@@ -0,0 +1,125 @@
+package com.ruoran.houyi.pull;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 会话消息拉取配置
+ *
+ * @author refactored
+ */
+@Configuration
+@ConfigurationProperties(prefix = "houyi.pull")
+@Data
+public class PullConfig {
+
+    /**
+     * 每次 GetChatData 拉取的条数（SDK 上限 1000）
+     */
+    private int pageSize = 500;
+
+    /**
+     * GetChatData 超时时间（秒）
+     */
+    private int timeoutSec = 100;
+
+    /**
+     * 每个企业最多预取的页数（处理中的页不计入）
+     */
+    private int prefetchPages = 2;
+
+    /**
+     * 拉到不满的一页后，下次拉取前的等待时间（毫秒）
+     */
+    private long baseDelayMs = 200;
+
+    /**
+     * 连续空页时等待时间按倍数增长的上限（毫秒）
+     */
+    private long maxIdleDelayMs = 10000;
+
+    /**
+     * 出错后首次等待时间（毫秒），连续出错时翻倍，直到错误码对应的上限
+     */
+    private long errorBaseDelayMs = 30000;
+
+    /**
+     * 全局同时进行的 GetChatData 调用数上限
+     */
+    private int maxConcurrentFetches = 8;
+
+    /**
+     * 全局每秒 GetChatData 调用数上限，0 表示不限
+     */
+    private double fetchesPerSecond = 20;
+
+    /**
+     * 单页条数上限（SDK 限制 1000），积压企业放大页大小时不超过该值
+     */
+    private int maxPageSize = 1000;
+
+    /**
+     * 积压企业的最大调度权重（未积压企业权重为 1）
+     */
+    private double maxLagWeight = 8;
+
+    /**
+     * 消息延迟每达到该秒数，调度权重加 1
+     */
+    private long lagWeightUnitSec = 300;
+
+    /**
+     * 是否按拉取耗时和下载队列深度自动调整页大小（企业未单独配置时生效）
+     */
+    private boolean adaptivePageSize = false;
+
+    /**
+     * 自适应模式下单页 GetChatData 的目标耗时（毫秒）
+     */
+    private long pageLatencyBudgetMs = 3000;
+
+    /**
+     * 自适应模式下的最小页大小
+     */
+    private int minPageSize = 50;
+
+    /**
+     * 自适应模式下每次增大的条数
+     */
+    private int pageSizeStep = 50;
+
+    /**
+     * 下载队列超过该深度时缩小页大小
+     */
+    private int downloadQueueHighWatermark = 5000;
+
+    /**
+     * 追赶模式
+     */
+    private CatchUp catchUp = new CatchUp();
+
+    @Data
+    public static class CatchUp {
+
+        /**
+         * 消息延迟超过该秒数时进入追赶模式
+         */
+        private long enterLagSec = 3600;
+
+        /**
+         * 消息延迟低于该秒数时退出追赶模式
+         */
+        private long exitLagSec = 600;
+
+        /**
+         * 追赶模式下的最小页大小
+         */
+        private int pageSize = 1000;
+
+        /**
+         * 追赶模式下 seq 检查点写 Redis 的最小间隔（毫秒）
+         */
+        private long checkpointFlushIntervalMs = 10000;
+    }
+}
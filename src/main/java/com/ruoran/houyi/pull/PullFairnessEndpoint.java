@@ -0,0 +1,26 @@
+package com.ruoran.houyi.pull;
+
+import jakarta.annotation.Resource;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 拉取调度份额端点：/houyi-eye/pulls
+ *
+ * @author refactored
+ */
+@Component
+@Endpoint(id = "pulls")
+public class PullFairnessEndpoint {
+
+    @Resource
+    private FairPullScheduler fairPullScheduler;
+
+    @ReadOperation
+    public List<FairPullScheduler.ShareView> shares() {
+        return fairPullScheduler.getShares();
+    }
+}
@@ -0,0 +1,26 @@
+package com.ruoran.houyi.pull;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * seq 检查点配置
+ *
+ * @author refactored
+ */
+@Configuration
+@ConfigurationProperties(prefix = "houyi.checkpoint")
+@Data
+public class SeqCheckpointConfig {
+
+    /**
+     * 水位累计推进多少次后立即写一次 Redis
+     */
+    private int flushEvery = 200;
+
+    /**
+     * 定时写 Redis 的间隔（毫秒）
+     */
+    private long flushIntervalMs = 1000;
+}
@@ -0,0 +1,200 @@
+package com.ruoran.houyi.pull;
+
+import com.ruoran.houyi.cluster.CorpLeaseManager;
+import com.ruoran.houyi.constants.AppConstants;
+import com.ruoran.houyi.utils.JedisUtil;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.JedisPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 会话拉取 seq 检查点
+ * 按企业跟踪处理中/已完成的 seq，维护连续的低水位，
+ * 水位批量写入 Redis（定时或累计推进 N 次），key 仍为 last_seq_{corpId}，重启后从水位继续拉取
+ *
+ * 用法：一页消息处理前逐条 begin，每条处理完成后 complete
+ *
+ * 开启多实例分片时，写入带上企业租约的 fencing token，未持有租约或 token 过期时不写
+ *
+ * @author refactored
+ */
+@Slf4j
+@Component
+public class SeqCheckpointManager {
+
+    @Resource
+    private JedisPool jedisPool;
+
+    @Resource
+    private SeqCheckpointConfig seqCheckpointConfig;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private PullConfig pullConfig;
+
+    @Resource
+    private CorpLeaseManager corpLeaseManager;
+
+    private final Map<String, CorpCheckpoint> checkpoints = new ConcurrentHashMap<>(16);
+
+    private MultiGauge inflightGauge;
+
+    /**
+     * 各企业处理中的 seq 数只注册一次，企业列表随 flushAll 刷新（企业移交后重新加载不再重复注册）
+     */
+    @PostConstruct
+    public void init() {
+        inflightGauge = MultiGauge.builder("houyi_checkpoint_inflight")
+                .description("已开始处理但尚未提交的seq数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 获取企业当前水位，首次调用时从 Redis 加载
+     */
+    public long load(String corpId) {
+        return checkpoint(corpId).tracker.getWatermark();
+    }
+
+    public void begin(String corpId, long seq) {
+        checkpoint(corpId).tracker.begin(seq);
+    }
+
+    public void complete(String corpId, long seq) {
+        CorpCheckpoint checkpoint = checkpoint(corpId);
+        if (checkpoint.tracker.complete(seq) && !checkpoint.deferred
+                && checkpoint.pendingAdvances.incrementAndGet() >= seqCheckpointConfig.getFlushEvery()) {
+            flush(corpId, checkpoint);
+        }
+    }
+
+    /**
+     * 丢弃未提交的进度并返回水位，调用方应从水位重新拉取
+     */
+    public long rewind(String corpId) {
+        return checkpoint(corpId).tracker.rewind();
+    }
+
+    /**
+     * 延迟落盘：只按追赶模式的间隔定时写 Redis，不再按推进次数写
+     */
+    public void setDeferred(String corpId, boolean deferred) {
+        checkpoint(corpId).deferred = deferred;
+    }
+
+    /**
+     * 移交企业前调用：落盘当前水位并移除本地状态
+     */
+    public void release(String corpId) {
+        CorpCheckpoint checkpoint = checkpoints.remove(corpId);
+        if (checkpoint != null) {
+            flush(corpId, checkpoint);
+        }
+    }
+
+    /**
+     * 丢弃本地状态不落盘，下次使用时从 Redis 重新加载
+     */
+    public void discard(String corpId) {
+        checkpoints.remove(corpId);
+    }
+
+    @Scheduled(fixedDelayString = "${houyi.checkpoint.flush-interval-ms:1000}")
+    public void flushAll() {
+        long now = System.currentTimeMillis();
+        checkpoints.forEach((corpId, checkpoint) -> {
+            if (checkpoint.deferred
+                    && now - checkpoint.lastFlushAt < pullConfig.getCatchUp().getCheckpointFlushIntervalMs()) {
+                return;
+            }
+            flush(corpId, checkpoint);
+        });
+        // 已有的企业不覆盖，只增删企业；按 corpId 取当前状态，企业重新加载后仍然有效
+        List<MultiGauge.Row<?>> rows = new ArrayList<>(checkpoints.size());
+        for (String corpId : checkpoints.keySet()) {
+            rows.add(MultiGauge.Row.of(Tags.of("corp", corpId), () -> inflightCount(corpId)));
+        }
+        inflightGauge.register(rows, false);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        checkpoints.forEach(this::flush);
+        log.info("seq检查点已落盘, 企业数:{}", checkpoints.size());
+    }
+
+    private int inflightCount(String corpId) {
+        CorpCheckpoint checkpoint = checkpoints.get(corpId);
+        return checkpoint == null ? 0 : checkpoint.tracker.getInflightCount();
+    }
+
+    private CorpCheckpoint checkpoint(String corpId) {
+        return checkpoints.computeIfAbsent(corpId, this::loadCheckpoint);
+    }
+
+    private CorpCheckpoint loadCheckpoint(String corpId) {
+        long seq = JedisUtil.execute(jedisPool, jedis -> jedis.get(AppConstants.RedisKey.LAST_SEQ_PREFIX + corpId))
+                .filter(StringUtils::isNotEmpty)
+                .map(Long::parseLong)
+                .orElse(0L);
+        CorpCheckpoint checkpoint = new CorpCheckpoint(seq);
+        log.info("加载seq检查点, corpId:{}, seq:{}", corpId, seq);
+        return checkpoint;
+    }
+
+    private void flush(String corpId, CorpCheckpoint checkpoint) {
+        synchronized (checkpoint) {
+            long watermark = checkpoint.tracker.getWatermark();
+            if (watermark <= checkpoint.flushed) {
+                return;
+            }
+            checkpoint.pendingAdvances.set(0);
+            boolean ok;
+            if (corpLeaseManager.isEnabled()) {
+                Long token = corpLeaseManager.fencingToken(corpId);
+                if (token == null) {
+                    log.warn("未持有企业租约，跳过检查点写入, corpId:{}, seq:{}", corpId, watermark);
+                    return;
+                }
+                ok = corpLeaseManager.fencedSetLastSeq(corpId, watermark, token);
+            } else {
+                ok = JedisUtil.execute(jedisPool,
+                        jedis -> jedis.set(AppConstants.RedisKey.LAST_SEQ_PREFIX + corpId, String.valueOf(watermark)))
+                        .isPresent();
+            }
+            if (ok) {
+                checkpoint.flushed = watermark;
+                checkpoint.lastFlushAt = System.currentTimeMillis();
+            }
+        }
+    }
+
+    private static class CorpCheckpoint {
+        final SeqWatermark tracker;
+        final AtomicInteger pendingAdvances = new AtomicInteger(0);
+        long flushed;
+        long lastFlushAt;
+        volatile boolean deferred = false;
+
+        CorpCheckpoint(long seq) {
+            this.tracker = new SeqWatermark(seq);
+            this.flushed = seq;
+        }
+    }
+}
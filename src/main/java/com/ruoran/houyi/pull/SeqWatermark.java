@@ -0,0 +1,107 @@
+package com.ruoran.houyi.pull;
+
+import java.util.BitSet;
+
+/**
+ * 单个企业的 seq 低水位
+ * 记录已开始但未完成的 seq 和已完成但还不能提交的 seq，
+ * 水位推进到"最小未完成 seq 之前的最大已完成 seq"，保证不会越过任何一条未完成的消息
+ *
+ * 例如 1041 仍在处理而 1042 已完成时，水位停在 1040；1041 完成后一次推进到 1042
+ *
+ * 一页内的 seq 基本连续，两个状态都用 BitSet 按 base 偏移存放（第 i 位为 seq = base + i），
+ * 水位推进时整体左移；没有登记任何 seq 时 base 跟随下一个 seq，seq 之间的空洞只占空位
+ *
+ * @author refactored
+ */
+class SeqWatermark {
+
+    private BitSet inflight = new BitSet();
+    private BitSet done = new BitSet();
+    private long base;
+    private long watermark;
+
+    SeqWatermark(long initial) {
+        this.watermark = initial;
+        this.base = initial + 1;
+    }
+
+    /**
+     * 登记开始处理的 seq，必须在比它大的 seq 完成之前调用
+     */
+    synchronized void begin(long seq) {
+        if (seq > watermark) {
+            int index = index(seq);
+            if (!done.get(index)) {
+                inflight.set(index);
+            }
+        }
+    }
+
+    /**
+     * 标记 seq 完成
+     *
+     * @return 水位是否前进
+     */
+    synchronized boolean complete(long seq) {
+        if (seq <= watermark) {
+            return false;
+        }
+        int index = index(seq);
+        inflight.clear(index);
+        done.set(index);
+        int lowestInflight = inflight.nextSetBit(0);
+        int last = done.previousSetBit((lowestInflight < 0 ? done.length() : lowestInflight) - 1);
+        if (last < 0) {
+            return false;
+        }
+        watermark = base + last;
+        inflight = inflight.get(last + 1, Math.max(last + 1, inflight.length()));
+        done = done.get(last + 1, Math.max(last + 1, done.length()));
+        base += last + 1;
+        return true;
+    }
+
+    /**
+     * 放弃所有未提交的进度（处理失败需要从水位重新拉取时调用）
+     *
+     * @return 当前水位
+     */
+    synchronized long rewind() {
+        inflight.clear();
+        done.clear();
+        base = watermark + 1;
+        return watermark;
+    }
+
+    synchronized long getWatermark() {
+        return watermark;
+    }
+
+    synchronized int getInflightCount() {
+        return inflight.cardinality();
+    }
+
+    /**
+     * seq 在 BitSet 中的位置；没有登记任何 seq 时以它为 base，比 base 小时整体右移
+     */
+    private int index(long seq) {
+        if (inflight.isEmpty() && done.isEmpty()) {
+            base = seq;
+        } else if (seq < base) {
+            int shift = Math.toIntExact(base - seq);
+            inflight = shifted(inflight, shift);
+            done = shifted(done, shift);
+            base = seq;
+        }
+        return Math.toIntExact(seq - base);
+    }
+
+    private static BitSet shifted(BitSet bits, int shift) {
+        BitSet result = new BitSet(bits.length() + shift);
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            result.set(i + shift);
+        }
+        return result;
+    }
+}
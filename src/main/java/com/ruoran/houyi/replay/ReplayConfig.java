@@ -0,0 +1,42 @@
+package com.ruoran.houyi.replay;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 回放（补数）配置
+ * 回放走独立的线程池和限流，不占用在线拉取的并发和 QPS 配额
+ *
+ * @author refactored
+ */
+@Configuration
+@ConfigurationProperties(prefix = "houyi.replay")
+@Data
+public class ReplayConfig {
+
+    /**
+     * 每次 GetChatData 拉取条数
+     */
+    private int pageSize = 500;
+
+    /**
+     * GetChatData 超时（秒）
+     */
+    private int timeoutSec = 100;
+
+    /**
+     * 所有回放任务合计每秒最多调用 GetChatData 次数
+     */
+    private double pagesPerSecond = 2;
+
+    /**
+     * 所有回放任务合计每秒最多推送的消息数，<= 0 表示不限
+     */
+    private double pushesPerSecond = 200;
+
+    /**
+     * 保留的已结束任务数（仅内存）
+     */
+    private int maxFinishedJobs = 50;
+}
@@ -0,0 +1,70 @@
+package com.ruoran.houyi.replay;
+
+import lombok.Data;
+
+/**
+ * 回放任务进度
+ *
+ * @author refactored
+ */
+@Data
+public class ReplayJob {
+
+    public enum Status {
+        PENDING,
+        RUNNING,
+        DONE,
+        FAILED,
+        CANCELLED
+    }
+
+    private String jobId;
+
+    private ReplayRequest request;
+
+    /**
+     * 实际拉取的 seq 范围，toSeq 为空表示按时间上限结束
+     */
+    private long fromSeq;
+
+    private Long toSeq;
+
+    private volatile Status status = Status.PENDING;
+
+    /**
+     * 已拉取到的 seq
+     */
+    private volatile long cursor;
+
+    private volatile long pages;
+
+    /**
+     * 拉取到的记录数
+     */
+    private volatile long scanned;
+
+    /**
+     * 在时间范围内的记录数
+     */
+    private volatile long matched;
+
+    private volatile long persisted;
+
+    private volatile long pushed;
+
+    private volatile long downloads;
+
+    private volatile String error;
+
+    private long createdAt;
+
+    private volatile long startedAt;
+
+    private volatile long finishedAt;
+
+    private volatile boolean cancelRequested = false;
+
+    public boolean isFinished() {
+        return status == Status.DONE || status == Status.FAILED || status == Status.CANCELLED;
+    }
+}
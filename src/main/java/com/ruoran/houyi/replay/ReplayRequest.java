@@ -0,0 +1,54 @@
+package com.ruoran.houyi.replay;
+
+import lombok.Data;
+
+/**
+ * 回放请求
+ * seq 范围与时间范围至少指定一个：只给时间范围时按库中记录换算 seq（库中只保留最近两天），
+ * 同时给出时按 seq 范围拉取、按消息时间过滤
+ *
+ * @author refactored
+ */
+@Data
+public class ReplayRequest {
+
+    private String corpId;
+
+    /**
+     * 起始 seq（不含），即从该 seq 之后开始拉取
+     */
+    private Long fromSeq;
+
+    /**
+     * 结束 seq（含）
+     */
+    private Long toSeq;
+
+    /**
+     * 消息时间下限（毫秒，含）
+     */
+    private Long fromTime;
+
+    /**
+     * 消息时间上限（毫秒，含）
+     */
+    private Long toTime;
+
+    /**
+     * 重新推送不需要下载的消息
+     */
+    private boolean repush = false;
+
+    /**
+     * 重新下载媒体消息，下载完成后照常推送
+     */
+    private boolean redownload = false;
+
+    /**
+     * 两者都为 false 时只补齐 original_msg 中缺失的记录；
+     * 不重新下载时补入的媒体消息 push_at 为 ReplayService.REPLAYED_PUSH_AT，补偿任务不会下载推送
+     */
+    public boolean isPersistOnly() {
+        return !repush && !redownload;
+    }
+}
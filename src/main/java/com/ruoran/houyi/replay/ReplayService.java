@@ -0,0 +1,313 @@
+package com.ruoran.houyi.replay;
+
+import com.ruoran.houyi.Message;
+import com.ruoran.houyi.SpringContextUtils;
+import com.ruoran.houyi.downloader.DownloadCreditGate;
+import com.ruoran.houyi.exception.DownloadException;
+import com.ruoran.houyi.finance.FinanceBackend;
+import com.ruoran.houyi.finance.FinanceSdkPool;
+import com.ruoran.houyi.finance.NativeHandles;
+import com.ruoran.houyi.model.CorpInfo;
+import com.ruoran.houyi.model.OriginalMsg;
+import com.ruoran.houyi.mq.MessageProducerAdapter;
+import com.ruoran.houyi.mq.OutboundMessage;
+import com.ruoran.houyi.pull.ChatDataPrefetcher;
+import com.ruoran.houyi.pull.ChatPage;
+import com.ruoran.houyi.pull.ChatRecord;
+import com.ruoran.houyi.repo.CorplistRepo;
+import com.ruoran.houyi.repo.OriginalMsgRepo;
+import com.ruoran.houyi.utils.DateUtil;
+import com.ruoran.houyi.utils.TokenBucket;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 按 seq/时间范围回放会话数据（补数）
+ * 回放任务在独立线程池上运行，有单独的 GetChatData/推送限流，
+ * 只读不写 seq 检查点（last_seq_），不影响在线拉取
+ *
+ * @author refactored
+ */
+@Slf4j
+@Service
+public class ReplayService {
+
+    /**
+     * 不重新下载时媒体消息入库的 push_at：ReloadNotPushMsg 只补偿 push_at 为空或在 [-9, 0] 的消息
+     * 以及 &lt;= -999 的大文件，该值两者都不会选中，回放只入库时不会触发下载和推送
+     */
+    public static final long REPLAYED_PUSH_AT = -500L;
+
+    /**
+     * 下载队列满时重试分发的最短间隔（毫秒）
+     */
+    private static final long DOWNLOAD_RETRY_MS = 1000;
+
+    @Resource
+    private ReplayConfig replayConfig;
+
+    @Resource
+    private CorplistRepo corplistRepo;
+
+    @Resource
+    private OriginalMsgRepo originalMsgRepo;
+
+    @Resource
+    private FinanceSdkPool financeSdkPool;
+
+    @Resource
+    private NativeHandles nativeHandles;
+
+    @Resource
+    private FinanceBackend financeBackend;
+
+    @Resource
+    private MessageProducerAdapter messageProducerAdapter;
+
+    @Resource
+    private SpringContextUtils springContextUtils;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource(name = "replayExecutor")
+    private ThreadPoolTaskExecutor replayExecutor;
+
+    @Resource
+    private DownloadCreditGate downloadCreditGate;
+
+    private final Map<String, ReplayJob> jobs = new ConcurrentHashMap<>(16);
+
+    private TokenBucket pageLimiter;
+    private TokenBucket pushLimiter;
+
+    @PostConstruct
+    public void init() {
+        pageLimiter = new TokenBucket(replayConfig.getPagesPerSecond(), 1);
+        pushLimiter = new TokenBucket(replayConfig.getPushesPerSecond(), replayConfig.getPushesPerSecond());
+    }
+
+    /**
+     * 提交回放任务
+     *
+     * @throws IllegalArgumentException 参数不合法或企业不存在
+     * @throws IllegalStateException    回放线程池已满
+     */
+    public ReplayJob submit(ReplayRequest request) {
+        if (StringUtils.isEmpty(request.getCorpId())) {
+            throw new IllegalArgumentException("corpId 不能为空");
+        }
+        CorpInfo corpInfo = corplistRepo.findFirstByCorpid(request.getCorpId())
+                .orElseThrow(() -> new IllegalArgumentException("corpInfo not exists for corpId:" + request.getCorpId()));
+        if (StringUtils.isEmpty(corpInfo.getPrikey())) {
+            throw new IllegalArgumentException("未配置privateKey, corpId:" + request.getCorpId());
+        }
+
+        ReplayJob job = new ReplayJob();
+        job.setJobId(UUID.randomUUID().toString().replace("-", "").substring(0, 12));
+        job.setRequest(request);
+        job.setCreatedAt(System.currentTimeMillis());
+        resolveRange(request, job);
+        job.setCursor(job.getFromSeq());
+
+        jobs.put(job.getJobId(), job);
+        try {
+            replayExecutor.execute(() -> run(job, corpInfo));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getJobId());
+            throw new IllegalStateException("回放任务过多，请稍后重试");
+        }
+        trimFinishedJobs();
+        log.info("回放任务已提交, jobId:{}, corpId:{}, seq:({}, {}], time:[{}, {}]", job.getJobId(),
+                request.getCorpId(), job.getFromSeq(), job.getToSeq(), request.getFromTime(), request.getToTime());
+        return job;
+    }
+
+    public Optional<ReplayJob> getJob(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+
+    public Collection<ReplayJob> getJobs() {
+        return jobs.values();
+    }
+
+    public boolean cancel(String jobId) {
+        ReplayJob job = jobs.get(jobId);
+        if (job == null || job.isFinished()) {
+            return false;
+        }
+        job.setCancelRequested(true);
+        return true;
+    }
+
+    /**
+     * 只给时间范围时，用库中该日期范围内的最小/最大 seq 作为拉取范围
+     */
+    private void resolveRange(ReplayRequest request, ReplayJob job) {
+        if (request.getFromSeq() == null && request.getFromTime() == null) {
+            throw new IllegalArgumentException("fromSeq 与 fromTime 至少指定一个");
+        }
+        if (request.getToSeq() == null && request.getToTime() == null) {
+            throw new IllegalArgumentException("toSeq 与 toTime 至少指定一个");
+        }
+        if (request.getFromSeq() != null) {
+            job.setFromSeq(request.getFromSeq());
+        } else {
+            long dateNo = Long.parseLong(DateUtil.formatYyyyMMdd(request.getFromTime()));
+            OriginalMsg first = originalMsgRepo
+                    .findFirstByCorpIdAndDateNoGreaterThanEqualOrderBySeqAsc(request.getCorpId(), dateNo)
+                    .orElseThrow(() -> new IllegalArgumentException("库中没有 " + dateNo + " 之后的记录，请指定 fromSeq"));
+            job.setFromSeq(Math.max(first.getSeq() - 1, 0));
+        }
+        if (request.getToSeq() != null) {
+            job.setToSeq(request.getToSeq());
+        }
+        if (job.getToSeq() != null && job.getToSeq() <= job.getFromSeq()) {
+            throw new IllegalArgumentException("toSeq 必须大于 fromSeq");
+        }
+    }
+
+    private void run(ReplayJob job, CorpInfo corpInfo) {
+        ReplayRequest request = job.getRequest();
+        String corpId = corpInfo.getCorpid();
+        job.setStatus(ReplayJob.Status.RUNNING);
+        job.setStartedAt(System.currentTimeMillis());
+        Message message = new Message();
+        message.init(corpId, corpInfo.getSecret(), corpInfo.getPrikey());
+        springContextUtils.autowireBean(message);
+        try {
+            boolean reachedEnd = false;
+            while (!reachedEnd) {
+                if (job.isCancelRequested()) {
+                    job.setStatus(ReplayJob.Status.CANCELLED);
+                    return;
+                }
+                if (request.isRedownload()) {
+                    // 重新下载时跟在线拉取一样按下载队列占用率放慢
+                    Thread.sleep(downloadCreditGate.pullDelay(corpId));
+                }
+                pageLimiter.acquire(1);
+                ChatPage page = ChatDataPrefetcher.fetchPage(financeBackend, financeSdkPool, nativeHandles, corpId,
+                        corpInfo.getSecret(), job.getCursor(), replayConfig.getPageSize(), replayConfig.getTimeoutSec());
+                if (!page.isSuccess()) {
+                    String errMsg = page.getResponse() == null ? "" : page.getResponse().optString("errmsg");
+                    throw new IllegalStateException("GetChatData 失败, ret:" + page.getRet() + ", " + errMsg);
+                }
+                job.setPages(job.getPages() + 1);
+                JSONArray chatData = page.getChatData();
+                for (int i = 0; i < chatData.length() && !reachedEnd; i++) {
+                    reachedEnd = replayRecord(job, message, chatData.getJSONObject(i));
+                }
+                job.setCursor(page.getLastSeq());
+                meterRegistry.counter("houyi_replay_records", Tags.of("corp", corpId)).increment(chatData.length());
+                // 拉到服务端最新位置
+                if (!page.isFull()) {
+                    reachedEnd = true;
+                }
+            }
+            job.setStatus(ReplayJob.Status.DONE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.setError("interrupted");
+            job.setStatus(ReplayJob.Status.FAILED);
+        } catch (Exception e) {
+            log.error("回放任务失败, jobId:{}, corpId:{}, cursor:{}", job.getJobId(), corpId, job.getCursor(), e);
+            job.setError(e.getMessage());
+            job.setStatus(ReplayJob.Status.FAILED);
+        } finally {
+            job.setFinishedAt(System.currentTimeMillis());
+            log.info("回放任务结束, jobId:{}, status:{}, cursor:{}, matched:{}, persisted:{}, pushed:{}, downloads:{}",
+                    job.getJobId(), job.getStatus(), job.getCursor(), job.getMatched(), job.getPersisted(),
+                    job.getPushed(), job.getDownloads());
+        }
+    }
+
+    /**
+     * @return 是否已越过回放范围
+     */
+    boolean replayRecord(ReplayJob job, Message message, JSONObject data) throws InterruptedException {
+        ReplayRequest request = job.getRequest();
+        long seq = data.getLong("seq");
+        if (job.getToSeq() != null && seq > job.getToSeq()) {
+            return true;
+        }
+        job.setScanned(job.getScanned() + 1);
+        ChatRecord record = message.decodeRecord(data);
+        if (record.isSkip()) {
+            return false;
+        }
+        if (request.getToTime() != null && job.getToSeq() == null && record.getMsgTime() > request.getToTime()) {
+            return true;
+        }
+        if ((request.getFromTime() != null && record.getMsgTime() < request.getFromTime())
+                || (request.getToTime() != null && record.getMsgTime() > request.getToTime())) {
+            return false;
+        }
+        job.setMatched(job.getMatched() + 1);
+
+        // 不重新下载的媒体消息标记为已回放，否则会被补偿任务下载并推送
+        Long pushAt = record.isNeedDownload() && !request.isRedownload() ? REPLAYED_PUSH_AT : null;
+        if (message.saveMessage(record.getMsgType(), record.getMsgId(), record.getSeq(), record.getMsgTime(),
+                record.getContent(), record.isNeedDownload(), pushAt)) {
+            job.setPersisted(job.getPersisted() + 1);
+        }
+        if (record.isNeedDownload()) {
+            if (request.isRedownload()) {
+                dispatchDownload(job, message, record);
+                job.setDownloads(job.getDownloads() + 1);
+            }
+        } else if (request.isRepush()) {
+            pushLimiter.acquire(1);
+            OutboundMessage push = message.buildPushMessage(record);
+            messageProducerAdapter.send(push.getBody(), push.getKey());
+            job.setPushed(job.getPushed() + 1);
+        }
+        return false;
+    }
+
+    /**
+     * 回放在自己的线程上执行，下载队列满时等待后重试该条消息
+     */
+    private void dispatchDownload(ReplayJob job, Message message, ChatRecord record) throws InterruptedException {
+        String corpId = job.getRequest().getCorpId();
+        while (true) {
+            try {
+                message.dispatchDownload(record);
+                return;
+            } catch (DownloadException e) {
+                if (job.isCancelRequested()) {
+                    throw e;
+                }
+                Thread.sleep(Math.max(downloadCreditGate.pullDelay(corpId), DOWNLOAD_RETRY_MS));
+            }
+        }
+    }
+
+    private void trimFinishedJobs() {
+        List<ReplayJob> finished = new ArrayList<>();
+        for (ReplayJob job : jobs.values()) {
+            if (job.isFinished()) {
+                finished.add(job);
+            }
+        }
+        if (finished.size() <= replayConfig.getMaxFinishedJobs()) {
+            return;
+        }
+        finished.sort(Comparator.comparingLong(ReplayJob::getFinishedAt));
+        for (int i = 0; i < finished.size() - replayConfig.getMaxFinishedJobs(); i++) {
+            jobs.remove(finished.get(i).getJobId());
+        }
+    }
+}
@@ -6,7 +6,9 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -18,6 +20,24 @@ import java.util.Optional;
 public interface OriginalMsgRepo extends CrudRepository<OriginalMsg, Long>, PagingAndSortingRepository<OriginalMsg,Long>  {
         public Optional<OriginalMsg> findFirstByCorpIdAndMsgIdAndSeq(String corpId,String msgId,long seq);
 
+        /**
+         * 批量入库前查询已存在的记录
+         */
+        List<OriginalMsg> findByCorpIdAndSeqIn(String corpId, Collection<Long> seqs);
+
+        /**
+         * 追赶模式下已分发下载的媒体消息去掉分发中标记（仍为 pushAt 的才更新），之后由 ReloadNotPushMsg 补偿
+         */
+        @Transactional
+        @Modifying
+        @Query(value = "update original_msg set push_at = null where corp_id = ?1 and seq in ?2 and push_at = ?3", nativeQuery = true)
+        int clearPushAt(String corpId, Collection<Long> seqs, long pushAt);
+
+        /**
+         * 回放按日期换算起始 seq（仅限库中尚未清理的日期）
+         */
+        Optional<OriginalMsg> findFirstByCorpIdAndDateNoGreaterThanEqualOrderBySeqAsc(String corpId, long dateNo);
+
 
         /**
          * 删除两天前的消息
@@ -15,7 +15,10 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -97,29 +100,73 @@ public class CorpConfigService {
 
     /**
      * 获取私钥内容
-     * 优先使用 privateKey 字段，如果为空则从 privateKeyFile 读取
+     * 优先使用 privateKey 字段，如果为空则从 privateKeyFile 读取；
+     * 都未配置时使用版本号最大的 privateKeys
      */
     private String getPrivateKey(WeWorkCorpProperties.CorpConfig corpConfig) {
+        String privateKey = readPrivateKey(corpConfig.getPrivateKey(), corpConfig.getPrivateKeyFile(), corpConfig.getCorpId());
+        if (privateKey != null) {
+            return privateKey;
+        }
+        Map<Integer, String> versioned = getPrivateKeys(corpConfig);
+        if (!versioned.isEmpty()) {
+            return versioned.get(Collections.max(versioned.keySet()));
+        }
+
+        // 都没有配置
+        log.error("企业 {} 未配置私钥，请配置 privateKey 或 privateKeyFile", corpConfig.getCorpId());
+        throw new IllegalArgumentException("企业 " + corpConfig.getCorpId() + " 未配置私钥");
+    }
+
+    /**
+     * 按版本号获取企业的私钥内容
+     */
+    public Map<Integer, String> getPrivateKeys(String corpId) {
+        return getCorpConfig(corpId).map(this::getPrivateKeys).orElse(Collections.emptyMap());
+    }
+
+    private Map<Integer, String> getPrivateKeys(WeWorkCorpProperties.CorpConfig corpConfig) {
+        Map<Integer, String> keys = new HashMap<>(4);
+        if (corpConfig.getPrivateKeys() == null) {
+            return keys;
+        }
+        for (WeWorkCorpProperties.VersionedPrivateKey key : corpConfig.getPrivateKeys()) {
+            if (key.getVersion() == null) {
+                log.error("企业 {} 的 private-keys 缺少 version，已忽略", corpConfig.getCorpId());
+                continue;
+            }
+            String content = readPrivateKey(key.getPrivateKey(), key.getPrivateKeyFile(), corpConfig.getCorpId());
+            if (content != null) {
+                keys.put(key.getVersion(), content);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 读取私钥：优先使用直接配置的内容，其次从文件读取，都未配置时返回 null
+     */
+    private String readPrivateKey(String privateKey, String privateKeyFile, String corpId) {
         // 优先使用直接配置的私钥
-        if (corpConfig.getPrivateKey() != null && !corpConfig.getPrivateKey().trim().isEmpty()) {
-            return corpConfig.getPrivateKey();
+        if (privateKey != null && !privateKey.trim().isEmpty()) {
+            return privateKey;
         }
 
         // 从文件读取私钥
-        if (corpConfig.getPrivateKeyFile() != null && !corpConfig.getPrivateKeyFile().trim().isEmpty()) {
+        if (privateKeyFile != null && !privateKeyFile.trim().isEmpty()) {
             try {
-                String privateKeyFile = corpConfig.getPrivateKeyFile().trim();
+                String path = privateKeyFile.trim();
                 Resource resource;
                 
-                if (privateKeyFile.startsWith("classpath:")) {
+                if (path.startsWith("classpath:")) {
                     // 从 classpath 读取
-                    String path = privateKeyFile.substring("classpath:".length());
+                    path = path.substring("classpath:".length());
                     resource = new ClassPathResource(path);
                     log.debug("从 classpath 读取私钥文件: {}", path);
                 } else {
                     // 从文件系统读取
-                    resource = new FileSystemResource(privateKeyFile);
-                    log.debug("从文件系统读取私钥文件: {}", privateKeyFile);
+                    resource = new FileSystemResource(path);
+                    log.debug("从文件系统读取私钥文件: {}", path);
                 }
 
                 if (!resource.exists()) {
@@ -129,18 +176,15 @@ public class CorpConfigService {
 
                 try (Reader reader = new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8)) {
                     String content = FileCopyUtils.copyToString(reader);
-                    log.info("成功从文件读取私钥: {} (corpId: {})", privateKeyFile, corpConfig.getCorpId());
+                    log.info("成功从文件读取私钥: {} (corpId: {})", privateKeyFile, corpId);
                     return content;
                 }
             } catch (IOException e) {
-                log.error("读取私钥文件失败: {}", corpConfig.getPrivateKeyFile(), e);
-                throw new RuntimeException("读取私钥文件失败: " + corpConfig.getPrivateKeyFile(), e);
+                log.error("读取私钥文件失败: {}", privateKeyFile, e);
+                throw new RuntimeException("读取私钥文件失败: " + privateKeyFile, e);
             }
         }
-
-        // 两者都没有配置
-        log.error("企业 {} 未配置私钥，请配置 privateKey 或 privateKeyFile", corpConfig.getCorpId());
-        throw new IllegalArgumentException("企业 " + corpConfig.getCorpId() + " 未配置私钥");
+        return null;
     }
 
     /**
@@ -0,0 +1,63 @@
+package com.ruoran.houyi.storage;
+
+import com.aliyun.oss.OSS;
+import com.aliyun.oss.model.AbortMultipartUploadRequest;
+import com.aliyun.oss.model.CannedAccessControlList;
+import com.aliyun.oss.model.CompleteMultipartUploadRequest;
+import com.aliyun.oss.model.InitiateMultipartUploadRequest;
+import com.aliyun.oss.model.ObjectMetadata;
+import com.aliyun.oss.model.PartETag;
+import com.aliyun.oss.model.UploadPartRequest;
+import jakarta.annotation.Resource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 阿里云 OSS 分片上传
+ *
+ * @author refactored
+ */
+@Component
+@ConditionalOnProperty(name = "houyi.download.streaming.store", havingValue = "oss", matchIfMissing = true)
+public class AliyunMultipartObjectStore implements MultipartObjectStore {
+
+    @Value("${aliyun.bucket}")
+    String bucket;
+
+    @Resource
+    OSS oss;
+
+    @Override
+    public String initiate(String key) {
+        ObjectMetadata meta = new ObjectMetadata();
+        meta.setObjectAcl(CannedAccessControlList.Private);
+        InitiateMultipartUploadRequest request = new InitiateMultipartUploadRequest(bucket, key, meta);
+        return oss.initiateMultipartUpload(request).getUploadId();
+    }
+
+    @Override
+    public String uploadPart(String key, String uploadId, int partNumber, byte[] data) {
+        UploadPartRequest request = new UploadPartRequest(bucket, key, uploadId, partNumber,
+                new ByteArrayInputStream(data), data.length);
+        return oss.uploadPart(request).getPartETag().getETag();
+    }
+
+    @Override
+    public void complete(String key, String uploadId, List<String> etags) {
+        List<PartETag> partETags = new ArrayList<>(etags.size());
+        for (int i = 0; i < etags.size(); i++) {
+            partETags.add(new PartETag(i + 1, etags.get(i)));
+        }
+        oss.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, key, uploadId, partETags));
+    }
+
+    @Override
+    public void abort(String key, String uploadId) {
+        oss.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+    }
+}
@@ -0,0 +1,121 @@
+package com.ruoran.houyi.storage;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * 本地目录模拟的分片上传，用于调试和测试
+ * 分片先写到 {localPath}/.multipart/{uploadId}/，complete 时按顺序合并为 {localPath}/{key}
+ *
+ * @author refactored
+ */
+@Component
+@ConditionalOnProperty(name = "houyi.download.streaming.store", havingValue = "local")
+public class LocalMultipartObjectStore implements MultipartObjectStore {
+
+    private final Path root;
+
+    public LocalMultipartObjectStore(StreamingUploadConfig streamingUploadConfig) {
+        this.root = Path.of(streamingUploadConfig.getLocalPath());
+    }
+
+    @Override
+    public String initiate(String key) {
+        String uploadId = UUID.randomUUID().toString().replace("-", "");
+        try {
+            Files.createDirectories(partsDir(uploadId));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return uploadId;
+    }
+
+    @Override
+    public String uploadPart(String key, String uploadId, int partNumber, byte[] data) {
+        try {
+            Files.write(partsDir(uploadId).resolve(String.valueOf(partNumber)), data);
+            return etag(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void complete(String key, String uploadId, List<String> etags) {
+        Path target = root.resolve(key);
+        try {
+            Files.createDirectories(target.getParent());
+            try (OutputStream out = Files.newOutputStream(target)) {
+                for (int i = 0; i < etags.size(); i++) {
+                    byte[] data = Files.readAllBytes(partsDir(uploadId).resolve(String.valueOf(i + 1)));
+                    if (!etags.get(i).equals(etag(data))) {
+                        throw new IllegalStateException("分片ETag不一致, part:" + (i + 1));
+                    }
+                    out.write(data);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        deleteParts(uploadId);
+    }
+
+    @Override
+    public void abort(String key, String uploadId) {
+        deleteParts(uploadId);
+    }
+
+    /**
+     * 是否存在未合并/未清理的分片上传
+     */
+    public boolean hasPendingUploads() {
+        Path dir = root.resolve(".multipart");
+        if (!Files.isDirectory(dir)) {
+            return false;
+        }
+        try (Stream<Path> uploads = Files.list(dir)) {
+            return uploads.findAny().isPresent();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path partsDir(String uploadId) {
+        return root.resolve(".multipart").resolve(uploadId);
+    }
+
+    private void deleteParts(String uploadId) {
+        Path dir = partsDir(uploadId);
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String etag(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.ruoran.houyi.storage;
+
+import java.util.List;
+
+/**
+ * 支持分片上传的对象存储
+ * 线上为阿里云 OSS，本地调试和测试使用 LocalMultipartObjectStore
+ *
+ * @author refactored
+ */
+public interface MultipartObjectStore {
+
+    /**
+     * 发起分片上传
+     *
+     * @return uploadId
+     */
+    String initiate(String key);
+
+    /**
+     * 上传一个分片，partNumber 从 1 开始；除最后一片外每片不小于 100KB（OSS 限制）
+     *
+     * @return 分片 ETag
+     */
+    String uploadPart(String key, String uploadId, int partNumber, byte[] data);
+
+    /**
+     * 合并分片
+     *
+     * @param etags 按 partNumber 顺序排列的 ETag
+     */
+    void complete(String key, String uploadId, List<String> etags);
+
+    /**
+     * 放弃上传并清理已上传的分片
+     */
+    void abort(String key, String uploadId);
+}
@@ -0,0 +1,47 @@
+package com.ruoran.houyi.storage;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 大文件流式上传配置
+ * 开启后超过阈值的媒体文件边下载边按分片上传到对象存储，不再落本地临时文件
+ *
+ * @author refactored
+ */
+@Configuration
+@ConfigurationProperties(prefix = "houyi.download.streaming")
+@Data
+public class StreamingUploadConfig {
+
+    /**
+     * 是否开启流式上传（默认关闭）
+     */
+    private boolean enabled = false;
+
+    /**
+     * 消息中 filesize 不小于该值（字节）时流式上传
+     */
+    private long thresholdBytes = 50L * 1024 * 1024;
+
+    /**
+     * 分片大小（字节），OSS 要求除最后一片外不小于 100KB
+     */
+    private int partSize = 8 * 1024 * 1024;
+
+    /**
+     * 单个文件同时上传中的分片数，超过时下载等待，限制内存占用约为 partSize * (maxInflightParts + 1)
+     */
+    private int maxInflightParts = 2;
+
+    /**
+     * 对象存储实现：oss（默认）或 local（本地目录，调试/测试用）
+     */
+    private String store = "oss";
+
+    /**
+     * store=local 时的根目录
+     */
+    private String localPath = "/tmp/houyi-objects/";
+}
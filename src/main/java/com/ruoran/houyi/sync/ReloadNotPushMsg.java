@@ -1,6 +1,7 @@
 package com.ruoran.houyi.sync;
 
 import com.ruoran.houyi.DownloadThreadKeeper;
+import com.ruoran.houyi.downloader.BigFileLane;
 import com.ruoran.houyi.model.CorpInfo;
 import com.ruoran.houyi.model.OriginalMsg;
 import com.ruoran.houyi.mq.MessageProducerAdapter;
@@ -51,6 +52,9 @@ public class ReloadNotPushMsg {
     @Resource
     EventBus eventBus;
 
+    @Resource
+    BigFileLane bigFileLane;
+
     private String getSecret(String wxCorpId){
         if(secretMap.containsKey(wxCorpId)){
             return secretMap.get(wxCorpId);
@@ -110,8 +114,11 @@ public class ReloadNotPushMsg {
         }
         ThreadPoolExecutor executorService = (ThreadPoolExecutor) downloadThreadKeeper.getExecutorService();
         int maxPoolSize = executorService.getMaximumPoolSize();
+        // 开启大文件通道时只是兜底（通道满或通道内超时的），按通道容量补偿，不再看普通下载线程池是否空闲
+        boolean idle = bigFileLane.isEnabled()
+                ? bigFileLane.hasCapacity() : eventBus.getActiveThreadCount() < maxPoolSize * 0.1;
         // 多大文件下载也没有意义
-        if(eventBus.getActiveThreadCount() < maxPoolSize*0.1) {
+        if(idle) {
             List<OriginalMsg> msgList = originalMsgRepo.findBigFileNotPushMessage();
             if (!CollectionUtils.isEmpty(msgList)) {
                 for (OriginalMsg msg : msgList) {
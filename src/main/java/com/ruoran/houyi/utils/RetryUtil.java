@@ -30,6 +30,16 @@ public class RetryUtil {
                                        MessageProducerAdapter producer,
                                        EventBus eventBus, String secret, 
                                        String profile, int maxTryCount) {
+        sendRetryMessage(wholeRootObject, producer, eventBus, secret, profile, maxTryCount, true);
+    }
+
+    /**
+     * 发送重试消息，countTry 为 false 时不计入 tryCount（等待同一文件的合并下载没有结果，不是本条消息下载失败）
+     */
+    public static void sendRetryMessage(JSONObject wholeRootObject,
+                                       MessageProducerAdapter producer,
+                                       EventBus eventBus, String secret,
+                                       String profile, int maxTryCount, boolean countTry) {
         try {
             wholeRootObject.put("secret", secret);
             
@@ -40,12 +50,14 @@ public class RetryUtil {
             
             wholeRootObject.put("rocketRetry", "1");
             int tryCount = wholeRootObject.has("tryCount") ? wholeRootObject.getInt("tryCount") : 0;
-            
-            if (tryCount < maxTryCount) {
+            String msgId = wholeRootObject.optString("msgid", "unknown");
+
+            if (!countTry) {
+                producer.sendDelayMessage(wholeRootObject.toString(), msgId);
+                log.info("重试消息已发送(不计次): msgId={}, tryCount={}/{}", msgId, tryCount, maxTryCount);
+            } else if (tryCount < maxTryCount) {
                 wholeRootObject.put("tryCount", tryCount + 1);
                 
-                String msgId = wholeRootObject.optString("msgid", "unknown");
-                
                 // 使用 TCP 延迟消息发送到重试队列
                 producer.sendDelayMessage(wholeRootObject.toString(), msgId);
                 
@@ -53,7 +65,7 @@ public class RetryUtil {
                     msgId, tryCount + 1, maxTryCount);
             } else {
                 log.warn("重试次数已达上限，放弃重试: msgId={}, tryCount={}", 
-                    wholeRootObject.optString("msgid", "unknown"), tryCount);
+                    msgId, tryCount);
             }
         } catch (Exception e) {
             log.error("发送重试消息失败", e);
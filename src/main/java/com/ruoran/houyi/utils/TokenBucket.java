@@ -0,0 +1,72 @@
+package com.ruoran.houyi.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 令牌桶限流
+ * 按固定速率补充令牌，桶容量决定允许的突发量；rate <= 0 表示不限流
+ *
+ * @author refactored
+ */
+public class TokenBucket {
+
+    private final double ratePerSecond;
+    private final double capacity;
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * @param ratePerSecond 每秒补充的令牌数
+     * @param capacity      桶容量（允许的突发量）
+     */
+    public TokenBucket(double ratePerSecond, double capacity) {
+        this.ratePerSecond = ratePerSecond;
+        this.capacity = Math.max(capacity, 1);
+        this.tokens = this.capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public boolean isUnlimited() {
+        return ratePerSecond <= 0;
+    }
+
+    /**
+     * 尝试获取令牌，不等待
+     */
+    public synchronized boolean tryAcquire(double permits) {
+        if (isUnlimited()) {
+            return true;
+        }
+        refill();
+        if (tokens >= permits) {
+            tokens -= permits;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 获取令牌，不足时阻塞等待
+     * 允许透支：单次请求超过桶容量时先扣成负数，后续请求等待补齐，便于按字节数限速
+     */
+    public void acquire(double permits) throws InterruptedException {
+        if (isUnlimited()) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            refill();
+            tokens -= permits;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens / ratePerSecond * TimeUnit.SECONDS.toNanos(1));
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * ratePerSecond / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+    }
+}
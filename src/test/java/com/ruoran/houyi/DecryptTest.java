@@ -42,8 +42,6 @@ public class DecryptTest {
                 "E5iYgI2rsSEuW1tfma9gig==\n" +
                 "-----END PRIVATE KEY-----";
         //----BEGIN PRIVATE KEY-----\\nMIIEvwIBADANBgkqhkiG9w0BAQEFAASCBKkwggSlAgEAAoIBAQDGJwCK9UiUf9OQ\\nYc4ib1dd2lobcmdEhhyNnUXxi39LS9IAUyAwGccQdptGhY12w0w6JZ6UCZxYucuG\\nwlvqNSufUxxk4VbFAli3F4hlRL7zLKXsgiRKAmvqNhupIusXez3Dnpnp1IeMJvNp\\n7HANgeNA+9sbyIgM/93+1o1lXuUJxXfs05T/0wGk4nA74bfH9VkpN4+xkjs82ova\\nHBljYj5oAUy2p+i/8Afp4YqAfOAWSpW3GBYWtTFMEOr4EDeNlK23xzkiWeKNXhaQ\\nzoQwudGd9AxtTe6/zPeHMluwWrMrfvQfRhuzpWb8SoPANJN5KG0NPjKr/0lL0HDM\\nAFUoOPXHAgMBAAECggEACo1VKBE71jygZZXvxkGro2HXXpLPEQUbTCdN7DkDhFz7\\nR+0lT6pvwV6vkifWiraHvqj2Muf4HXl3byu2fVhrhEaGwpCFcGRZmRZ1uv7YNFby\\nVw/vIsnSOVy8SFuFrXBwr5Qomh0pQrtoRwHCTdXW5kUDPA2HwTl29vUx/m35QHXd\\nmcRYE6diiT6gJIENBLiWiUyFEPy7d5KZPp/OhFvnlbEDZ6kQoNWLlNeArZc7Fpw2\\np0v7Md5mFTMQK8U0tywxJE/KMNqU5qb/7L/w7WJCV/q8AzmXwGXrXI40cdussPFB\\nvHmDSA+ow8dGRSEOpT4M1dvh2ffi3Khi+u0Yzyuh4QKBgQDjnNVN+v0S1kBQrtpJ\\nuh60vJHsHeiLc4E/Q6F2RssKDTfj8S8JJUKzK11WsbvXVu8i6HvV+lE2V+ArzXOP\\nk9h4XEIGo/4E3xSSHe8w5oEBwnkQvQ048PzPV/m6jhyzMyvmLam8/Q3Dlc/9Wv4r\\nQlcmx5z8yHrglfYjwxYUoEiCjwKBgQDe3ZFJg1Wy58gEnvx2SUhknbc3fdGOm92R\\nJ+7j8W2w78uHh6zJKm9kHqzf9X2lli8ylhUZZE5Fgmj7G4wK+Tp/jaAB4xajpFGL\\nNyxefTAtJOaEtryaqwqQKdMu2JZsMWV9T/9EVm6AFe9MatYvatjAML64LHLj5w3S\\nJYRPxMoVSQKBgQCuS2WHzl/G8evUHOEpPe3PhurS/WAakTtyv44/rRxDuTWIRiM3\\nhKHb46QZBAcMchSzDYXuqD1SON5/jFcmphdIq5Uf0qps/oqZDXUhZBF70Hi2mZ4r\\ncVaWTA7+jV5q1w+RtnvZLYpBsFHR98DUTXvBRW/wnnCB1DPk1Lnu14JO/wKBgQCu\\nD1x2jtWy6eXE/irtc2TP+IHtHB48BC3zPb4NVzU1mMNcMbHYV4UyK+cW75PXbMml\\n96O49idPkH/Phv9EXsy6bHFIqAS5gA+T7F6B2cJzr7s+cb4yCl4wpAnlL5GkJJxA\\nV+dlhx+8d+UyyMpJtGhfCnMaQtTkfEPGGjkRWAAAyQKBgQCXeRvm3FrrzBrkpURv\\nyFwoXX9EoOS+S0guJrh6iA9Pc4HG/aMHkS2y62npyGLgzn+uolTHSnAUmlbBhPZ9\\ndhnogc7+CjYriM+KVLS0e/3wTSzKpkWIF+FtO1AuvupZH/njLPFcQhO0gTX0qEo4\\n5zM8E2Je2tpVRGqStYJSM7nUog==\\n-----END PRIVATE KEY-----\n";
-        Message msg = new Message();
-        msg.setMode(2);
         RSAEncrypt.decryptByPriKey(randomKey2, key);
         //RSAEncrypt.decryptByPriKey(randomKey, key);
 
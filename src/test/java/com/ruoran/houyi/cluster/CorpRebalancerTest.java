@@ -0,0 +1,42 @@
+package com.ruoran.houyi.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 企业分片归属测试
+ *
+ * @author refactored
+ */
+public class CorpRebalancerTest {
+
+    @Test
+    public void testOwnerSpreadsCorpsAcrossInstances() {
+        List<String> instances = List.of("a", "b", "c");
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 300; i++) {
+            counts.merge(CorpRebalancer.owner("corp" + i, instances), 1, Integer::sum);
+        }
+        assertEquals(3, counts.size());
+        counts.values().forEach(count -> assertTrue(count > 50, "分配不均: " + counts));
+    }
+
+    @Test
+    public void testInstanceLeaveOnlyMovesItsCorps() {
+        List<String> before = List.of("a", "b", "c");
+        List<String> after = List.of("a", "b");
+        for (int i = 0; i < 300; i++) {
+            String corpId = "corp" + i;
+            String owner = CorpRebalancer.owner(corpId, before);
+            if (!"c".equals(owner)) {
+                assertEquals(owner, CorpRebalancer.owner(corpId, after));
+            }
+        }
+    }
+}
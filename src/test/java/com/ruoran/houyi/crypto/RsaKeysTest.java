@@ -0,0 +1,69 @@
+package com.ruoran.houyi.crypto;
+
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * RSA 私钥解析测试
+ *
+ * @author refactored
+ */
+public class RsaKeysTest {
+
+    private static final String RANDOM_KEY = "0123456789abcdef0123456789abcdef";
+
+    @Test
+    public void testPkcs8AndPkcs1DecryptTheSame() throws Exception {
+        KeyPair keyPair = generate();
+        byte[] pkcs8 = keyPair.getPrivate().getEncoded();
+        byte[] pkcs1 = PrivateKeyInfo.getInstance(pkcs8).parsePrivateKey().toASN1Primitive().getEncoded();
+        String pkcs8Pem = pem("PRIVATE KEY", pkcs8);
+        String pkcs1Pem = pem("RSA PRIVATE KEY", pkcs1);
+
+        assertEquals(RsaKeys.Format.PKCS8, RsaKeys.detectFormat(RsaKeys.decodePem(pkcs8Pem)));
+        assertEquals(RsaKeys.Format.PKCS1, RsaKeys.detectFormat(RsaKeys.decodePem(pkcs1Pem)));
+
+        byte[] encrypted = encrypt(keyPair, RANDOM_KEY.getBytes(StandardCharsets.UTF_8));
+        for (String pem : new String[]{pkcs8Pem, pkcs1Pem}) {
+            PrivateKey key = RsaKeys.parsePrivateKey(pem);
+            byte[] plain = RsaKeys.decrypt(Cipher.getInstance("RSA"), key, encrypted);
+            assertEquals(RANDOM_KEY, new String(plain, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testEscapedNewlinesInPem() throws Exception {
+        KeyPair keyPair = generate();
+        String pem = pem("PRIVATE KEY", keyPair.getPrivate().getEncoded()).replace("\n", "\\n");
+        byte[] encrypted = encrypt(keyPair, RANDOM_KEY.getBytes(StandardCharsets.UTF_8));
+        byte[] plain = RsaKeys.decrypt(Cipher.getInstance("RSA"), RsaKeys.parsePrivateKey(pem), encrypted);
+        assertEquals(RANDOM_KEY, new String(plain, StandardCharsets.UTF_8));
+    }
+
+    private static KeyPair generate() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+
+    private static byte[] encrypt(KeyPair keyPair, byte[] data) throws Exception {
+        Cipher cipher = Cipher.getInstance("RSA");
+        cipher.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+        return cipher.doFinal(data);
+    }
+
+    private static String pem(String type, byte[] der) {
+        return "-----BEGIN " + type + "-----\n"
+                + Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.UTF_8)).encodeToString(der)
+                + "\n-----END " + type + "-----";
+    }
+}
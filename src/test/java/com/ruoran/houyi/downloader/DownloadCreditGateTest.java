@@ -0,0 +1,70 @@
+package com.ruoran.houyi.downloader;
+
+import com.ruoran.houyi.DownloadThreadKeeper;
+import com.ruoran.houyi.exception.DownloadException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 下载额度测试：额度在下载结束或提交被拒绝时归还
+ *
+ * @author refactored
+ */
+public class DownloadCreditGateTest {
+
+    @Test
+    public void testCreditHeldUntilReleased() {
+        DownloadCreditGate gate = newGate();
+        List<Runnable> releases = new ArrayList<>();
+        gate.dispatch("a", "m1", releases::add);
+        gate.dispatch("a", "m2", releases::add);
+        assertFalse(gate.hasCredit("a"));
+        assertThrows(DownloadException.class, () -> gate.dispatch("a", "m3", releases::add));
+        assertEquals(2, releases.size());
+        // 其他企业的额度不受影响
+        assertTrue(gate.hasCredit("b"));
+
+        releases.get(0).run();
+        releases.get(0).run();
+        assertTrue(gate.hasCredit("a"));
+        gate.dispatch("a", "m3", releases::add);
+        assertThrows(DownloadException.class, () -> gate.dispatch("a", "m4", releases::add));
+    }
+
+    @Test
+    public void testRejectedSubmitReturnsCredit() {
+        DownloadCreditGate gate = newGate();
+        assertThrows(DownloadException.class, () -> gate.dispatch("a", "m1", release -> {
+            throw new RejectedExecutionException("大文件通道已满");
+        }));
+        assertEquals(0, gate.utilisation("a"));
+    }
+
+    private DownloadCreditGate newGate() {
+        DownloadThreadKeeper downloadThreadKeeper = mock(DownloadThreadKeeper.class);
+        when(downloadThreadKeeper.getExecutorService()).thenReturn(mock(ExecutorService.class));
+        DownloadPrioritizer downloadPrioritizer = mock(DownloadPrioritizer.class);
+        when(downloadPrioritizer.quota("a")).thenReturn(new FairDownloadQueue.Quota(1, 1, 1024));
+        when(downloadPrioritizer.quota("b")).thenReturn(new FairDownloadQueue.Quota(1, 1, 1024));
+        DownloadCreditGate gate = new DownloadCreditGate();
+        ReflectionTestUtils.setField(gate, "downloadCreditConfig", new DownloadCreditConfig());
+        ReflectionTestUtils.setField(gate, "downloadThreadKeeper", downloadThreadKeeper);
+        ReflectionTestUtils.setField(gate, "downloadPrioritizer", downloadPrioritizer);
+        ReflectionTestUtils.setField(gate, "bigFileLane", mock(BigFileLane.class));
+        ReflectionTestUtils.setField(gate, "meterRegistry", new SimpleMeterRegistry());
+        return gate;
+    }
+}
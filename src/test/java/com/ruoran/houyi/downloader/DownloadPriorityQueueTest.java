@@ -0,0 +1,54 @@
+package com.ruoran.houyi.downloader;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 下载优先级队列测试：小文件先出队，大文件截止时间到后不再被插队，超过容量时拒绝
+ *
+ * @author refactored
+ */
+public class DownloadPriorityQueueTest {
+
+    private final Timer timer = Timer.builder("test_wait").register(new SimpleMeterRegistry());
+
+    @Test
+    public void testSmallFirstAndNoStarvation() throws Exception {
+        DownloadPriorityQueue queue = new DownloadPriorityQueue(10);
+        PrioritizedDownload video = task(200, TimeUnit.MILLISECONDS.toNanos(50));
+        PrioritizedDownload image = task(1, 0);
+        queue.offer(video);
+        queue.offer(image);
+        assertEquals(image, queue.poll());
+        assertEquals(video, queue.poll());
+
+        queue.offer(video);
+        Thread.sleep(100);
+        // 大文件已过截止时间，之后入队的小文件排在它后面
+        PrioritizedDownload later = task(1, 0);
+        queue.offer(later);
+        assertEquals(video, queue.poll());
+        assertEquals(later, queue.poll());
+    }
+
+    @Test
+    public void testCapacity() {
+        DownloadPriorityQueue queue = new DownloadPriorityQueue(2);
+        assertTrue(queue.offer(task(1, 0)));
+        assertTrue(queue.offer(task(1, 0)));
+        assertFalse(queue.offer(task(1, 0)));
+        assertEquals(0, queue.remainingCapacity());
+    }
+
+    private PrioritizedDownload task(long expectedBytes, long delayNanos) {
+        return new PrioritizedDownload("corp", expectedBytes, delayNanos, () -> {
+        }, timer);
+    }
+}
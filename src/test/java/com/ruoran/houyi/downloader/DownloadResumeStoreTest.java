@@ -0,0 +1,83 @@
+package com.ruoran.houyi.downloader;
+
+import com.ruoran.houyi.cluster.CorpLeaseManager;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+
+import java.io.File;
+
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 续传进度测试：按字节间隔节流保存，中断时保存最新进度
+ *
+ * @author refactored
+ */
+public class DownloadResumeStoreTest {
+
+    private final Pipeline pipeline = mock(Pipeline.class);
+
+    @Test
+    public void testProgressSavedEveryIntervalAndOnFlush() throws Exception {
+        DownloadResumeStore store = newStore();
+        File file = File.createTempFile("resume_progress", ".bin");
+        file.deleteOnExit();
+        try (MediaSink sink = MediaSink.open(file.getAbsolutePath())) {
+            DownloadResumeStore.Progress progress = store.progress("sdk", file.getAbsolutePath(), sink, true);
+            for (int i = 0; i < 5; i++) {
+                sink.write(new byte[400]);
+                progress.onChunk("index" + i);
+            }
+            // 第 3 个分片后累计 1200 字节，超过 1000 字节间隔保存一次
+            verify(pipeline, times(1)).setex(anyString(), anyLong(), anyString());
+
+            progress.flush();
+            verify(pipeline, times(2)).setex(anyString(), anyLong(), anyString());
+            // 没有新写入时不重复保存
+            progress.flush();
+            verify(pipeline, times(2)).setex(anyString(), anyLong(), anyString());
+        }
+    }
+
+    @Test
+    public void testDisabledProgressNeverSaves() throws Exception {
+        DownloadResumeStore store = newStore();
+        File file = File.createTempFile("resume_progress_off", ".bin");
+        file.deleteOnExit();
+        try (MediaSink sink = MediaSink.open(file.getAbsolutePath())) {
+            DownloadResumeStore.Progress progress = store.progress("sdk", file.getAbsolutePath(), sink, false);
+            sink.write(new byte[2000]);
+            progress.onChunk("index");
+            progress.flush();
+            verify(pipeline, never()).setex(anyString(), anyLong(), anyString());
+        }
+    }
+
+    private DownloadResumeStore newStore() {
+        DownloadResumeConfig config = new DownloadResumeConfig();
+        config.setSaveIntervalBytes(1000);
+        config.setSaveIntervalMs(60000);
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.pipelined()).thenReturn(pipeline);
+        JedisPool pool = mock(JedisPool.class);
+        when(pool.getResource()).thenReturn(jedis);
+        CorpLeaseManager corpLeaseManager = mock(CorpLeaseManager.class);
+        when(corpLeaseManager.getInstanceId()).thenReturn("a");
+        DownloadResumeStore store = new DownloadResumeStore();
+        ReflectionTestUtils.setField(store, "jedisPool", pool);
+        ReflectionTestUtils.setField(store, "downloadResumeConfig", config);
+        ReflectionTestUtils.setField(store, "corpLeaseManager", corpLeaseManager);
+        ReflectionTestUtils.setField(store, "meterRegistry", new SimpleMeterRegistry());
+        return store;
+    }
+}
@@ -0,0 +1,140 @@
+package com.ruoran.houyi.downloader;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 按企业公平调度的下载队列测试
+ *
+ * @author refactored
+ */
+public class FairDownloadQueueTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final Timer timer = Timer.builder("test_wait").register(registry);
+
+    @Test
+    public void testFloodingCorpDoesNotBlockOthers() {
+        FairDownloadQueue queue = new FairDownloadQueue(1000,
+                corpId -> new FairDownloadQueue.Quota(100, 500, 1000), registry);
+        List<String> order = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            queue.offer(task("flood", 1000, order));
+        }
+        queue.offer(task("quiet", 1000, order));
+        queue.offer(task("quiet", 1000, order));
+        for (int i = 0; i < 4; i++) {
+            queue.poll().run();
+        }
+        assertEquals(2, order.stream().filter("quiet"::equals).count());
+        assertEquals(98, queue.size());
+    }
+
+    @Test
+    public void testInFlightAndQueuedCaps() {
+        FairDownloadQueue queue = new FairDownloadQueue(1000,
+                corpId -> new FairDownloadQueue.Quota(1, 2, 1000), registry);
+        List<String> order = new ArrayList<>();
+        assertTrue(queue.offer(task("a", 10, order)));
+        assertTrue(queue.offer(task("a", 10, order)));
+        assertFalse(queue.offer(task("a", 10, order)));
+        assertEquals(2, queue.depth("a"));
+
+        Runnable first = queue.poll();
+        assertNotNull(first);
+        // 下载中已达上限，执行完之前不出队
+        assertNull(queue.poll());
+        assertEquals(1, queue.inFlight("a"));
+        first.run();
+        assertEquals(0, queue.inFlight("a"));
+        assertNotNull(queue.poll());
+        assertEquals(0, queue.depth("a"));
+    }
+
+    @Test
+    public void testDirectInFlightSlotCountsAgainstQuota() {
+        FairDownloadQueue queue = new FairDownloadQueue(1000,
+                corpId -> new FairDownloadQueue.Quota(1, 2, 1000), registry);
+        List<String> order = new ArrayList<>();
+        assertTrue(queue.tryAcquireInFlight("a"));
+        assertFalse(queue.tryAcquireInFlight("a"));
+        assertTrue(queue.offer(task("a", 10, order)));
+        // 附件下载占着名额时，企业排队的任务不出队
+        assertNull(queue.poll());
+        queue.releaseInFlight("a");
+        assertEquals(0, queue.inFlight("a"));
+        assertNotNull(queue.poll());
+    }
+
+    @Test
+    public void testOverQuotaCorpOnSaturatedPool() throws Exception {
+        FairDownloadQueue queue = new FairDownloadQueue(1000,
+                corpId -> new FairDownloadQueue.Quota(1, 2, 1000), registry);
+        ThreadPoolExecutor pool = FairDownloadQueue.newExecutor(queue, 2, Executors.defaultThreadFactory());
+        CountDownLatch finish = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        try {
+            // 线程已全部启动，刚提交的任务也要经过队列出队，不能绕过下载中上限
+            pool.execute(blocking("a", running, maxRunning, finish));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (queue.inFlight("a") == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            pool.execute(blocking("a", running, maxRunning, finish));
+            pool.execute(blocking("a", running, maxRunning, finish));
+            // 排队已满只拒绝该企业，不会新建线程直接执行
+            assertThrows(RejectedExecutionException.class,
+                    () -> pool.execute(blocking("a", running, maxRunning, finish)));
+
+            CountDownLatch other = new CountDownLatch(1);
+            pool.execute(new PrioritizedDownload("b", 10, 0, other::countDown, timer));
+            assertTrue(other.await(5, TimeUnit.SECONDS));
+            assertEquals(1, queue.inFlight("a"));
+            assertEquals(2, queue.depth("a"));
+            assertEquals(2, pool.getPoolSize());
+
+            finish.countDown();
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(1, maxRunning.get());
+            assertEquals(0, queue.inFlight("a"));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private PrioritizedDownload blocking(String corpId, AtomicInteger running, AtomicInteger maxRunning,
+                                         CountDownLatch finish) {
+        return new PrioritizedDownload(corpId, 10, 0, () -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                finish.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+        }, timer);
+    }
+
+    private PrioritizedDownload task(String corpId, long expectedBytes, List<String> order) {
+        return new PrioritizedDownload(corpId, expectedBytes, 0, () -> order.add(corpId), timer);
+    }
+}
@@ -0,0 +1,71 @@
+package com.ruoran.houyi.downloader;
+
+import com.ruoran.houyi.model.Md5Index;
+import com.ruoran.houyi.service.EventBus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * md5 索引进程内缓存测试
+ *
+ * @author refactored
+ */
+public class Md5NearCacheTest {
+
+    @Test
+    public void testLruAndNegativeEntries() throws Exception {
+        Md5NearCacheConfig config = new Md5NearCacheConfig();
+        config.setMaxSize(2);
+        config.setNegativeTtlMs(50);
+        Md5NearCache cache = newCache(config);
+
+        cache.put("a", index("a"), cache.stamp("a"));
+        cache.put("b", index("b"), cache.stamp("b"));
+        // 访问 a 后再放入 c，淘汰最久未访问的 b
+        assertNotNull(cache.lookup("a"));
+        cache.put("c", null, cache.stamp("c"));
+        assertNull(cache.lookup("b"));
+        assertEquals("oss/a", cache.lookup("a").getValue().getOssPath());
+        assertNull(cache.lookup("c").getValue());
+
+        Thread.sleep(100);
+        assertNull(cache.lookup("c"));
+        assertEquals(1.0, cache.hitRatio(Md5NearCache.Tier.NEAR));
+    }
+
+    @Test
+    public void testInvalidateDropsStaleNegative() {
+        Md5NearCache cache = newCache(new Md5NearCacheConfig());
+        long stamp = cache.stamp("a");
+        // 查询 Redis/MySQL 期间另一个线程写入了 ossPath
+        cache.invalidate("a");
+        cache.put("a", null, stamp);
+        assertNull(cache.lookup("a"));
+
+        cache.put("a", null, cache.stamp("a"));
+        assertNotNull(cache.lookup("a"));
+        cache.invalidate("a");
+        assertNull(cache.lookup("a"));
+    }
+
+    private static Md5NearCache newCache(Md5NearCacheConfig config) {
+        Md5NearCache cache = new Md5NearCache();
+        ReflectionTestUtils.setField(cache, "md5NearCacheConfig", config);
+        ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "eventBus", new EventBus());
+        cache.init();
+        return cache;
+    }
+
+    private static Md5Index index(String md5) {
+        Md5Index md5Index = new Md5Index();
+        md5Index.setMd5(md5);
+        md5Index.setOssPath("oss/" + md5);
+        return md5Index;
+    }
+}
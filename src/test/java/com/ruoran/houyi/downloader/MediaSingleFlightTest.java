@@ -0,0 +1,93 @@
+package com.ruoran.houyi.downloader;
+
+import com.ruoran.houyi.cluster.CorpLeaseManager;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.params.SetParams;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 合并下载测试：等待者不阻塞，通过回调拿到领头的结果
+ *
+ * @author refactored
+ */
+public class MediaSingleFlightTest {
+
+    private final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+
+    @AfterEach
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testFollowerSubscribesToLeader() throws Exception {
+        MediaSingleFlight singleFlight = newSingleFlight(60000);
+        MediaSingleFlight.Flight leader = singleFlight.join("md5");
+        assertFalse(leader.isPending());
+        assertFalse(leader.isShared());
+
+        MediaSingleFlight.Flight follower = singleFlight.join("md5");
+        assertTrue(follower.isPending());
+        CompletableFuture<String> result = new CompletableFuture<>();
+        follower.subscribe(result::complete);
+        assertFalse(result.isDone());
+
+        leader.complete("oss/md5");
+        assertEquals("oss/md5", result.get(5, TimeUnit.SECONDS));
+        // 领头结束后下一次 join 重新竞争
+        assertFalse(singleFlight.join("md5").isPending());
+    }
+
+    @Test
+    public void testFollowerTimesOut() throws Exception {
+        MediaSingleFlight singleFlight = newSingleFlight(50);
+        MediaSingleFlight.Flight leader = singleFlight.join("md5");
+        CompletableFuture<String> result = new CompletableFuture<>();
+        singleFlight.join("md5").subscribe(result::complete);
+
+        assertNull(result.get(5, TimeUnit.SECONDS));
+        leader.complete(null);
+    }
+
+    private MediaSingleFlight newSingleFlight(long waitMs) {
+        scheduler.initialize();
+        MediaSingleFlightConfig config = new MediaSingleFlightConfig();
+        config.setWaitMs(waitMs);
+        CorpLeaseManager corpLeaseManager = mock(CorpLeaseManager.class);
+        when(corpLeaseManager.getInstanceId()).thenReturn("a");
+        MediaSingleFlight singleFlight = new MediaSingleFlight();
+        ReflectionTestUtils.setField(singleFlight, "jedisPool", fakeRedis());
+        ReflectionTestUtils.setField(singleFlight, "mediaSingleFlightConfig", config);
+        ReflectionTestUtils.setField(singleFlight, "corpLeaseManager", corpLeaseManager);
+        ReflectionTestUtils.setField(singleFlight, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(singleFlight, "singleFlightScheduler", scheduler);
+        singleFlight.init();
+        return singleFlight;
+    }
+
+    private JedisPool fakeRedis() {
+        Jedis jedis = mock(Jedis.class);
+        when(jedis.get(anyString())).thenReturn(null);
+        when(jedis.set(anyString(), anyString(), any(SetParams.class))).thenReturn("OK");
+        JedisPool pool = mock(JedisPool.class);
+        when(pool.getResource()).thenReturn(jedis);
+        return pool;
+    }
+}
@@ -0,0 +1,79 @@
+package com.ruoran.houyi.downloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 媒体写入测试：分片写入（含断点续传）时计算的 MD5 与重新读文件计算的一致
+ *
+ * @author refactored
+ */
+public class MediaSinkTest {
+
+    @Test
+    public void testIncrementalMd5MatchesFile() throws Exception {
+        File file = File.createTempFile("media_sink", ".bin");
+        file.deleteOnExit();
+        // 已存在的内容会被截断
+        Files.write(file.toPath(), new byte[]{1, 2, 3});
+        Random random = new Random(42);
+        long total = 0;
+        try (MediaSink sink = MediaSink.open(file.getAbsolutePath())) {
+            for (int i = 0; i < 5; i++) {
+                byte[] chunk = new byte[1000 + random.nextInt(5000)];
+                random.nextBytes(chunk);
+                sink.write(chunk);
+                total += chunk.length;
+            }
+            String md5 = sink.finish();
+            assertEquals(fileMd5(file), md5);
+            assertEquals(total, sink.getBytes());
+            assertEquals(total, file.length());
+        }
+    }
+
+    @Test
+    public void testResumeAfterInterruption() throws Exception {
+        File file = File.createTempFile("media_sink_resume", ".bin");
+        file.deleteOnExit();
+        Random random = new Random(7);
+        byte[][] chunks = new byte[4][];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new byte[2000 + random.nextInt(3000)];
+            random.nextBytes(chunks[i]);
+        }
+        long bytes;
+        byte[] digestState;
+        try (MediaSink sink = MediaSink.open(file.getAbsolutePath())) {
+            sink.write(chunks[0]);
+            sink.write(chunks[1]);
+            bytes = sink.getBytes();
+            digestState = sink.getDigestState();
+            // 保存状态后又写了一部分才中断，续传时要截掉
+            sink.write(new byte[100]);
+        }
+        try (MediaSink sink = MediaSink.resume(file.getAbsolutePath(), bytes, digestState)) {
+            sink.write(chunks[2]);
+            sink.write(chunks[3]);
+            String md5 = sink.finish();
+            assertEquals(fileMd5(file), md5);
+            assertEquals(file.length(), sink.getBytes());
+        }
+        long total = 0;
+        for (byte[] chunk : chunks) {
+            total += chunk.length;
+        }
+        assertEquals(total, file.length());
+    }
+
+    private static String fileMd5(File file) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(Files.readAllBytes(file.toPath())));
+    }
+}
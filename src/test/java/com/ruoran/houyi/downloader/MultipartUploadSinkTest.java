@@ -0,0 +1,97 @@
+package com.ruoran.houyi.downloader;
+
+import com.ruoran.houyi.storage.LocalMultipartObjectStore;
+import com.ruoran.houyi.storage.StreamingUploadConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 流式分片上传测试，对象存储使用本地目录
+ *
+ * @author refactored
+ */
+public class MultipartUploadSinkTest {
+
+    private Path root;
+    private LocalMultipartObjectStore store;
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("houyi-objects");
+        StreamingUploadConfig config = new StreamingUploadConfig();
+        config.setLocalPath(root.toString());
+        store = new LocalMultipartObjectStore(config);
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testCompleteAfterMd5Check() throws Exception {
+        byte[] content = randomBytes(10_000);
+        String md5 = HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(content));
+        try (MultipartUploadSink sink = new MultipartUploadSink(store, "a/b.mp4", 1000, 2, executor)) {
+            writeInChunks(sink, content);
+            sink.finish();
+            assertTrue(sink.complete(md5.toUpperCase()));
+        }
+        assertArrayEquals(content, Files.readAllBytes(root.resolve("a/b.mp4")));
+        assertFalse(store.hasPendingUploads());
+    }
+
+    @Test
+    public void testAbortOnMd5MismatchOrFailure() throws Exception {
+        byte[] content = randomBytes(5_000);
+        try (MultipartUploadSink sink = new MultipartUploadSink(store, "bad.mp4", 1000, 2, executor)) {
+            writeInChunks(sink, content);
+            sink.finish();
+            assertFalse(sink.complete("00000000000000000000000000000000"));
+        }
+        // 下载中途失败，未 finish 直接 close
+        try (MultipartUploadSink sink = new MultipartUploadSink(store, "partial.mp4", 1000, 2, executor)) {
+            sink.write(content);
+        }
+        assertFalse(Files.exists(root.resolve("bad.mp4")));
+        assertFalse(Files.exists(root.resolve("partial.mp4")));
+        assertFalse(store.hasPendingUploads());
+    }
+
+    private static void writeInChunks(MediaSink sink, byte[] content) throws Exception {
+        Random random = new Random(7);
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        int offset = 0;
+        while (offset < content.length) {
+            int len = Math.min(content.length - offset, 100 + random.nextInt(700));
+            byte[] chunk = new byte[len];
+            System.arraycopy(content, offset, chunk, 0, len);
+            sink.write(chunk);
+            written.write(chunk);
+            offset += len;
+        }
+        assertArrayEquals(content, written.toByteArray());
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,105 @@
+package com.ruoran.houyi.finance;
+
+import com.ruoran.houyi.crypto.RsaKeys;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 模拟 SDK 测试：生成的会话数据能按线上路径解密，媒体分片拼接后 md5 与消息一致
+ *
+ * @author refactored
+ */
+public class SimulatedFinanceBackendTest {
+
+    @Test
+    public void testChatDataDecryptAndMediaDownload() throws Exception {
+        FinanceSdkConfig config = config();
+        config.getSimulated().setFileRatio(0.5);
+        config.getSimulated().setMessagesPerCorp(30);
+        SimulatedFinanceBackend backend = new SimulatedFinanceBackend(config);
+        PrivateKey privateKey = RsaKeys.parsePrivateKey(backend.getPrivateKeyPem());
+        long sdk = backend.newSdk();
+        assertEquals(0, backend.init(sdk, "corp", "secret"));
+
+        long slice = backend.newSlice();
+        assertEquals(0, backend.getChatData(sdk, 10, 100, "", "", 10, slice));
+        JSONArray chatData = new JSONObject(backend.getContentFromSlice(slice)).getJSONArray("chatdata");
+        // messagesPerCorp 限制到 seq 30
+        assertEquals(20, chatData.length());
+
+        int files = 0;
+        for (int i = 0; i < chatData.length(); i++) {
+            JSONObject record = chatData.getJSONObject(i);
+            byte[] randomKey = RsaKeys.decrypt(Cipher.getInstance("RSA"), privateKey,
+                    Base64.getDecoder().decode(record.getString("encrypt_random_key")));
+            assertEquals(0, backend.decryptData(sdk, new String(randomKey, StandardCharsets.UTF_8),
+                    record.getString("encrypt_chat_msg"), slice));
+            JSONObject msg = new JSONObject(backend.getContentFromSlice(slice));
+            assertEquals(record.getString("msgid"), msg.getString("msgid"));
+            if ("file".equals(msg.getString("msgtype"))) {
+                JSONObject file = msg.getJSONObject("file");
+                byte[] data = download(backend, sdk, file.getString("sdkfileid"));
+                assertEquals(file.getInt("filesize"), data.length);
+                assertEquals(file.getString("md5sum"), HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(data)));
+                files++;
+            }
+        }
+        assertTrue(files > 0);
+        backend.freeSlice(slice);
+        backend.destroySdk(sdk);
+    }
+
+    @Test
+    public void testInjectedErrorCodes() throws Exception {
+        FinanceSdkConfig config = config();
+        config.getSimulated().setChatErrorRate(1);
+        config.getSimulated().setErrorCodes(List.of(10001));
+        SimulatedFinanceBackend backend = new SimulatedFinanceBackend(config);
+        long sdk = backend.newSdk();
+        backend.init(sdk, "corp", "secret");
+        assertEquals(10001, backend.getChatData(sdk, 0, 10, "", "", 10, backend.newSlice()));
+        // 单页超过 1000 条与真实 SDK 一样返回错误
+        assertEquals(10000, backend.getChatData(sdk, 0, 1001, "", "", 10, backend.newSlice()));
+    }
+
+    private static byte[] download(SimulatedFinanceBackend backend, long sdk, String sdkFileId) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String indexBuf = "";
+        while (true) {
+            long mediaData = backend.newMediaData();
+            assertEquals(0, backend.getMediaData(sdk, indexBuf, sdkFileId, "", "", 60, mediaData));
+            out.writeBytes(backend.getData(mediaData));
+            boolean finish = backend.isMediaDataFinish(mediaData) == 1;
+            indexBuf = backend.getOutIndexBuf(mediaData);
+            backend.freeMediaData(mediaData);
+            if (finish) {
+                return out.toByteArray();
+            }
+        }
+    }
+
+    private static FinanceSdkConfig config() {
+        FinanceSdkConfig config = new FinanceSdkConfig();
+        FinanceSdkConfig.Simulated simulated = config.getSimulated();
+        simulated.setPrivateKeyOutput("");
+        simulated.setChatLatencyMs(0);
+        simulated.setMediaLatencyMs(0);
+        simulated.setMediaMinSize(1000);
+        simulated.setMediaMaxSize(5000);
+        simulated.setChunkSize(1024);
+        return config;
+    }
+}
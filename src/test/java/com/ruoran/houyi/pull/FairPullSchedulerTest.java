@@ -0,0 +1,73 @@
+package com.ruoran.houyi.pull;
+
+import com.ruoran.houyi.service.EventBus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 公平拉取调度测试：线程池拒绝时请求留在队列，不阻塞其他企业
+ *
+ * @author refactored
+ */
+public class FairPullSchedulerTest {
+
+    private final ThreadPoolTaskScheduler pullScheduler = new ThreadPoolTaskScheduler();
+
+    private FairPullScheduler fairPullScheduler;
+
+    @AfterEach
+    public void tearDown() {
+        fairPullScheduler.shutdown();
+        pullScheduler.shutdown();
+    }
+
+    @Test
+    public void testRejectedFetchIsRequeued() throws Exception {
+        AtomicInteger rejections = new AtomicInteger(1);
+        ThreadPoolTaskExecutor chatFetchExecutor = mock(ThreadPoolTaskExecutor.class);
+        doAnswer(invocation -> {
+            if (rejections.getAndDecrement() > 0) {
+                throw new RejectedExecutionException("拉取线程池已满");
+            }
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).when(chatFetchExecutor).execute(any(Runnable.class));
+        fairPullScheduler = newScheduler(chatFetchExecutor);
+
+        CountDownLatch fetched = new CountDownLatch(2);
+        fairPullScheduler.submit("a", fetched::countDown);
+        fairPullScheduler.submit("b", fetched::countDown);
+
+        // 第一次派发被拒绝的企业在下一次派发时补上，两个企业都被拉取
+        assertTrue(fetched.await(5, TimeUnit.SECONDS));
+        // 一次拒绝 + 两次执行
+        assertEquals(-2, rejections.get());
+    }
+
+    private FairPullScheduler newScheduler(ThreadPoolTaskExecutor chatFetchExecutor) {
+        pullScheduler.setPoolSize(2);
+        pullScheduler.initialize();
+        FairPullScheduler scheduler = new FairPullScheduler();
+        ReflectionTestUtils.setField(scheduler, "pullConfig", new PullConfig());
+        ReflectionTestUtils.setField(scheduler, "eventBus", new EventBus());
+        ReflectionTestUtils.setField(scheduler, "pageSizeController", mock(PageSizeController.class));
+        ReflectionTestUtils.setField(scheduler, "chatFetchExecutor", chatFetchExecutor);
+        ReflectionTestUtils.setField(scheduler, "pullScheduler", pullScheduler);
+        scheduler.init();
+        return scheduler;
+    }
+}
@@ -0,0 +1,94 @@
+package com.ruoran.houyi.pull;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * seq 低水位测试
+ *
+ * @author refactored
+ */
+public class SeqWatermarkTest {
+
+    @Test
+    public void testInOrderCompletion() {
+        SeqWatermark watermark = new SeqWatermark(1000);
+        for (long seq = 1001; seq <= 1003; seq++) {
+            watermark.begin(seq);
+        }
+        assertTrue(watermark.complete(1001));
+        assertTrue(watermark.complete(1002));
+        assertTrue(watermark.complete(1003));
+        assertEquals(1003, watermark.getWatermark());
+        assertEquals(0, watermark.getInflightCount());
+    }
+
+    @Test
+    public void testHoldsBelowUnfinishedSeq() {
+        SeqWatermark watermark = new SeqWatermark(1040);
+        watermark.begin(1041);
+        watermark.begin(1042);
+        watermark.begin(1043);
+
+        assertFalse(watermark.complete(1042));
+        assertFalse(watermark.complete(1043));
+        assertEquals(1040, watermark.getWatermark());
+
+        assertTrue(watermark.complete(1041));
+        assertEquals(1043, watermark.getWatermark());
+    }
+
+    @Test
+    public void testSeqGap() {
+        SeqWatermark watermark = new SeqWatermark(10);
+        watermark.begin(12);
+        watermark.begin(15);
+        assertTrue(watermark.complete(12));
+        assertEquals(12, watermark.getWatermark());
+        assertTrue(watermark.complete(15));
+        assertEquals(15, watermark.getWatermark());
+    }
+
+    @Test
+    public void testNeverMovesBackwards() {
+        SeqWatermark watermark = new SeqWatermark(100);
+        watermark.begin(90);
+        assertEquals(0, watermark.getInflightCount());
+        assertFalse(watermark.complete(90));
+        assertEquals(100, watermark.getWatermark());
+    }
+
+    @Test
+    public void testRewind() {
+        SeqWatermark watermark = new SeqWatermark(0);
+        watermark.begin(1);
+        watermark.begin(2);
+        watermark.begin(3);
+        watermark.complete(1);
+        watermark.complete(3);
+        assertEquals(1, watermark.rewind());
+        assertEquals(0, watermark.getInflightCount());
+
+        // 重新拉取后从水位继续
+        watermark.begin(2);
+        watermark.begin(3);
+        watermark.complete(2);
+        watermark.complete(3);
+        assertEquals(3, watermark.getWatermark());
+    }
+
+    @Test
+    public void testBeginBelowFirstRegisteredSeq() {
+        SeqWatermark watermark = new SeqWatermark(0);
+        watermark.begin(5);
+        watermark.begin(3);
+        assertEquals(2, watermark.getInflightCount());
+        assertFalse(watermark.complete(5));
+        assertTrue(watermark.complete(3));
+        assertEquals(5, watermark.getWatermark());
+        assertEquals(0, watermark.getInflightCount());
+    }
+}
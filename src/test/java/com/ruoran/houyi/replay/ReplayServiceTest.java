@@ -0,0 +1,98 @@
+package com.ruoran.houyi.replay;
+
+import com.ruoran.houyi.Message;
+import com.ruoran.houyi.mq.MessageProducerAdapter;
+import com.ruoran.houyi.mq.OutboundMessage;
+import com.ruoran.houyi.pull.ChatRecord;
+import com.ruoran.houyi.utils.TokenBucket;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 回放选项测试：repush/redownload 各组合下的入库、下载、推送
+ *
+ * @author refactored
+ */
+public class ReplayServiceTest {
+
+    @Test
+    public void testMediaRecordOptions() throws Exception {
+        // 只入库、只重推：媒体消息标记为已回放，不下载
+        for (boolean repush : new boolean[]{false, true}) {
+            Fixture fixture = new Fixture(repush, false);
+            fixture.replay(true);
+            verify(fixture.message).saveMessage(anyString(), anyString(), anyLong(), anyLong(), any(), eq(true),
+                    eq(ReplayService.REPLAYED_PUSH_AT));
+            verify(fixture.message, never()).dispatchDownload(any());
+            verify(fixture.producer, never()).send(anyString(), anyString());
+        }
+        // 重新下载：按在线拉取的方式入库，下载完成后由下载流程推送
+        for (boolean repush : new boolean[]{false, true}) {
+            Fixture fixture = new Fixture(repush, true);
+            fixture.replay(true);
+            verify(fixture.message).saveMessage(anyString(), anyString(), anyLong(), anyLong(), any(), eq(true),
+                    isNull());
+            verify(fixture.message, times(1)).dispatchDownload(any());
+            verify(fixture.producer, never()).send(anyString(), anyString());
+        }
+    }
+
+    @Test
+    public void testTextRecordOptions() throws Exception {
+        for (boolean repush : new boolean[]{false, true}) {
+            for (boolean redownload : new boolean[]{false, true}) {
+                Fixture fixture = new Fixture(repush, redownload);
+                fixture.replay(false);
+                verify(fixture.message).saveMessage(anyString(), anyString(), anyLong(), anyLong(), any(), eq(false),
+                        isNull());
+                verify(fixture.message, never()).dispatchDownload(any());
+                verify(fixture.producer, times(repush ? 1 : 0)).send(anyString(), anyString());
+            }
+        }
+    }
+
+    private static class Fixture {
+        final Message message = mock(Message.class);
+        final MessageProducerAdapter producer = mock(MessageProducerAdapter.class);
+        final ReplayService service = new ReplayService();
+        final ReplayJob job = new ReplayJob();
+
+        Fixture(boolean repush, boolean redownload) {
+            ReplayRequest request = new ReplayRequest();
+            request.setCorpId("corp");
+            request.setRepush(repush);
+            request.setRedownload(redownload);
+            job.setRequest(request);
+            ReflectionTestUtils.setField(service, "messageProducerAdapter", producer);
+            ReflectionTestUtils.setField(service, "pushLimiter", new TokenBucket(1000, 1000));
+        }
+
+        void replay(boolean needDownload) throws Exception {
+            ChatRecord record = new ChatRecord();
+            record.setSeq(10);
+            record.setMsgId("msg");
+            record.setMsgType(needDownload ? "image" : "text");
+            record.setMsgTime(System.currentTimeMillis());
+            record.setContent(new JSONObject());
+            record.setNeedDownload(needDownload);
+            when(message.decodeRecord(any())).thenReturn(record);
+            when(message.saveMessage(anyString(), anyString(), anyLong(), anyLong(), any(), anyBoolean(), any()))
+                    .thenReturn(true);
+            when(message.buildPushMessage(any())).thenReturn(new OutboundMessage("{}", "msg"));
+            service.replayRecord(job, message, new JSONObject().put("seq", 10));
+        }
+    }
+}